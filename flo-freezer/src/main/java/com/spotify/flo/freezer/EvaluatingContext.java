@@ -32,15 +32,32 @@ import com.spotify.flo.context.ForwardingEvalContext;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * A wrapper context that allows for evaluating specific tasks. This class is intended to be used
  * in pairing with {@link PersistingContext}.
  *
- * <p>See {@link #evaluateTaskFrom(Path)}.
+ * <p>See {@link #evaluateTaskFrom(Path, TaskId)}.
+ *
+ * <p>Input values are read from memory-mapped output files as the inputs of the evaluated task are
+ * evaluated, which completes before its process function starts. Only the direct inputs of the
+ * task are read, each once. Outputs that are a {@link java.nio.ByteBuffer} or a {@code byte[]} are stored raw, and a
+ * {@link java.nio.ByteBuffer} input is passed to the task as a read-only view of the mapped file.
  *
  * <p>todo: support reading and writing from arbitrary {@link Path} types
  */
@@ -58,23 +75,83 @@ public class EvaluatingContext {
 
   /**
    * Evaluate a persisted task, expecting it's input values to exist as "_out" files in the same
-   * directory.
+   * directory. The task is given by its path in {@link PersistingContext#getFiles()}, or by a file
+   * that holds only the task.
    *
    * <p>The output of the evaluated task will be persisted in the same directory.
    *
-   * @param persistedTask A path to the persisted task file that should be evaluated
+   * @param persistedTask A path to the persisted task that should be evaluated
    * @param <T>           The task output type
    * @return The task output value
+   * @throws IllegalArgumentException if the file is a {@link TaskContainer}, which requires the id
+   *                                  of the task, see {@link #evaluateTaskFrom(Path, TaskId)}
    */
   public <T> EvalContext.Value<T> evaluateTaskFrom(Path persistedTask) {
+    final TaskId taskId = PersistingContext.taskIdOf(persistedTask);
+    if (taskId != null) {
+      return evaluateTaskFrom(persistedTask, taskId);
+    }
+
     final Task<T> task;
     try {
+      if (TaskContainer.isContainer(persistedTask)) {
+        throw new IllegalArgumentException(
+            persistedTask + " is a task container, a task id is required");
+      }
       task = Serialization.deserialize(persistedTask);
-    } catch (SerializationException e) {
+    } catch (IOException | SerializationException e) {
+      throw new RuntimeException(e);
+    }
+
+    return new SpecificEval(task, delegate, Collections.emptyMap()).evaluate(task);
+  }
+
+  /**
+   * Evaluate a task of a {@link TaskContainer}, expecting it's input values to exist as "_out"
+   * files in the base directory. Only the task itself is loaded from the container, while its
+   * inputs are placeholders.
+   *
+   * <p>The output of the evaluated task will be persisted in the base directory.
+   *
+   * @param container A path to the container file that holds the task, or a task path of it
+   * @param taskId    The id of the task that should be evaluated
+   * @param <T>       The task output type
+   * @return The task output value
+   */
+  public <T> EvalContext.Value<T> evaluateTaskFrom(Path container, TaskId taskId) {
+    final Task<T> task;
+    try {
+      task = TaskContainer.open(PersistingContext.containerOf(container)).task(taskId);
+    } catch (IOException | SerializationException e) {
       throw new RuntimeException(e);
     }
 
-    return new SpecificEval(task, delegate).evaluate(task);
+    return new SpecificEval(task, delegate, Collections.emptyMap()).evaluate(task);
+  }
+
+  /**
+   * Evaluate a batch of tasks of a {@link TaskContainer} on an executor, each after those of its
+   * inputs that are part of the batch. Inputs that are not part of the batch are expected to
+   * exist as "_out" files in the base directory.
+   *
+   * <p>The output of every evaluated task will be persisted in the base directory. Outputs are
+   * also passed in memory to the tasks of the batch that consume them. A task is not evaluated
+   * if one of its inputs in the batch failed.
+   *
+   * @param container A path to the container file that holds the tasks, or a task path of it
+   * @param taskIds   The ids of the tasks that should be evaluated
+   * @param executor  The executor to evaluate the tasks on
+   * @return The output value of every task, in the order of the given ids
+   */
+  public Map<TaskId, CompletableFuture<Object>> evaluateTasksFrom(
+      Path container, Collection<TaskId> taskIds, Executor executor) {
+    final TaskContainer tasks;
+    try {
+      tasks = TaskContainer.open(PersistingContext.containerOf(container));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return new Batch(tasks, new LinkedHashSet<>(taskIds), executor).evaluate();
   }
 
   private Path resolveExistingOutput(TaskId taskId) {
@@ -85,7 +162,7 @@ public class EvaluatingContext {
   private <T> void persist(TaskId taskId, T output) {
     final Path outputPath = basePath.resolve(cleanForFilename(taskId) + OUTPUT_SUFFIX);
     try {
-      Serialization.serialize(output, outputPath);
+      OutputFiles.write(outputPath, output);
     } catch (SerializationException e) {
       throw new RuntimeException(e);
     }
@@ -94,42 +171,54 @@ public class EvaluatingContext {
   private class SpecificEval extends ForwardingEvalContext {
 
     private final Task<?> evalTask;
+    private final Set<TaskId> inputTaskIds;
+    private final Map<TaskId, Object> outputs;
 
-    protected SpecificEval(Task<?> evalTask, EvalContext delegate) {
+    protected SpecificEval(Task<?> evalTask, EvalContext delegate, Map<TaskId, Object> outputs) {
       super(delegate);
       this.evalTask = evalTask;
+      this.outputs = outputs;
+      this.inputTaskIds = evalTask.inputs().stream()
+          .map(Task::id)
+          .collect(Collectors.toSet());
     }
 
     @Override
     public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
-      final Promise<T> promise = promise();
       final TaskId id = task.id();
-      final Set<TaskId> inputTaskIds = evalTask.inputs().stream()
-          .map(Task::id)
-          .collect(Collectors.toSet());
 
-      if (inputTaskIds.contains(id)) {
+      if (inputTaskIds.contains(id) && outputs.containsKey(id)) {
+        @SuppressWarnings("unchecked")
+        final T value = (T) outputs.get(id);
+        return immediateValue(value);
+      } else if (inputTaskIds.contains(id)) {
         final Path inputValuePath = resolveExistingOutput(id);
-        if (Files.exists(inputValuePath)) {
-          final T value;
+        if (!Files.exists(inputValuePath)) {
+          return failed(new RuntimeException("Output value for input task " + id + " not found"));
+        }
+        // Read on the thread of the context as the input is evaluated
+        return context.value(() -> {
           try {
-            value = Serialization.deserialize(inputValuePath);
-            promise.set(value);
+            return OutputFiles.read(inputValuePath);
           } catch (SerializationException e) {
-            promise.fail(e);
+            throw new RuntimeException(e);
           }
-        } else {
-          promise.fail(new RuntimeException("Output value for input task " + id + " not found"));
-        }
+        });
       } else if (!id.equals(evalTask.id())) {
-        promise.fail(new RuntimeException("Evaluation of unexpected task: " + id));
+        return failed(new RuntimeException("Evaluation of unexpected task: " + id));
       } else {
+        final Promise<T> promise = promise();
         final Value<T> tValue = super.evaluateInternal(task, context);
         tValue.consume(v -> persist(evalTask.id(), v));
         tValue.consume(promise::set);
         tValue.onFail(promise::fail);
+        return promise.value();
       }
+    }
 
+    private <T> Value<T> failed(Throwable throwable) {
+      final Promise<T> promise = promise();
+      promise.fail(throwable);
       return promise.value();
     }
 
@@ -143,4 +232,118 @@ public class EvaluatingContext {
       return tValue;
     }
   }
+
+  /**
+   * A batch of tasks of a container, scheduled by their dependencies within the batch.
+   */
+  private class Batch {
+
+    private final TaskContainer tasks;
+    private final Set<TaskId> taskIds;
+    private final Executor executor;
+
+    private final Map<TaskId, CompletableFuture<Object>> futures = new LinkedHashMap<>();
+    private final Map<TaskId, Object> outputs = new ConcurrentHashMap<>();
+
+    // The number of tasks of the batch that have yet to consume an output
+    private final Map<TaskId, AtomicInteger> consumers = new HashMap<>();
+
+    private Batch(TaskContainer tasks, Set<TaskId> taskIds, Executor executor) {
+      this.tasks = tasks;
+      this.taskIds = taskIds;
+      this.executor = Objects.requireNonNull(executor);
+    }
+
+    private Map<TaskId, CompletableFuture<Object>> evaluate() {
+      final Map<TaskId, List<TaskId>> inputs = new HashMap<>();
+      final Map<TaskId, List<TaskId>> dependents = new HashMap<>();
+      final Map<TaskId, Integer> unscheduledInputs = new HashMap<>();
+      for (TaskId id : taskIds) {
+        final List<TaskId> batchInputs = batchInputs(id);
+        inputs.put(id, batchInputs);
+        unscheduledInputs.put(id, batchInputs.size());
+        for (TaskId input : batchInputs) {
+          consumers.computeIfAbsent(input, i -> new AtomicInteger()).incrementAndGet();
+          dependents.computeIfAbsent(input, i -> new ArrayList<>()).add(id);
+        }
+      }
+
+      // Order the tasks so that every task comes after its inputs, without recursing per level
+      final List<TaskId> order = new ArrayList<>(taskIds.size());
+      for (TaskId id : taskIds) {
+        if (unscheduledInputs.get(id) == 0) {
+          order.add(id);
+        }
+      }
+      for (int i = 0; i < order.size(); i++) {
+        for (TaskId dependent : dependents.getOrDefault(order.get(i), Collections.emptyList())) {
+          if (unscheduledInputs.merge(dependent, -1, Integer::sum) == 0) {
+            order.add(dependent);
+          }
+        }
+      }
+      if (order.size() < taskIds.size()) {
+        throw new IllegalStateException("Tasks of " + tasks.file() + " contain a dependency cycle");
+      }
+
+      for (TaskId id : order) {
+        schedule(id, inputs.get(id));
+      }
+      final Map<TaskId, CompletableFuture<Object>> results = new LinkedHashMap<>();
+      for (TaskId id : taskIds) {
+        results.put(id, futures.get(id));
+      }
+      return results;
+    }
+
+    /**
+     * Schedule a task after its inputs in the batch, which have been scheduled before it.
+     */
+    private void schedule(TaskId id, List<TaskId> inputs) {
+      final CompletableFuture<?>[] inputFutures = new CompletableFuture<?>[inputs.size()];
+      for (int i = 0; i < inputFutures.length; i++) {
+        inputFutures[i] = futures.get(inputs.get(i));
+      }
+      final CompletableFuture<Object> future = CompletableFuture.allOf(inputFutures)
+          .thenComposeAsync(ignored -> evaluate(id), executor);
+
+      // Drop outputs from memory once every task of the batch that consumes them is done
+      future.whenComplete((v, t) -> inputs.forEach(input -> {
+        if (consumers.get(input).decrementAndGet() == 0) {
+          outputs.remove(input);
+        }
+      }));
+
+      futures.put(id, future);
+    }
+
+    private CompletableFuture<Object> evaluate(TaskId id) {
+      final CompletableFuture<Object> future = new CompletableFuture<>();
+      final Task<Object> task;
+      try {
+        task = tasks.task(id);
+      } catch (IOException | SerializationException e) {
+        future.completeExceptionally(e);
+        return future;
+      }
+
+      final EvalContext.Value<Object> value =
+          new SpecificEval(task, delegate, outputs).evaluate(task);
+      value.consume(v -> {
+        if (v != null && consumers.containsKey(id)) {
+          outputs.put(id, v);
+        }
+        future.complete(v);
+      });
+      value.onFail(future::completeExceptionally);
+      return future;
+    }
+
+    private List<TaskId> batchInputs(TaskId id) {
+      return tasks.inputs(id).stream()
+          .filter(taskIds::contains)
+          .distinct()
+          .collect(Collectors.toList());
+    }
+  }
 }
@@ -0,0 +1,126 @@
+/*-
+ * -\-\-
+ * flo-freezer
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.freezer;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads and writes the output values of tasks evaluated by {@link EvaluatingContext}.
+ *
+ * <p>Files are read through a read-only memory mapping. {@link ByteBuffer} and {@code byte[]}
+ * values are written raw behind a short versioned header instead of being serialized, and a
+ * {@link ByteBuffer} value is read back as a read-only view of the mapping, without copying.
+ * Other values are serialized as before.
+ *
+ * <p>Raw output files cannot be read by earlier versions, which expect every output file to be
+ * serialized. All tasks of a persisted graph should be evaluated with the same version.
+ */
+final class OutputFiles {
+
+  private static final int MAGIC = 0x464C4F42;
+  private static final byte VERSION = 1;
+  private static final int HEADER_SIZE = 6;
+  private static final byte BUFFER = 1;
+  private static final byte BYTES = 2;
+
+  private OutputFiles() {
+    throw new UnsupportedOperationException();
+  }
+
+  static void write(Path file, Object value) throws SerializationException {
+    final byte kind;
+    final ByteBuffer bytes;
+    if (value instanceof ByteBuffer) {
+      kind = BUFFER;
+      bytes = ((ByteBuffer) value).duplicate();
+    } else if (value instanceof byte[]) {
+      kind = BYTES;
+      bytes = ByteBuffer.wrap((byte[]) value);
+    } else {
+      Serialization.serialize(value, file);
+      return;
+    }
+
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).put(VERSION).put(kind);
+    header.flip();
+    try (FileChannel channel = FileChannel.open(file, WRITE, CREATE, TRUNCATE_EXISTING)) {
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+    } catch (IOException e) {
+      throw new SerializationException("Writing output failed", e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  static <T> T read(Path file) throws SerializationException {
+    final MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        try (InputStream in = Files.newInputStream(file)) {
+          return Serialization.deserialize(in);
+        }
+      }
+      // The mapping stays valid after the channel is closed
+      mapped = channel.map(MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      throw new SerializationException("Reading output failed", e);
+    }
+
+    if (mapped.remaining() >= HEADER_SIZE && mapped.getInt(0) == MAGIC) {
+      final byte version = mapped.get(4);
+      if (version != VERSION) {
+        throw new SerializationException(
+            "Unsupported output version " + version + " in " + file, null);
+      }
+      final byte kind = mapped.get(5);
+      mapped.position(HEADER_SIZE);
+      switch (kind) {
+        case BUFFER:
+          return (T) mapped.slice().asReadOnlyBuffer();
+        case BYTES:
+          final byte[] bytes = new byte[mapped.remaining()];
+          mapped.get(bytes);
+          return (T) bytes;
+        default:
+          throw new SerializationException("Unknown output kind " + kind + " in " + file, null);
+      }
+    }
+    return Serialization.deserialize(mapped);
+  }
+}
@@ -20,26 +20,26 @@
 
 package com.spotify.flo.freezer;
 
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
-import static java.nio.file.StandardOpenOption.WRITE;
-
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.Fn;
-import com.spotify.flo.Serialization;
 import com.spotify.flo.SerializationException;
 import com.spotify.flo.Task;
+import com.spotify.flo.TaskGraph;
 import com.spotify.flo.TaskId;
 import com.spotify.flo.context.ForwardingEvalContext;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,41 +49,95 @@ import org.slf4j.LoggerFactory;
  * tree will actually be invoked. Instead {@link #evaluate(Task)} will return a {@link Value} that
  * always fails.
  *
- * <p>After the returned {@link Value} has failed, all persisted file paths can be received through
- * {@link #getFiles()}.
+ * <p>The graph of an evaluated task is persisted as a whole into a {@link TaskContainer} file,
+ * which stores every task once. The tasks can be evaluated one at a time with
+ * {@link EvaluatingContext#evaluateTaskFrom(Path, TaskId)}.
+ *
+ * <p>The tasks of a graph are serialized on the {@link Executor} the context was created with
+ * and appended to the container file by the evaluating thread. Graphs of different tasks can be
+ * persisted concurrently. The returned {@link Value} fails with {@link Persisted} only once every
+ * graph that has been started is completely written.
+ *
+ * <p>After the returned {@link Value} has failed, the container file of every persisted task can
+ * be received through {@link #getFiles()}, and the total time spent persisting through
+ * {@link #persistTime()}.
  */
 public class PersistingContext extends ForwardingEvalContext {
 
-  static {
-    // Best effort. Hope that ObjectOutputStream has not been loaded yet :pray:
-    System.setProperty("sun.io.serialization.extendedDebugInfo", "true");
-  }
-
   private static final Logger LOG = LoggerFactory.getLogger(PersistingContext.class);
 
+  static final String CONTAINER_SUFFIX = ".tasks";
+  private static final String TASK_SEPARATOR = CONTAINER_SUFFIX + "#";
+
   private final Path basePath;
+  private final Executor executor;
+  private final TaskGraph graph;
+  private final AtomicLong persistNanos = new AtomicLong();
+
+  // guarded by files
   private final Map<TaskId, Path> files = new LinkedHashMap<>();
+  private final List<CompletableFuture<Void>> persisting = new ArrayList<>();
 
   public PersistingContext(Path basePath, EvalContext delegate) {
+    this(basePath, delegate, Runnable::run);
+  }
+
+  /**
+   * @param basePath  The directory to write the container files to
+   * @param delegate  The context to delegate to
+   * @param executor  The executor to serialize tasks on
+   */
+  public PersistingContext(Path basePath, EvalContext delegate, Executor executor) {
+    this(basePath, delegate, executor, null);
+  }
+
+  /**
+   * @param basePath  The directory to write the container files to
+   * @param delegate  The context to delegate to
+   * @param executor  The executor to serialize tasks on
+   * @param graph     An already built graph, that is persisted when its root task is evaluated
+   *                  instead of building it again, or null
+   */
+  public PersistingContext(Path basePath, EvalContext delegate, Executor executor,
+      TaskGraph graph) {
     super(delegate);
     this.basePath = Objects.requireNonNull(basePath);
+    this.executor = Objects.requireNonNull(executor);
+    this.graph = graph;
   }
 
+  /**
+   * The path of every persisted task. All tasks of a graph are stored in the same container file,
+   * so the path of a task is that of its container file with {@code #} and the task id appended,
+   * e.g. {@code root.tasks#Task(a)#1234abcd}. It is not a file of its own, but is accepted by
+   * {@link EvaluatingContext#evaluateTaskFrom(Path)} and {@link TaskRunnerEntrypoint}.
+   *
+   * @return The path of every persisted task, in the order the graphs were persisted
+   */
   public Map<TaskId, Path> getFiles() {
-    return files;
+    final Map<TaskId, Path> paths = new LinkedHashMap<>();
+    synchronized (files) {
+      files.forEach((id, file) -> paths.put(id, taskPath(file, id)));
+    }
+    return paths;
+  }
+
+  /**
+   * @return The total time spent writing container files
+   */
+  public Duration persistTime() {
+    return Duration.ofNanos(persistNanos.get());
   }
 
   @Override
   public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
-    // materialize lazy inputs
-    task.inputs();
-
-    Path file = taskFile(task.id());
-    files.put(task.id(), file);
-    try {
-      Serialization.serialize(task, file);
-    } catch (SerializationException e) {
-      throw new RuntimeException(e);
+    // The inputs of a task are part of the graph that it was persisted with
+    final boolean persisted;
+    synchronized (files) {
+      persisted = files.containsKey(task.id());
+    }
+    if (!persisted) {
+      persist(task);
     }
 
     return super.evaluateInternal(task, context);
@@ -93,10 +147,46 @@ public class PersistingContext extends ForwardingEvalContext {
   public <T> Value<T> invokeProcessFn(TaskId taskId, Fn<T> processFn) {
     final Promise<T> promise = promise();
     LOG.info("Will not invoke {}", taskId);
-    promise.fail(new Persisted());
+    final CompletableFuture<Void> written;
+    synchronized (files) {
+      written = CompletableFuture.allOf(persisting.toArray(new CompletableFuture[0]));
+    }
+    written.whenComplete((ignored, t) -> {
+      if (t != null) {
+        promise.fail(t instanceof CompletionException ? t.getCause() : t);
+      } else {
+        promise.fail(new Persisted());
+      }
+    });
     return promise.value();
   }
 
+  static Path taskPath(Path container, TaskId taskId) {
+    return container.resolveSibling(container.getFileName() + "#" + taskId);
+  }
+
+  /**
+   * @return The container file of a task path, or the given path if it is not a task path
+   */
+  static Path containerOf(Path path) {
+    final String string = path.toString();
+    final int separator = string.indexOf(TASK_SEPARATOR);
+    return separator == -1
+        ? path
+        : path.getFileSystem().getPath(string.substring(0, separator + CONTAINER_SUFFIX.length()));
+  }
+
+  /**
+   * @return The task id of a task path, or null if it is not a task path
+   */
+  static TaskId taskIdOf(Path path) {
+    final String string = path.toString();
+    final int separator = string.indexOf(TASK_SEPARATOR);
+    return separator == -1
+        ? null
+        : TaskId.parse(string.substring(separator + TASK_SEPARATOR.length()));
+  }
+
   static String cleanForFilename(TaskId taskId) {
     return taskId.toString()
         .toLowerCase()
@@ -105,7 +195,37 @@ public class PersistingContext extends ForwardingEvalContext {
     ;
   }
 
-  private Path taskFile(TaskId taskId) {
-    return basePath.resolve(cleanForFilename(taskId));
+  private void persist(Task<?> task) {
+    final TaskGraph graph = this.graph != null && this.graph.id(this.graph.root()).equals(task.id())
+        ? this.graph
+        : TaskGraph.of(task);
+    final Path file = basePath.resolve(cleanForFilename(task.id()) + CONTAINER_SUFFIX);
+    final CompletableFuture<Void> written = new CompletableFuture<>();
+
+    // Claim the tasks of the graph before writing, so that concurrent evaluations of them do not
+    // persist them again and wait for this container before failing
+    synchronized (files) {
+      if (files.containsKey(task.id())) {
+        return;
+      }
+      for (int node = 0; node < graph.size(); node++) {
+        files.putIfAbsent(graph.id(node), file);
+      }
+      persisting.add(written);
+    }
+
+    final long start = System.nanoTime();
+    try {
+      TaskContainer.write(file, graph, executor);
+    } catch (IOException | SerializationException e) {
+      final RuntimeException exception = new RuntimeException(e);
+      written.completeExceptionally(exception);
+      throw exception;
+    }
+    final long elapsed = System.nanoTime() - start;
+    persistNanos.addAndGet(elapsed);
+    written.complete(null);
+    LOG.info("Persisted {} tasks to {} in {} ms",
+        graph.size(), file, TimeUnit.NANOSECONDS.toMillis(elapsed));
   }
 }
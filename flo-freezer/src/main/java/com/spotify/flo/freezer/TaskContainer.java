@@ -0,0 +1,387 @@
+/*-
+ * -\-\-
+ * flo-freezer
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.freezer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationException;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskEvaluation;
+import com.spotify.flo.TaskGraph;
+import com.spotify.flo.TaskId;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+
+/**
+ * A single file that holds a whole persisted task graph, with every task stored once.
+ *
+ * <p>A serialized {@link Task} includes its materialized inputs, and thus its whole upstream
+ * graph. In a container, each task is instead serialized with references to the other tasks of
+ * the graph by index, followed by a table of contents with the id, type, location and inputs of
+ * every task. The size of a container therefore grows linearly with the graph.
+ *
+ * <p>A task is loaded on its own by {@link #task(TaskId)}, with its inputs resolved to
+ * {@link TaskEvaluation#placeholder(TaskId, Class) placeholders} that only carry their id and type.
+ *
+ * <p>References are written with the object replacement of {@link Serialization}. With a custom
+ * {@link com.spotify.flo.Serializer} that does not support it, every task is stored with its
+ * upstream graph inline, and is still loaded correctly.
+ */
+public final class TaskContainer {
+
+  private static final int MAGIC = 0x464C4F43; // FLOC
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+  private static final int MAX_PENDING_RECORDS = 64;
+
+  private static final ThreadLocal<TaskContainer> LOADING = new ThreadLocal<>();
+
+  private final Path file;
+  private final List<Entry> entries;
+  private final Map<TaskId, Integer> index;
+
+  // guarded by this
+  private final Map<Integer, Task<?>> placeholders = new HashMap<>();
+
+  private TaskContainer(Path file, List<Entry> entries) {
+    this.file = file;
+    this.entries = entries;
+    this.index = new HashMap<>();
+    for (int i = 0; i < entries.size(); i++) {
+      index.put(entries.get(i).id, i);
+    }
+  }
+
+  /**
+   * Write the graph of a task to a new container file.
+   *
+   * @param file  The file to create
+   * @param root  The root task of the graph
+   * @return The written container
+   */
+  public static TaskContainer write(Path file, Task<?> root)
+      throws IOException, SerializationException {
+    return write(file, TaskGraph.of(root), Runnable::run);
+  }
+
+  /**
+   * Write a planned graph to a new container file, serializing the tasks on an executor.
+   *
+   * <p>The tasks are serialized concurrently, a bounded number ahead of the one being written,
+   * and appended to the file in order through a buffer. The file is synced to disk before this
+   * returns.
+   *
+   * @param file      The file to create
+   * @param graph     The graph to write
+   * @param executor  The executor to serialize the tasks on
+   * @return The written container
+   */
+  public static TaskContainer write(Path file, TaskGraph graph, Executor executor)
+      throws IOException, SerializationException {
+    final List<Entry> entries = new ArrayList<>(graph.size());
+    final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    int next = 0;
+    try (final FileChannel channel = FileChannel.open(file, WRITE, CREATE_NEW)) {
+      final DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel), WRITE_BUFFER_SIZE));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+
+      long offset = HEADER_SIZE;
+      for (int node = 0; node < graph.size(); node++) {
+        while (next < graph.size() && pending.size() < MAX_PENDING_RECORDS) {
+          final Task<?> task = graph.task(next++);
+          pending.add(CompletableFuture.supplyAsync(() -> serialize(graph, task), executor));
+        }
+        final byte[] bytes = join(pending.remove());
+        out.write(bytes);
+
+        final Task<?> task = graph.task(node);
+        final int[] inputs = new int[graph.inputCount(node)];
+        for (int i = 0; i < inputs.length; i++) {
+          inputs[i] = graph.input(node, i);
+        }
+        entries.add(new Entry(task.id(), task.type().getName(), offset, bytes.length, inputs));
+        offset += bytes.length;
+      }
+
+      // Table of contents, located by the trailing offset
+      out.writeInt(entries.size());
+      for (Entry entry : entries) {
+        entry.write(out);
+      }
+      out.writeLong(offset);
+      out.flush();
+      channel.force(true);
+    } finally {
+      pending.forEach(future -> future.cancel(false));
+    }
+    return new TaskContainer(file, entries);
+  }
+
+  /**
+   * Read the table of contents of a container file.
+   *
+   * @param file  The container file
+   * @return The container
+   */
+  public static TaskContainer open(Path file) throws IOException {
+    try (final RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+      if (in.length() < HEADER_SIZE + Long.BYTES || in.readInt() != MAGIC) {
+        throw new StreamCorruptedException("Not a task container: " + file);
+      }
+      final int version = in.readInt();
+      if (version != VERSION) {
+        throw new StreamCorruptedException("Unsupported task container version: " + version);
+      }
+      in.seek(in.length() - Long.BYTES);
+      in.seek(in.readLong());
+      final int count = in.readInt();
+      final List<Entry> entries = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        entries.add(Entry.read(in));
+      }
+      return new TaskContainer(file, entries);
+    }
+  }
+
+  /**
+   * @return Whether a file starts like a container, as opposed to e.g. a single serialized task
+   */
+  public static boolean isContainer(Path file) throws IOException {
+    try (final RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+      return in.length() >= HEADER_SIZE && in.readInt() == MAGIC;
+    }
+  }
+
+  public Path file() {
+    return file;
+  }
+
+  /**
+   * @return The ids of all tasks in the container, with the root task first
+   */
+  public List<TaskId> taskIds() {
+    final List<TaskId> ids = new ArrayList<>(entries.size());
+    entries.forEach(entry -> ids.add(entry.id));
+    return Collections.unmodifiableList(ids);
+  }
+
+  /**
+   * @return The ids of the declared inputs of a task, including duplicates
+   */
+  public List<TaskId> inputs(TaskId id) {
+    final Entry entry = entry(id);
+    final List<TaskId> inputs = new ArrayList<>(entry.inputs.length);
+    for (int input : entry.inputs) {
+      inputs.add(entries.get(input).id);
+    }
+    return inputs;
+  }
+
+  /**
+   * Load a single task. Its inputs, and any other task of the graph that it refers to, are
+   * placeholders.
+   *
+   * @param id  The id of the task
+   * @return The task
+   * @throws IllegalArgumentException if there is no such task in the container
+   */
+  public <T> Task<T> task(TaskId id) throws IOException, SerializationException {
+    final Entry entry = entry(id);
+    final byte[] bytes = new byte[entry.length];
+    try (final RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+      in.seek(entry.offset);
+      in.readFully(bytes);
+    }
+    final TaskContainer previous = LOADING.get();
+    LOADING.set(this);
+    try {
+      return Serialization.deserialize(bytes);
+    } finally {
+      LOADING.set(previous);
+    }
+  }
+
+  private Entry entry(TaskId id) {
+    final Integer i = index.get(id);
+    if (i == null) {
+      throw new IllegalArgumentException("No task " + id + " in " + file);
+    }
+    return entries.get(i);
+  }
+
+  private synchronized Task<?> placeholder(int i) throws ClassNotFoundException {
+    Task<?> placeholder = placeholders.get(i);
+    if (placeholder == null) {
+      final Entry entry = entries.get(i);
+      placeholder = TaskEvaluation.placeholder(entry.id, loadClass(entry.type));
+      placeholders.put(i, placeholder);
+    }
+    return placeholder;
+  }
+
+  private static byte[] serialize(TaskGraph graph, Task<?> task) {
+    try {
+      return Serialization.serialize(task, references(graph, task));
+    } catch (SerializationException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private static byte[] join(CompletableFuture<byte[]> future) throws SerializationException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof SerializationException) {
+        throw (SerializationException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  private static UnaryOperator<Object> references(TaskGraph graph, Task<?> task) {
+    return o -> {
+      if (o instanceof Task && o != task) {
+        final int node = graph.indexOf(((Task<?>) o).id());
+        if (node != -1) {
+          return new Reference(node);
+        }
+      }
+      return o;
+    };
+  }
+
+  private static Class<?> loadClass(String name) throws ClassNotFoundException {
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    return Class.forName(name, false, contextClassLoader != null
+        ? contextClassLoader
+        : TaskContainer.class.getClassLoader());
+  }
+
+  /**
+   * Written in place of the other tasks of the graph and resolved to their placeholders when the
+   * task is loaded from a container.
+   */
+  private static final class Reference implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int index;
+
+    private Reference(int index) {
+      this.index = index;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      final TaskContainer container = LOADING.get();
+      if (container == null || index < 0 || index >= container.entries.size()) {
+        throw new InvalidObjectException("Task reference outside of its container: " + index);
+      }
+      try {
+        return container.placeholder(index);
+      } catch (ClassNotFoundException e) {
+        final InvalidObjectException exception =
+            new InvalidObjectException("Failed to load task type");
+        exception.initCause(e);
+        throw exception;
+      }
+    }
+  }
+
+  private static final class Entry {
+
+    private final TaskId id;
+    private final String type;
+    private final long offset;
+    private final int length;
+    private final int[] inputs;
+
+    private Entry(TaskId id, String type, long offset, int length, int[] inputs) {
+      this.id = id;
+      this.type = type;
+      this.offset = offset;
+      this.length = length;
+      this.inputs = inputs;
+    }
+
+    private void write(DataOutput out) throws IOException {
+      writeString(out, id.toString());
+      writeString(out, type);
+      out.writeLong(offset);
+      out.writeInt(length);
+      out.writeInt(inputs.length);
+      for (int input : inputs) {
+        out.writeInt(input);
+      }
+    }
+
+    private static Entry read(DataInput in) throws IOException {
+      final TaskId id = TaskId.parse(readString(in));
+      final String type = readString(in);
+      final long offset = in.readLong();
+      final int length = in.readInt();
+      final int[] inputs = new int[in.readInt()];
+      for (int i = 0; i < inputs.length; i++) {
+        inputs[i] = in.readInt();
+      }
+      return new Entry(id, type, offset, length, inputs);
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+      final byte[] bytes = s.getBytes(UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+      final byte[] bytes = new byte[in.readInt()];
+      in.readFully(bytes);
+      return new String(bytes, UTF_8);
+    }
+  }
+}
@@ -20,16 +20,29 @@
 
 package com.spotify.flo.freezer;
 
+import static com.spotify.flo.freezer.EvaluatingContext.OUTPUT_SUFFIX;
+import static com.spotify.flo.freezer.PersistingContext.cleanForFilename;
+import static java.util.stream.Collectors.toList;
+
 import com.spotify.flo.EvalContext;
+import com.spotify.flo.TaskId;
 import com.spotify.flo.context.InstrumentedContext;
 import com.spotify.flo.context.MemoizingContext;
+import java.io.IOException;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,29 +51,57 @@ import org.slf4j.LoggerFactory;
  * been persisted by {@link PersistingContext}. It expects the inputs to the task to already
  * have been evaluated using the same method.
  *
+ * <p>The task is given by its path in {@link PersistingContext#getFiles()}, which is the
+ * {@link TaskContainer} file with {@code #} and the task id appended, either percent-encoded in
+ * the file URI or as its fragment. It can also be given as a container file and a task id, or as
+ * a file that holds only the task. A container file without a task id is rejected.
+ *
  * <p>After evaluation of the specified task has completed, the output value will be stored as a
- * sibling file to the persisted task file, with an added "_out" suffix.
+ * sibling file to the persisted task file, named after the task with an added "_out" suffix.
+ *
+ * <p>With {@code --batch}, many tasks of a container are evaluated in one JVM, each after those
+ * of its inputs that are part of the batch. The tasks are listed one id per line in a ready-set
+ * file, or else every task of the container that has no output file yet is evaluated. They are
+ * evaluated on {@code flo.batch.threads} threads (default: one per available processor). The
+ * exit status is 1 if any task failed, once all other tasks are done.
  */
 public class TaskRunnerEntrypoint {
 
   private static final Logger LOG = LoggerFactory.getLogger(TaskRunnerEntrypoint.class);
 
+  private static final String BATCH_THREADS_PROPERTY = "flo.batch.threads";
+
+  private static final String BATCH = "--batch";
+  private static final String USAGE = "Usage: flo-task-runner <task-file>"
+      + " | <task-container-file> <task-id>"
+      + " | --batch <task-container-file> [<ready-set-file>]";
+
   public static void main(String[] args) throws InterruptedException {
-    if (args.length < 1) {
-      LOG.info("Usage: flo-task-runner <persisted-task-file>");
+    if (args.length >= 2 && args.length <= 3 && BATCH.equals(args[0])) {
+      runBatch(args);
+      return;
+    }
+    if (args.length < 1 || args.length > 2) {
+      LOG.info(USAGE);
       System.exit(1);
     }
 
-    final String file = args[0];
-    final URI fileUri = URI.create(file);
-    final Path filePath = Paths.get(fileUri);
-
-    final EvaluatingContext evaluatingContext = new EvaluatingContext(
-        filePath.resolveSibling(""), MemoizingContext.composeWith(
-            InstrumentedContext.composeWith(
-                EvalContext.sync(), new LoggingListener())));
+    final URI uri = URI.create(args[0]);
+    final Path filePath = Paths.get(withoutFragment(uri));
+    final TaskId taskId = args.length == 2
+        ? TaskId.parse(args[1])
+        : uri.getFragment() != null ? TaskId.parse(uri.getFragment()) : null;
+    if (taskId == null && isContainer(filePath)) {
+      LOG.error("{} is a task container, a task id is required", filePath);
+      LOG.info(USAGE);
+      System.exit(1);
+    }
+    final EvaluatingContext evaluatingContext =
+        evaluatingContext(PersistingContext.containerOf(filePath));
 
-    final EvalContext.Value<Object> value = evaluatingContext.evaluateTaskFrom(filePath);
+    final EvalContext.Value<Object> value = taskId != null
+        ? evaluatingContext.evaluateTaskFrom(filePath, taskId)
+        : evaluatingContext.evaluateTaskFrom(filePath);
     final CompletableFuture<Object> future = new CompletableFuture<>();
     value.consume(future::complete);
     value.onFail(future::completeExceptionally);
@@ -72,4 +113,98 @@ public class TaskRunnerEntrypoint {
       System.exit(1);
     }
   }
+
+  private static void runBatch(String[] args) throws InterruptedException {
+    final Path filePath =
+        PersistingContext.containerOf(Paths.get(withoutFragment(URI.create(args[1]))));
+    final List<TaskId> taskIds;
+    try {
+      taskIds = args.length == 3
+          ? readyTasks(Paths.get(URI.create(args[2])))
+          : pendingTasks(filePath);
+    } catch (IOException e) {
+      LOG.error("Could not read batch of {}", filePath, e);
+      System.exit(1);
+      return;
+    }
+
+    final int threads = Integer.getInteger(
+        BATCH_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+    final AtomicLong count = new AtomicLong(0);
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("flo-batch-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    LOG.info("Evaluating {} tasks of {} on {} threads", taskIds.size(), filePath, threads);
+    final Map<TaskId, CompletableFuture<Object>> results;
+    try {
+      results = evaluatingContext(filePath).evaluateTasksFrom(filePath, taskIds, executor);
+    } catch (RuntimeException e) {
+      executor.shutdownNow();
+      LOG.error("Could not evaluate batch of {}", filePath, e);
+      System.exit(1);
+      return;
+    }
+
+    int failed = 0;
+    for (Map.Entry<TaskId, CompletableFuture<Object>> result : results.entrySet()) {
+      try {
+        result.getValue().get(24, TimeUnit.HOURS);
+      } catch (ExecutionException | TimeoutException e) {
+        LOG.error("{} failed", result.getKey(), e);
+        failed++;
+      }
+    }
+    executor.shutdown();
+
+    if (failed > 0) {
+      LOG.info("{} of {} tasks failed", failed, results.size());
+      System.exit(1);
+    }
+  }
+
+  private static URI withoutFragment(URI uri) {
+    if (uri.getFragment() == null) {
+      return uri;
+    }
+    try {
+      return new URI(uri.getScheme(), uri.getSchemeSpecificPart(), null);
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  private static boolean isContainer(Path filePath) {
+    try {
+      return TaskContainer.isContainer(filePath);
+    } catch (IOException e) {
+      // Let the evaluation report it
+      return false;
+    }
+  }
+
+  private static List<TaskId> readyTasks(Path readySet) throws IOException {
+    return Files.readAllLines(readySet).stream()
+        .map(String::trim)
+        .filter(line -> !line.isEmpty())
+        .map(TaskId::parse)
+        .collect(toList());
+  }
+
+  private static List<TaskId> pendingTasks(Path container) throws IOException {
+    final Path basePath = container.resolveSibling("");
+    return TaskContainer.open(container).taskIds().stream()
+        .filter(id -> !Files.exists(basePath.resolve(cleanForFilename(id) + OUTPUT_SUFFIX)))
+        .collect(toList());
+  }
+
+  private static EvaluatingContext evaluatingContext(Path filePath) {
+    return new EvaluatingContext(
+        filePath.resolveSibling(""), MemoizingContext.composeWith(
+            InstrumentedContext.composeWith(
+                EvalContext.sync(), new LoggingListener())));
+  }
 }
@@ -23,18 +23,29 @@ package com.spotify.flo.freezer;
 import static com.spotify.flo.EvalContext.sync;
 import static com.spotify.flo.freezer.EvaluatingContext.OUTPUT_SUFFIX;
 import static com.spotify.flo.freezer.PersistingContext.cleanForFilename;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.spotify.flo.EvalContext;
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationValidation;
+import com.spotify.flo.SerializationValidation.Mode;
 import com.spotify.flo.Task;
 import com.spotify.flo.TaskId;
 import com.spotify.flo.context.AwaitingConsumer;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -65,7 +76,7 @@ public class EvaluatingContextTest {
     Path persistedPath = persist(task).get(task.id());
 
     AwaitingConsumer<String> await = AwaitingConsumer.create();
-    evaluatingContext.<String>evaluateTaskFrom(persistedPath).consume(await);
+    evaluatingContext.<String>evaluateTaskFrom(persistedPath, task.id()).consume(await);
 
     String output = await.awaitAndGet();
     assertThat(output, is("hello world"));
@@ -78,7 +89,7 @@ public class EvaluatingContextTest {
 
     AwaitingConsumer<String> await = AwaitingConsumer.create();
     final EvalContext.Value<String> stringValue =
-        evaluatingContext.evaluateTaskFrom(persistedPath);
+        evaluatingContext.evaluateTaskFrom(persistedPath, task.id());
     stringValue.consume(await);
     stringValue.onFail(Throwable::printStackTrace);
 
@@ -94,7 +105,7 @@ public class EvaluatingContextTest {
     AwaitingConsumer<Throwable> awaitFailure = AwaitingConsumer.create();
     Path downstreamPath = persistedPaths.get(task.id());
     final EvalContext.Value<String> stringValue =
-        evaluatingContext.evaluateTaskFrom(downstreamPath);
+        evaluatingContext.evaluateTaskFrom(downstreamPath, task.id());
     stringValue.onFail(awaitFailure);
 
     expect.expect(RuntimeException.class);
@@ -113,7 +124,7 @@ public class EvaluatingContextTest {
     AwaitingConsumer<String> await = AwaitingConsumer.create();
     Path downstreamPath = persistedPaths.get(task.id());
     final EvalContext.Value<String> stringValue =
-        evaluatingContext.evaluateTaskFrom(downstreamPath);
+        evaluatingContext.evaluateTaskFrom(downstreamPath, task.id());
     stringValue.consume(await);
     stringValue.onFail(Throwable::printStackTrace);
 
@@ -131,7 +142,7 @@ public class EvaluatingContextTest {
     AwaitingConsumer<String> await = AwaitingConsumer.create();
     Path downstreamPath = persistedPaths.get(task.id());
     final EvalContext.Value<String> stringValue =
-        evaluatingContext.evaluateTaskFrom(downstreamPath);
+        evaluatingContext.evaluateTaskFrom(downstreamPath, task.id());
     stringValue.consume(await);
     stringValue.onFail(Throwable::printStackTrace);
 
@@ -139,6 +150,140 @@ public class EvaluatingContextTest {
     assertFalse(calledInputCode);
   }
 
+  @Test
+  public void evaluatesTaskPersistedToFileOfItsOwn() throws Exception {
+    Task<String> task = singleTask("world");
+    Path persistedPath = basePath.resolve(cleanForFilename(task.id()));
+    Serialization.serialize(task, persistedPath);
+
+    AwaitingConsumer<String> await = AwaitingConsumer.create();
+    evaluatingContext.<String>evaluateTaskFrom(persistedPath).consume(await);
+
+    assertThat(await.awaitAndGet(), is("hello world"));
+  }
+
+  @Test
+  public void evaluatesTaskByItsPathInContainer() throws Exception {
+    Task<String> task = singleTask("world");
+    Path persistedPath = persist(task).get(task.id());
+
+    AwaitingConsumer<String> await = AwaitingConsumer.create();
+    evaluatingContext.<String>evaluateTaskFrom(persistedPath).consume(await);
+
+    assertThat(await.awaitAndGet(), is("hello world"));
+  }
+
+  @Test
+  public void requiresTaskIdForContainer() throws Exception {
+    Task<String> task = singleTask("world");
+    Path persistedPath = PersistingContext.containerOf(persist(task).get(task.id()));
+
+    expect.expect(IllegalArgumentException.class);
+    expect.expectMessage("a task id is required");
+    evaluatingContext.evaluateTaskFrom(persistedPath);
+  }
+
+  @Test
+  public void failsWithPersistedOnceTasksAreWritten() throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      persistingContext = new PersistingContext(basePath, EvalContext.async(executor), executor);
+      Task<String> task = downstreamTask("world");
+
+      AwaitingConsumer<Throwable> awaitPersist = AwaitingConsumer.create();
+      persistingContext.evaluate(task).onFail(awaitPersist);
+
+      assertThat(awaitPersist.awaitAndGet(), is(instanceOf(Persisted.class)));
+      Map<TaskId, Path> persistedPaths = persistingContext.getFiles();
+      evalUpstreamTask(persistedPaths);
+
+      AwaitingConsumer<String> await = AwaitingConsumer.create();
+      evaluatingContext.<String>evaluateTaskFrom(persistedPaths.get(task.id()), task.id())
+          .consume(await);
+      assertThat(await.awaitAndGet(), is("hello world!"));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void readsByteBufferInputsFromMappedOutput() throws Exception {
+    Task<ByteBuffer> buffer = Task.named("buffer").ofType(ByteBuffer.class)
+        .process(() -> ByteBuffer.wrap("hello".getBytes(UTF_8)));
+    Task<byte[]> bytes = Task.named("bytes").ofType(byte[].class)
+        .process(() -> " world".getBytes(UTF_8));
+    Task<String> task = Task.named("concat").ofType(String.class)
+        .input(() -> buffer)
+        .input(() -> bytes)
+        .process((b, a) -> {
+          final byte[] head = new byte[b.remaining()];
+          b.get(head);
+          return (b.isReadOnly() && b.isDirect() ? "mapped " : "") + new String(head, UTF_8)
+              + new String(a, UTF_8);
+        });
+    Map<TaskId, Path> persistedPaths = persist(task);
+
+    for (Task<?> input : task.inputs()) {
+      AwaitingConsumer<Object> awaitInput = AwaitingConsumer.create();
+      evaluatingContext.evaluateTaskFrom(persistedPaths.get(input.id()), input.id())
+          .consume(awaitInput);
+      awaitInput.awaitAndGet();
+    }
+
+    AwaitingConsumer<String> await = AwaitingConsumer.create();
+    evaluatingContext.<String>evaluateTaskFrom(persistedPaths.get(task.id()), task.id())
+        .consume(await);
+    assertThat(await.awaitAndGet(), is("mapped hello world"));
+  }
+
+  @Test
+  public void evaluatesBatchInDependencyOrder() throws Exception {
+    Task<String> task = downstreamTask("world");
+    Task<String> upstream = singleTask("world");
+    Path container = PersistingContext.containerOf(persist(task).get(task.id()));
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Map<TaskId, CompletableFuture<Object>> results = evaluatingContext
+          .evaluateTasksFrom(container, Arrays.asList(task.id(), upstream.id()), executor);
+
+      assertThat(results.get(task.id()).get(30, TimeUnit.SECONDS), is("hello world!"));
+      assertThat(results.get(upstream.id()).get(30, TimeUnit.SECONDS), is("hello world"));
+      assertTrue(Files.exists(basePath.resolve(cleanForFilename(upstream.id()) + OUTPUT_SUFFIX)));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void evaluatesDeepBatch() throws Exception {
+    // A round trip of the closures of a deep graph would overflow the stack while building it
+    SerializationValidation.setMode(Mode.OFF);
+    Task<Integer> task = Task.named("level", 0).ofType(Integer.class).process(() -> 0);
+    try {
+      for (int i = 1; i <= 5_000; i++) {
+        final Task<Integer> input = task;
+        task = Task.named("level", i).ofType(Integer.class)
+            .input(() -> input)
+            .process(level -> level + 1);
+      }
+    } finally {
+      SerializationValidation.setMode(Mode.STRICT);
+    }
+    Path container = basePath.resolve("deep");
+    TaskContainer.write(container, task);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      final Map<TaskId, CompletableFuture<Object>> results = evaluatingContext
+          .evaluateTasksFrom(container, TaskContainer.open(container).taskIds(), executor);
+
+      assertThat(results.get(task.id()).get(60, TimeUnit.SECONDS), is(5_000));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   static Task<String> singleTask(String arg) {
     return Task.named("single", arg).ofType(String.class)
         .process(() -> "hello " + arg);
@@ -162,8 +307,9 @@ public class EvaluatingContextTest {
 
   private void evalUpstreamTask(Map<TaskId, Path> persistedPaths) throws InterruptedException {
     AwaitingConsumer<String> awaitUpstream = AwaitingConsumer.create();
-    Path upstreamPath = persistedPaths.get(singleTask("world").id());
-    evaluatingContext.<String>evaluateTaskFrom(upstreamPath)
+    TaskId upstreamId = singleTask("world").id();
+    Path upstreamPath = persistedPaths.get(upstreamId);
+    evaluatingContext.<String>evaluateTaskFrom(upstreamPath, upstreamId)
         .consume(awaitUpstream);
     awaitUpstream.awaitAndGet();
   }
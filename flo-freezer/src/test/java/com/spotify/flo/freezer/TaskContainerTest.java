@@ -0,0 +1,146 @@
+/*-
+ * -\-\-
+ * flo-freezer
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.freezer;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.Serialization;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskGraph;
+import com.spotify.flo.TaskId;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class TaskContainerTest {
+
+  @Rule public ExpectedException expect = ExpectedException.none();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path file;
+
+  @Before
+  public void setUp() {
+    file = temporaryFolder.getRoot().toPath().resolve("graph" + PersistingContext.CONTAINER_SUFFIX);
+  }
+
+  @Test
+  public void storesEachTaskOnce() throws Exception {
+    final Task<Integer> root = chain(50);
+
+    final TaskContainer container = TaskContainer.write(file, root);
+
+    assertThat(container.taskIds().size(), is(51));
+    assertThat(container.taskIds().get(0), is(root.id()));
+
+    // A serialized task includes its whole materialized upstream graph
+    final TaskGraph graph = TaskGraph.of(root);
+    long taskFiles = 0;
+    for (int node = 0; node < graph.size(); node++) {
+      taskFiles += Serialization.serialize(graph.task(node)).length;
+    }
+    assertThat(Files.size(file), is(lessThan(taskFiles / 4)));
+
+    final Path deeper = temporaryFolder.getRoot().toPath().resolve("deeper");
+    TaskContainer.write(deeper, chain(100));
+    assertThat(Files.size(deeper), is(lessThan(Files.size(file) * 5 / 2)));
+  }
+
+  @Test
+  public void writesTasksSerializedOnExecutorInOrder() throws Exception {
+    final Task<Integer> root = chain(200);
+    final Path sequential = temporaryFolder.getRoot().toPath().resolve("sequential");
+    TaskContainer.write(sequential, root);
+
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      TaskContainer.write(file, TaskGraph.of(root), executor);
+    } finally {
+      executor.shutdown();
+    }
+
+    final TaskContainer container = TaskContainer.open(file);
+    assertThat(container.taskIds(), is(TaskContainer.open(sequential).taskIds()));
+    assertThat(Files.readAllBytes(file), is(Files.readAllBytes(sequential)));
+    assertThat(container.task(chain(7).id()).inputs().get(0).id(), is(chain(6).id()));
+  }
+
+  @Test
+  public void loadsTaskWithPlaceholderInputs() throws Exception {
+    final Task<Integer> left = Task.named("left").ofType(Integer.class)
+        .input(() -> chain(3))
+        .process(i -> i + 1);
+    final Task<Integer> right = Task.named("right").ofType(Integer.class)
+        .input(() -> chain(3))
+        .process(i -> i + 2);
+    final Task<Integer> root = Task.named("root").ofType(Integer.class)
+        .input(() -> left)
+        .input(() -> right)
+        .process((l, r) -> l + r);
+    TaskContainer.write(file, root);
+
+    final TaskContainer container = TaskContainer.open(file);
+    final Task<Integer> loaded = container.task(left.id());
+
+    assertThat(loaded.id(), is(left.id()));
+    assertThat(loaded.inputs().stream().map(Task::id).collect(toList()),
+        contains(chain(3).id()));
+    assertThat(loaded.inputs().get(0).inputs(), is(empty()));
+    assertThat(container.inputs(root.id()), contains(left.id(), right.id()));
+  }
+
+  @Test
+  public void failsOnUnknownTask() throws Exception {
+    TaskContainer.write(file, chain(1));
+
+    expect.expect(IllegalArgumentException.class);
+    TaskContainer.open(file).task(TaskId.create("unknown"));
+  }
+
+  @Test
+  public void failsOnOtherFiles() throws Exception {
+    Serialization.serialize(chain(1), file);
+
+    expect.expect(StreamCorruptedException.class);
+    TaskContainer.open(file);
+  }
+
+  private static Task<Integer> chain(int depth) {
+    if (depth == 0) {
+      return Task.named("chain", 0).ofType(Integer.class).process(() -> 0);
+    }
+    return Task.named("chain", depth).ofType(Integer.class)
+        .input(() -> chain(depth - 1))
+        .process(i -> i + 1);
+  }
+}
@@ -25,8 +25,10 @@ import static com.spotify.flo.freezer.PersistingContext.cleanForFilename;
 import static org.junit.Assert.assertTrue;
 
 import com.spotify.flo.Task;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -48,4 +50,39 @@ public class TaskRunnerEntrypointTest {
 
     assertTrue(Files.exists(subTest.basePath.resolve(cleanForFilename(task.id()) + OUTPUT_SUFFIX)));
   }
+
+  @Test
+  public void evalEntrypointShouldProduceOutputOfTaskInContainer() throws Exception {
+    Task<String> task = EvaluatingContextTest.singleTask("world");
+    Path container = PersistingContext.containerOf(subTest.persist(task).get(task.id()));
+
+    TaskRunnerEntrypoint.main(new String[]{container.toUri().toString(), task.id().toString()});
+
+    assertTrue(Files.exists(subTest.basePath.resolve(cleanForFilename(task.id()) + OUTPUT_SUFFIX)));
+  }
+
+  @Test
+  public void evalEntrypointShouldProduceOutputOfTaskGivenAsFragment() throws Exception {
+    Task<String> task = EvaluatingContextTest.singleTask("world");
+    URI container = PersistingContext.containerOf(subTest.persist(task).get(task.id())).toUri();
+
+    TaskRunnerEntrypoint.main(new String[]{
+        new URI(container.getScheme(), container.getSchemeSpecificPart(), task.id().toString())
+            .toString()});
+
+    assertTrue(Files.exists(subTest.basePath.resolve(cleanForFilename(task.id()) + OUTPUT_SUFFIX)));
+  }
+
+  @Test
+  public void batchEntrypointShouldProduceOutputsOfAllPendingTasks() throws Exception {
+    Task<String> task = EvaluatingContextTest.downstreamTask("world");
+    Path persistedPath = subTest.persist(task).get(task.id());
+
+    TaskRunnerEntrypoint.main(new String[]{"--batch", persistedPath.toUri().toString()});
+
+    for (Task<?> evaluated : Arrays.asList(task, task.inputs().get(0))) {
+      assertTrue(Files.exists(
+          subTest.basePath.resolve(cleanForFilename(evaluated.id()) + OUTPUT_SUFFIX)));
+    }
+  }
 }
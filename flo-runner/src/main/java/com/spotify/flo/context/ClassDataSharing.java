@@ -0,0 +1,165 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Class data sharing (CDS) archives of the classes loaded by {@link ForkingExecutor} sub-processes.
+ *
+ * <p>An archive is created once per JVM and classpath in a dump run, which forks a no-op function
+ * with {@code -XX:ArchiveClassesAtExit}. Sub-processes started with {@link #javaArgs(Path)} then
+ * map the classes from the archive instead of loading and verifying them from the classpath.
+ *
+ * <p>Dynamic archives require Java 13 or later. On earlier JVMs, no archive is created.
+ */
+final class ClassDataSharing {
+
+  private static final Logger log = LoggerFactory.getLogger(ClassDataSharing.class);
+
+  private static final int MIN_JAVA_VERSION = 13;
+
+  private ClassDataSharing() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return true if the running JVM can create and use dynamic archives
+   */
+  static boolean isSupported() {
+    return javaVersion() >= MIN_JAVA_VERSION;
+  }
+
+  /**
+   * Get the archive of the running JVM and classpath, creating it if it does not exist yet.
+   *
+   * @param directory  The directory to keep archives in
+   * @param javaArgs   Additional jvm arguments of the dump run
+   * @return The archive, or empty if archives are not supported or the dump run failed
+   */
+  static Optional<Path> archive(Path directory, List<String> javaArgs) {
+    if (!isSupported()) {
+      log.debug("Class data sharing archives are not supported by this JVM");
+      return Optional.empty();
+    }
+    final Path archive = directory.resolve("flo-" + key() + ".jsa");
+    if (Files.exists(archive)) {
+      return Optional.of(archive);
+    }
+
+    final Path tmp = directory.resolve(archive.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    final List<String> dumpArgs = new ArrayList<>(javaArgs);
+    dumpArgs.add("-XX:ArchiveClassesAtExit=" + tmp);
+    log.info("Creating class data sharing archive: {}", archive);
+    try (ForkingExecutor executor = new ForkingExecutor()) {
+      Files.createDirectories(directory);
+      executor.javaArgs(dumpArgs).execute(() -> null);
+      if (!Files.exists(tmp)) {
+        log.warn("Dump run did not create class data sharing archive {}", tmp);
+        return Optional.empty();
+      }
+      Files.move(tmp, archive, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to create class data sharing archive {}", archive, e);
+      return Optional.empty();
+    } finally {
+      try {
+        Files.deleteIfExists(tmp);
+      } catch (IOException e) {
+        log.debug("Failed to delete {}", tmp, e);
+      }
+    }
+    return Optional.of(archive);
+  }
+
+  /**
+   * @return The jvm arguments that make a sub-process use an archive
+   */
+  static List<String> javaArgs(Path archive) {
+    return Collections.singletonList("-XX:SharedArchiveFile=" + archive);
+  }
+
+  /**
+   * An archive can only be used by the same JVM with the same classpath, so the key is a hash of
+   * the JVM and of the classpath entries, including their sizes and modification times.
+   */
+  static String key() {
+    final MessageDigest digest = sha256();
+    update(digest, System.getProperty("java.home"));
+    update(digest, System.getProperty("java.vm.version"));
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      final Path path = Paths.get(entry).toAbsolutePath();
+      update(digest, path.toString());
+      final File file = path.toFile();
+      update(digest, file.length() + ":" + file.lastModified());
+    }
+    return hex(digest.digest());
+  }
+
+  private static int javaVersion() {
+    final String version = System.getProperty("java.specification.version");
+    try {
+      return version.startsWith("1.")
+             ? Integer.parseInt(version.substring(2))
+             : Integer.parseInt(version);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static void update(MessageDigest digest, String s) {
+    digest.update(s.getBytes(UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+}
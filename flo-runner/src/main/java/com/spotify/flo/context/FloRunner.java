@@ -25,8 +25,10 @@ import static java.util.Objects.requireNonNull;
 
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.FloTesting;
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationValidation;
 import com.spotify.flo.Task;
-import com.spotify.flo.TaskInfo;
+import com.spotify.flo.TaskGraph;
 import com.spotify.flo.context.InstrumentedContext.Listener;
 import com.spotify.flo.freezer.Persisted;
 import com.spotify.flo.freezer.PersistingContext;
@@ -45,6 +47,8 @@ import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.Spliterator;
@@ -54,6 +58,9 @@ import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -74,14 +81,69 @@ public final class FloRunner<T> {
   private static final String MODE = "mode";
   private static final String FLO_ASYNC = "flo.async";
   private static final String FLO_WORKERS = "flo.workers";
+  private static final String FLO_EXECUTOR = "flo.executor";
+  private static final String FLO_MAX_CONCURRENCY = "flo.maxConcurrency";
+  private static final String FLO_INLINE_CONTINUATIONS = "flo.inlineContinuations";
+  private static final String FLO_FAIL_FAST = "flo.failFast";
+  private static final String FLO_FORK_COMPRESSION = "flo.fork.compression";
+  private static final String FLO_FORK_IN_PROCESS_NAMES = "flo.fork.inProcess.names";
+  private static final String FLO_FORK_IN_PROCESS_OPERATORS = "flo.fork.inProcess.operators";
+  private static final String FLO_FORK_MEMORY_ENABLED = "flo.fork.memory.enabled";
+  private static final String FLO_FORK_MEMORY_BUDGET = "flo.fork.memory.budget";
+  private static final String FLO_FORK_MEMORY_OVERHEAD = "flo.fork.memory.overhead";
+  private static final String FLO_FORK_CDS_ENABLED = "flo.fork.cds.enabled";
+  private static final String FLO_FORK_CDS_DIRECTORY = "flo.fork.cds.directory";
+  private static final String FLO_FORK_POOL_SIZE = "flo.fork.pool.size";
+  private static final String FLO_FORK_POOL_MAX_TASKS_PER_WORKER =
+      "flo.fork.pool.maxTasksPerWorker";
+  private static final String FLO_FORK_POOL_RECYCLE_ON_FAILURE = "flo.fork.pool.recycleOnFailure";
+  private static final String FLO_FORK_VALUES_ENABLED = "flo.fork.values.enabled";
+  private static final String FLO_FORK_VALUES_THRESHOLD = "flo.fork.values.threshold";
+  private static final String FLO_FORK_VALUES_DIRECTORY = "flo.fork.values.directory";
+  private static final String FLO_MEMO_MODE = "flo.memo.mode";
+  private static final String FLO_MEMO_BUDGET = "flo.memo.budget";
+  private static final String FLO_CACHE_ENABLED = "flo.cache.enabled";
+  private static final String FLO_CACHE_DIRECTORY = "flo.cache.directory";
+  private static final String FLO_CACHE_MAX_SIZE = "flo.cache.maxSize";
+  private static final String FLO_CACHE_VERSION = "flo.cache.version";
   private static final String FLO_STATE_LOCATION = "flo.state.location";
+  private static final String FLO_PERSIST_THREADS = "flo.persist.threads";
+  private static final String FLO_SERIALIZER = "flo.serializer";
+  private static final String FLO_SERIALIZATION_VALIDATION = "flo.serialization.validation";
+  private static final String FLO_SERIALIZATION_SAMPLE_RATE = "flo.serialization.sampleRate";
 
   private final Logging logging = Logging.create(LOG);
   private final Collection<Closeable> closeables = new ArrayList<>();
   private final Config config;
 
+  private SpillingMemoizingContext spillingContext;
+  private ForkingContext forkingContext;
+  private ForkAdmission forkAdmission;
+  private ValueStore valueStore;
+  private CachingContext cachingContext;
+  private PersistingContext persistingContext;
+
   private FloRunner(Config config) {
     this.config = requireNonNull(config);
+    configureSerialization(config);
+  }
+
+  /**
+   * Apply the serialization settings that are configured explicitly. The validation mode only
+   * affects tasks created after the runner, the task graph to run has been built already under
+   * the mode set by the system property or {@link SerializationValidation#setMode}.
+   */
+  private static void configureSerialization(Config config) {
+    if (config.hasPath(FLO_SERIALIZER)) {
+      Serialization.setSerializer(config.getString(FLO_SERIALIZER));
+    }
+    if (config.hasPath(FLO_SERIALIZATION_VALIDATION)) {
+      SerializationValidation.setMode(
+          SerializationValidation.Mode.parse(config.getString(FLO_SERIALIZATION_VALIDATION)));
+    }
+    if (config.hasPath(FLO_SERIALIZATION_SAMPLE_RATE)) {
+      SerializationValidation.setSampleRate(config.getInt(FLO_SERIALIZATION_SAMPLE_RATE));
+    }
   }
 
   private static Config defaultConfig() {
@@ -123,16 +185,16 @@ public final class FloRunner<T> {
   private Future<T> run(Task<T> task) {
     logging.header();
 
-    final TaskInfo taskInfo = TaskInfo.ofTask(task);
+    final TaskGraph graph = TaskGraph.of(task);
 
     if (isMode("tree")) {
-      logging.tree(taskInfo);
+      logging.tree(graph);
       return CompletableFuture.completedFuture(null);
     }
 
-    logging.printPlan(taskInfo);
+    logging.printPlan(graph);
 
-    final EvalContext evalContext = createContext();
+    final EvalContext evalContext = createContext(graph);
     final long t0 = System.nanoTime();
     final EvalContext.Value<T> value = evalContext.evaluate(task);
     final CompletableFuture<T> future = new CompletableFuture<>();
@@ -152,58 +214,164 @@ public final class FloRunner<T> {
 
       if (throwable != null) {
         logging.exception(throwable);
-        logging.complete(taskInfo, Duration.ofNanos(System.nanoTime() - t0));
+        logging.complete(graph, Duration.ofNanos(System.nanoTime() - t0));
+        logStats();
         throw new CompletionException(throwable);
       }
 
-      logging.complete(taskInfo, Duration.ofNanos(System.nanoTime() - t0));
+      logging.complete(graph, Duration.ofNanos(System.nanoTime() - t0));
+      logStats();
 
       return v;
     });
   }
 
-  private EvalContext createContext() {
+  private void logStats() {
+    logging.serializationValidation(SerializationValidation.stats());
+    if (spillingContext != null) {
+      logging.memoSpill(spillingContext.stats());
+    }
+    if (cachingContext != null) {
+      logging.cache(cachingContext.stats());
+    }
+    if (forkingContext != null) {
+      logging.forks(forkingContext.forkedTasks(), forkingContext.inProcessTasks());
+      logging.forkMetrics(forkingContext.forkMetrics());
+    }
+    if (forkAdmission != null) {
+      logging.forkAdmission(forkAdmission);
+    }
+    if (valueStore != null) {
+      logging.forkValues(valueStore);
+    }
+    if (persistingContext != null) {
+      logging.persisted(persistingContext);
+    }
+  }
+
+  private EvalContext createContext(TaskGraph graph) {
     final Listener listener = resolveListener();
     closeables.add(listener);
 
-    final EvalContext baseContext = InstrumentedContext.composeWith(createRootContext(), listener);
+    final EvalContext rootContext = config.getBoolean(FLO_FAIL_FAST)
+        ? FailFastContext.composeWith(createRootContext(graph))
+        : createRootContext(graph);
+    final EvalContext baseContext = InstrumentedContext.composeWith(rootContext, listener);
 
     if (isMode("persist")) {
       return
-          MemoizingContext.composeWith(
+          memoizingContext(
               OverridingContext.composeWith(
                   LoggingContext.composeWith(
-                      persist(baseContext),
-                      logging), logging));
+                      persist(baseContext, graph),
+                      logging), logging), graph);
     } else {
       return
           TracingContext.composeWith(
               forkingContext(
-                  MemoizingContext.composeWith(
-                      OverridingContext.composeWith(
-                          LoggingContext.composeWith(
-                              baseContext,
-                              logging), logging))));
+                  memoizingContext(
+                      cachingContext(
+                          OverridingContext.composeWith(
+                              LoggingContext.composeWith(
+                                  baseContext,
+                                  logging), logging), graph), graph)));
     }
   }
 
-  private EvalContext createRootContext() {
-    if (config.getBoolean(FLO_ASYNC)) {
-      final AtomicLong count = new AtomicLong(0);
-      final ThreadFactory threadFactory = runnable -> {
-        final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
-        thread.setName("flo-worker-" + count.getAndIncrement());
-        thread.setDaemon(true);
-        return thread;
-      };
-      final ExecutorService executor = Executors.newFixedThreadPool(
-          config.getInt(FLO_WORKERS),
-          threadFactory);
-      closeables.add(executorCloser(executor));
-      return EvalContext.async(executor);
-    } else {
+  private EvalContext memoizingContext(EvalContext baseContext, TaskGraph graph) {
+    final String mode = config.getString(FLO_MEMO_MODE);
+    switch (mode.toLowerCase(Locale.ROOT)) {
+      case "retain":
+        return MemoizingContext.composeWith(baseContext);
+      case "evict":
+        return MemoizingContext.composeWithEviction(baseContext, graph);
+      case "spill":
+        spillingContext = SpillingMemoizingContext.composeWith(
+            baseContext, config.getBytes(FLO_MEMO_BUDGET));
+        closeables.add(spillingContext);
+        return spillingContext;
+      default:
+        throw new IllegalArgumentException("Unknown " + FLO_MEMO_MODE + ": " + mode);
+    }
+  }
+
+  private EvalContext cachingContext(EvalContext baseContext, TaskGraph graph) {
+    if (!config.getBoolean(FLO_CACHE_ENABLED)) {
+      return baseContext;
+    }
+    final Path directory = config.hasPath(FLO_CACHE_DIRECTORY)
+                           ? Paths.get(config.getString(FLO_CACHE_DIRECTORY))
+                           : Paths.get(getProperty("java.io.tmpdir"), "flo-cache");
+    cachingContext = CachingContext.composeWith(baseContext, directory,
+        config.getBytes(FLO_CACHE_MAX_SIZE), config.getString(FLO_CACHE_VERSION), graph);
+    return cachingContext;
+  }
+
+  private EvalContext createRootContext(TaskGraph graph) {
+    final String executorType = config.getString(FLO_EXECUTOR);
+    if ("trampolined".equalsIgnoreCase(executorType)) {
+      // Same evaluation order as EvalContext.sync(), but does not overflow the stack on deep graphs
+      return SyncContext.createTrampolined();
+    }
+    if (!config.getBoolean(FLO_ASYNC)) {
       return EvalContext.sync();
     }
+
+    switch (executorType.toLowerCase(Locale.ROOT)) {
+      case "fixed": {
+        final ExecutorService executor = fixedExecutor();
+        closeables.add(executorCloser(executor));
+        return asyncContext(executor);
+      }
+      case "virtual": {
+        final ExecutorService executor =
+            VirtualThreads.newExecutor(config.getInt(FLO_MAX_CONCURRENCY));
+        closeables.add(executorCloser(executor));
+        return asyncContext(executor);
+      }
+      case "forkjoin": {
+        final ForkJoinPool pool = forkJoinPool();
+        closeables.add(executorCloser(pool));
+        return ForkJoinContext.create(pool);
+      }
+      case "plan": {
+        final ExecutorService executor = fixedExecutor();
+        closeables.add(executorCloser(executor));
+        return PlanContext.create(executor, graph);
+      }
+      default:
+        throw new IllegalArgumentException("Unknown " + FLO_EXECUTOR + ": " + executorType);
+    }
+  }
+
+  private EvalContext asyncContext(ExecutorService executor) {
+    return config.getBoolean(FLO_INLINE_CONTINUATIONS)
+        ? AsyncContext.createInline(executor)
+        : EvalContext.async(executor);
+  }
+
+  private ExecutorService fixedExecutor() {
+    final AtomicLong count = new AtomicLong(0);
+    final ThreadFactory threadFactory = runnable -> {
+      final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("flo-worker-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+    return Executors.newFixedThreadPool(config.getInt(FLO_WORKERS), threadFactory);
+  }
+
+  private ForkJoinPool forkJoinPool() {
+    final AtomicLong count = new AtomicLong(0);
+    final ForkJoinWorkerThreadFactory threadFactory = pool -> {
+      final ForkJoinWorkerThread thread =
+          ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+      thread.setName("flo-worker-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+    // Tasks are forked as event-style callbacks that are never joined, so run them in FIFO order
+    return new ForkJoinPool(config.getInt(FLO_WORKERS), threadFactory, null, true);
   }
 
   private Listener resolveListener() {
@@ -223,15 +391,88 @@ public final class FloRunner<T> {
     final boolean inDebugger = ManagementFactory.getRuntimeMXBean()
         .getInputArguments().stream().anyMatch(s -> s.contains("-agentlib:jdwp"));
 
+    final ForkPolicy policy = ForkPolicy.create(
+        config.getStringList(FLO_FORK_IN_PROCESS_NAMES),
+        config.getBoolean(FLO_FORK_IN_PROCESS_OPERATORS));
+
     if (inDebugger) {
       LOG.debug("Debugger detected, dry-running forking");
-      return ForkingContext.dryComposeWith(baseContext);
+      forkingContext = ForkingContext.dryComposeWith(baseContext, policy);
+      return forkingContext;
+    }
+
+    final List<String> javaArgs = forkJavaArgs();
+    if (config.getInt(FLO_FORK_POOL_SIZE) > 0 && !FloTesting.isTest()) {
+      final ForkingPool pool;
+      try {
+        pool = new ForkingPool(
+            config.getInt(FLO_FORK_POOL_SIZE),
+            config.getInt(FLO_FORK_POOL_MAX_TASKS_PER_WORKER),
+            config.getBoolean(FLO_FORK_POOL_RECYCLE_ON_FAILURE),
+            javaArgs,
+            config.getBoolean(FLO_FORK_COMPRESSION));
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      closeables.add(pool);
+      forkingContext = ForkingContext.composeWith(baseContext, policy, pool);
+      if (config.getBoolean(FLO_FORK_MEMORY_ENABLED)) {
+        LOG.warn("Ignoring {}, the memory of pooled forks is bounded by {} workers",
+            FLO_FORK_MEMORY_ENABLED, config.getInt(FLO_FORK_POOL_SIZE));
+      }
     } else {
-      return ForkingContext.composeWith(baseContext);
+      forkingContext = ForkingContext.composeWith(baseContext, policy,
+          config.getBoolean(FLO_FORK_COMPRESSION), javaArgs);
+      if (config.getBoolean(FLO_FORK_MEMORY_ENABLED)) {
+        forkAdmission = forkAdmission();
+        forkingContext.admission(forkAdmission);
+      }
+    }
+    if (config.getBoolean(FLO_FORK_VALUES_ENABLED) && !FloTesting.isTest()) {
+      valueStore = valueStore();
+      closeables.add(valueStore);
+      forkingContext.values(valueStore);
+    }
+    return forkingContext;
+  }
+
+  private ValueStore valueStore() {
+    final Path directory = config.hasPath(FLO_FORK_VALUES_DIRECTORY)
+                           ? Paths.get(config.getString(FLO_FORK_VALUES_DIRECTORY))
+                           : Paths.get(getProperty("java.io.tmpdir"));
+    try {
+      return ValueStore.create(directory, config.getBytes(FLO_FORK_VALUES_THRESHOLD));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
     }
   }
 
-  private EvalContext persist(EvalContext delegate) {
+  private ForkAdmission forkAdmission() {
+    // Forks get the -Xmx of this process, or the same default max heap size
+    final long heap = Runtime.getRuntime().maxMemory();
+    final long budget = config.hasPath(FLO_FORK_MEMORY_BUDGET)
+                        ? config.getBytes(FLO_FORK_MEMORY_BUDGET)
+                        : Math.max(ForkAdmission.memoryLimit() - heap, 1);
+    LOG.info("Limiting forked tasks to {} bytes of memory", budget);
+    return new ForkAdmission(budget, heap, config.getBytes(FLO_FORK_MEMORY_OVERHEAD));
+  }
+
+  private List<String> forkJavaArgs() {
+    final List<String> javaArgs = new ArrayList<>(ForkingContext.javaArgs());
+    if (!config.getBoolean(FLO_FORK_CDS_ENABLED) || FloTesting.isTest()) {
+      return javaArgs;
+    }
+    final Path directory = config.hasPath(FLO_FORK_CDS_DIRECTORY)
+                           ? Paths.get(config.getString(FLO_FORK_CDS_DIRECTORY))
+                           : Paths.get(getProperty("java.io.tmpdir"), "flo-cds");
+    ClassDataSharing.archive(directory, javaArgs).ifPresent(archive -> {
+      LOG.info("Using class data sharing archive {}", archive);
+      javaArgs.addAll(ClassDataSharing.javaArgs(archive));
+    });
+    return javaArgs;
+  }
+
+  private EvalContext persist(EvalContext delegate, TaskGraph graph) {
     final String stateLocation = config.hasPath(FLO_STATE_LOCATION)
                                  ? config.getString(FLO_STATE_LOCATION)
                                  : "file://" + getProperty("user.dir");
@@ -245,7 +486,21 @@ public final class FloRunner<T> {
       throw new RuntimeException(e);
     }
 
-    return new PersistingContext(basePath, delegate);
+    final int threads = config.getInt(FLO_PERSIST_THREADS) > 0
+                        ? config.getInt(FLO_PERSIST_THREADS)
+                        : Runtime.getRuntime().availableProcessors();
+    final AtomicLong count = new AtomicLong(0);
+    final ThreadFactory threadFactory = runnable -> {
+      final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("flo-persist-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+    closeables.add(executorCloser(executor));
+
+    persistingContext = new PersistingContext(basePath, delegate, executor, graph);
+    return persistingContext;
   }
 
   private boolean isMode(String mode) {
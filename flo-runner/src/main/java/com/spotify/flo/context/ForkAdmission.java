@@ -0,0 +1,209 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.spotify.flo.HeapRequirement;
+import com.spotify.flo.Task;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Queue;
+
+/**
+ * Admits forked sub-processes within a total memory budget.
+ *
+ * <p>Every fork reserves its max heap size plus a fixed overhead for the rest of the JVM. Forks
+ * that do not fit in the remaining budget wait in a first-in, first-out queue until earlier forks
+ * release their reservation. A fork that needs more than the whole budget is admitted when nothing
+ * else is running, so that it runs at all.
+ */
+class ForkAdmission {
+
+  private static final List<Path> CGROUP_MEMORY_LIMITS = Arrays.asList(
+      Paths.get("/sys/fs/cgroup/memory.max"),
+      Paths.get("/sys/fs/cgroup/memory/memory.limit_in_bytes"));
+
+  private final long budget;
+  private final long defaultHeap;
+  private final long overhead;
+
+  // guarded by this
+  private final Queue<Object> queue = new ArrayDeque<>();
+  private long committed;
+  private long peakCommitted;
+  private long admitted;
+  private long queueNanos;
+  private long maxQueueNanos;
+
+  /**
+   * @param budget       The total number of bytes that concurrent forks may reserve
+   * @param defaultHeap  The max heap size of forks that do not declare a {@link HeapRequirement}
+   * @param overhead     The number of bytes reserved per fork in addition to its heap
+   */
+  ForkAdmission(long budget, long defaultHeap, long overhead) {
+    if (budget < 1) {
+      throw new IllegalArgumentException("budget must be > 0, got " + budget);
+    }
+    if (defaultHeap < 1 || overhead < 0) {
+      throw new IllegalArgumentException(
+          "invalid defaultHeap " + defaultHeap + " or overhead " + overhead);
+    }
+    this.budget = budget;
+    this.defaultHeap = defaultHeap;
+    this.overhead = overhead;
+  }
+
+  /**
+   * A reservation of an admitted fork, released by {@link #close()}.
+   */
+  interface Permit extends AutoCloseable {
+
+    @Override
+    void close();
+  }
+
+  /**
+   * Wait until a fork fits in the budget and reserve its memory.
+   *
+   * @param heap  The declared max heap size of the fork, or 0 for the default
+   * @return The reservation of the fork
+   * @throws InterruptedException if interrupted while waiting
+   */
+  Permit acquire(long heap) throws InterruptedException {
+    final long bytes = (heap > 0 ? heap : defaultHeap) + overhead;
+    final Object ticket = new Object();
+    final long t0 = System.nanoTime();
+    synchronized (this) {
+      queue.add(ticket);
+      try {
+        while (queue.peek() != ticket || !fits(bytes)) {
+          wait();
+        }
+      } catch (InterruptedException e) {
+        queue.remove(ticket);
+        notifyAll();
+        throw e;
+      }
+      queue.remove();
+      committed += bytes;
+      peakCommitted = Math.max(peakCommitted, committed);
+      admitted++;
+      final long waited = System.nanoTime() - t0;
+      queueNanos += waited;
+      maxQueueNanos = Math.max(maxQueueNanos, waited);
+      // The next fork in line might fit as well
+      notifyAll();
+    }
+    return () -> release(bytes);
+  }
+
+  private boolean fits(long bytes) {
+    return committed == 0 || committed + bytes <= budget;
+  }
+
+  private synchronized void release(long bytes) {
+    committed -= bytes;
+    notifyAll();
+  }
+
+  /**
+   * @return The number of forks waiting for admission
+   */
+  synchronized int queued() {
+    return queue.size();
+  }
+
+  /**
+   * @return The number of admitted forks
+   */
+  synchronized long admitted() {
+    return admitted;
+  }
+
+  /**
+   * @return The total time that forks waited for admission
+   */
+  synchronized Duration queueTime() {
+    return Duration.ofNanos(queueNanos);
+  }
+
+  /**
+   * @return The longest time that a single fork waited for admission
+   */
+  synchronized Duration maxQueueTime() {
+    return Duration.ofNanos(maxQueueNanos);
+  }
+
+  /**
+   * @return The highest number of bytes reserved by concurrently running forks
+   */
+  synchronized long peakCommittedBytes() {
+    return peakCommitted;
+  }
+
+  /**
+   * @return The largest {@link HeapRequirement} of the task contexts of a task, if any
+   */
+  static OptionalLong declaredHeap(Task<?> task) {
+    return task.contexts().stream()
+        .filter(c -> c instanceof HeapRequirement)
+        .mapToLong(c -> ((HeapRequirement) c).heapBytes())
+        .max();
+  }
+
+  /**
+   * @return The memory limit of the container this process runs in, or the physical memory of the
+   *         machine if there is no limit
+   */
+  static long memoryLimit() {
+    long limit = physicalMemory();
+    for (Path path : CGROUP_MEMORY_LIMITS) {
+      try {
+        final String value = new String(Files.readAllBytes(path), UTF_8).trim();
+        if (!value.equals("max")) {
+          limit = Math.min(limit, Long.parseLong(value));
+        }
+        break;
+      } catch (IOException | NumberFormatException e) {
+        // Not in a cgroup of this version
+      }
+    }
+    return limit;
+  }
+
+  private static long physicalMemory() {
+    final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getTotalPhysicalMemorySize();
+    }
+    return Long.MAX_VALUE;
+  }
+}
@@ -0,0 +1,181 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resource usage of a process fn that was executed in a sub-process.
+ *
+ * <p>The sub-process measures its cpu and gc time around the function and reports them together
+ * with its peak resident set size, while the wall time is measured by the parent. Values that are
+ * not available on the platform are -1.
+ */
+final class ForkMetrics {
+
+  private static final String PEAK_RSS_PREFIX = "VmHWM:";
+
+  private final Duration wallTime;
+  private final Duration cpuTime;
+  private final long gcCount;
+  private final Duration gcTime;
+  private final long peakRssBytes;
+
+  private ForkMetrics(Duration wallTime, Duration cpuTime, long gcCount, Duration gcTime,
+      long peakRssBytes) {
+    this.wallTime = wallTime;
+    this.cpuTime = cpuTime;
+    this.gcCount = gcCount;
+    this.gcTime = gcTime;
+    this.peakRssBytes = peakRssBytes;
+  }
+
+  static ForkMetrics create(Duration wallTime, Duration cpuTime, long gcCount, Duration gcTime,
+      long peakRssBytes) {
+    return new ForkMetrics(wallTime, cpuTime, gcCount, gcTime, peakRssBytes);
+  }
+
+  /**
+   * @return The cumulative usage of this process so far, without wall time
+   */
+  static ForkMetrics sample() {
+    long gcCount = 0;
+    long gcMillis = 0;
+    final List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+    for (GarbageCollectorMXBean gc : gcs) {
+      gcCount += Math.max(gc.getCollectionCount(), 0);
+      gcMillis += Math.max(gc.getCollectionTime(), 0);
+    }
+    return new ForkMetrics(Duration.ZERO, Duration.ofNanos(cpuNanos()), gcCount,
+        Duration.ofMillis(gcMillis), peakRss());
+  }
+
+  /**
+   * @return The usage since an earlier {@link #sample()}. The peak rss is that of the process.
+   */
+  ForkMetrics since(ForkMetrics start) {
+    return new ForkMetrics(Duration.ZERO,
+        cpuTime.isNegative() ? cpuTime : cpuTime.minus(start.cpuTime),
+        gcCount - start.gcCount, gcTime.minus(start.gcTime), peakRssBytes);
+  }
+
+  ForkMetrics withWallTime(Duration wallTime) {
+    return new ForkMetrics(wallTime, cpuTime, gcCount, gcTime, peakRssBytes);
+  }
+
+  Duration wallTime() {
+    return wallTime;
+  }
+
+  Duration cpuTime() {
+    return cpuTime;
+  }
+
+  long gcCount() {
+    return gcCount;
+  }
+
+  Duration gcTime() {
+    return gcTime;
+  }
+
+  long peakRssBytes() {
+    return peakRssBytes;
+  }
+
+  /**
+   * @return The metrics as task metadata
+   */
+  Map<String, String> toMeta() {
+    final Map<String, String> meta = new LinkedHashMap<>();
+    meta.put("fork-wall-ms", Long.toString(wallTime.toMillis()));
+    meta.put("fork-cpu-ms", Long.toString(cpuTime.isNegative() ? -1 : cpuTime.toMillis()));
+    meta.put("fork-gc-count", Long.toString(gcCount));
+    meta.put("fork-gc-ms", Long.toString(gcTime.toMillis()));
+    meta.put("fork-peak-rss-bytes", Long.toString(peakRssBytes));
+    return meta;
+  }
+
+  byte[] toBytes() {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeLong(cpuTime.toNanos());
+      out.writeLong(gcCount);
+      out.writeLong(gcTime.toNanos());
+      out.writeLong(peakRssBytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static ForkMetrics fromBytes(byte[] bytes) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    return new ForkMetrics(Duration.ZERO, Duration.ofNanos(in.readLong()), in.readLong(),
+        Duration.ofNanos(in.readLong()), in.readLong());
+  }
+
+  private static long cpuNanos() {
+    final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    if (os instanceof com.sun.management.OperatingSystemMXBean) {
+      return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+    }
+    return -1;
+  }
+
+  /**
+   * Read the peak resident set size from {@code /proc/self/status}, which is in kB.
+   */
+  private static long peakRss() {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"), UTF_8)) {
+        if (line.startsWith(PEAK_RSS_PREFIX)) {
+          final String value = line.substring(PEAK_RSS_PREFIX.length()).trim();
+          return Long.parseLong(value.split("\\s+")[0]) * 1024;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // Not on linux
+    }
+    return -1;
+  }
+
+  @Override
+  public String toString() {
+    return "ForkMetrics" + toMeta();
+  }
+}
@@ -0,0 +1,86 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.spotify.flo.InProcess;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskContext;
+import com.spotify.flo.TaskOperator;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Decides per task whether {@link ForkingContext} runs its process fn in a sub-process or in the
+ * process of the runner.
+ *
+ * <p>A task is evaluated in-process if any of its task contexts is {@link InProcess}, if it has a
+ * {@link TaskOperator} and operators are configured to run in-process, or if its name fully
+ * matches one of the configured patterns. All other tasks are forked.
+ */
+final class ForkPolicy {
+
+  private static final ForkPolicy FORK_ALL = new ForkPolicy(Collections.emptyList(), false);
+
+  private final List<Pattern> inProcessNames;
+  private final boolean operatorsInProcess;
+
+  private ForkPolicy(List<Pattern> inProcessNames, boolean operatorsInProcess) {
+    this.inProcessNames = inProcessNames;
+    this.operatorsInProcess = operatorsInProcess;
+  }
+
+  /**
+   * @return A policy that forks every task that is not marked {@link InProcess}
+   */
+  static ForkPolicy forkAll() {
+    return FORK_ALL;
+  }
+
+  /**
+   * @param inProcessNames      Regular expressions of the names of tasks to run in-process
+   * @param operatorsInProcess  Whether to run tasks with a {@link TaskOperator} in-process
+   */
+  static ForkPolicy create(List<String> inProcessNames, boolean operatorsInProcess) {
+    return new ForkPolicy(
+        inProcessNames.stream().map(Pattern::compile).collect(Collectors.toList()),
+        operatorsInProcess);
+  }
+
+  boolean shouldFork(Task<?> task) {
+    for (TaskContext<?, ?> context : task.contexts()) {
+      if (context instanceof InProcess) {
+        return false;
+      }
+      if (operatorsInProcess && context instanceof TaskOperator) {
+        return false;
+      }
+    }
+    final String name = task.id().name();
+    for (Pattern pattern : inProcessNames) {
+      if (pattern.matcher(name).matches()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -20,18 +20,30 @@
 
 package com.spotify.flo.context;
 
+import com.spotify.flo.CancellationSignal;
+import com.spotify.flo.CancellationSignal.Registration;
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.FloTesting;
 import com.spotify.flo.Fn;
 import com.spotify.flo.Serialization;
 import com.spotify.flo.SerializationException;
+import com.spotify.flo.Task;
 import com.spotify.flo.TaskId;
+import com.spotify.flo.TaskOperator.Listener;
 import com.spotify.flo.freezer.PersistingContext;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectStreamException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * An {@link EvalContext} that runs tasks in sub-processes.
@@ -39,26 +51,133 @@ import java.util.Collections;
  * The basic idea here is to intercept the process fn by overriding {@link EvalContext#invokeProcessFn(TaskId, Fn)},
  * and executing it in a sub-process JVM. The process fn closure and the result is transported in to and out of the
  * sub-process using serialization.
+ * <p>
+ * A {@link ForkPolicy} can exempt tasks from forking, in which case their process fn is passed on
+ * as is.
  */
 class ForkingContext extends ForwardingEvalContext {
 
   private final boolean dry;
+  private final ForkPolicy policy;
+  private final boolean compress;
+  private final List<String> javaArgs;
+  private final ForkingPool pool;
+  private volatile ForkAdmission admission;
+  private volatile ValueStore values;
+
+  private final ConcurrentMap<TaskId, Long> heaps = new ConcurrentHashMap<>();
+  private final ConcurrentMap<TaskId, Boolean> inProcess = new ConcurrentHashMap<>();
+  private final AtomicLong forkedTasks = new AtomicLong();
+  private final AtomicLong inProcessTasks = new AtomicLong();
+
+  // guarded by this
+  private Duration wallTime = Duration.ZERO;
+  private Duration cpuTime = Duration.ZERO;
+  private long gcCount;
+  private Duration gcTime = Duration.ZERO;
+  private long peakRssBytes = -1;
 
-  private ForkingContext(EvalContext delegate, boolean dry) {
+  private ForkingContext(EvalContext delegate, boolean dry, ForkPolicy policy, boolean compress,
+      List<String> javaArgs, ForkingPool pool) {
     super(delegate);
     this.dry = dry;
+    this.policy = Objects.requireNonNull(policy);
+    this.compress = compress;
+    this.javaArgs = new ArrayList<>(javaArgs);
+    this.pool = pool;
+  }
+
+  static ForkingContext composeWith(EvalContext baseContext) {
+    return composeWith(baseContext, ForkPolicy.forkAll(), false, javaArgs());
+  }
+
+  /**
+   * Create a forking context that optionally compresses the closures and results of tasks on their
+   * way to and from the sub-processes.
+   *
+   * @param javaArgs  The jvm arguments of the sub-processes, see {@link #javaArgs()}
+   */
+  static ForkingContext composeWith(EvalContext baseContext, ForkPolicy policy, boolean compress,
+      List<String> javaArgs) {
+    return new ForkingContext(baseContext, false, policy, compress, javaArgs, null);
+  }
+
+  /**
+   * Create a forking context that runs tasks in the pre-started workers of a pool instead of in
+   * a new sub-process per task.
+   */
+  static ForkingContext composeWith(EvalContext baseContext, ForkPolicy policy,
+      ForkingPool pool) {
+    return new ForkingContext(baseContext, false, policy, false, Collections.emptyList(),
+        Objects.requireNonNull(pool));
+  }
+
+  static ForkingContext dryComposeWith(EvalContext baseContext, ForkPolicy policy) {
+    return new ForkingContext(baseContext, true, policy, false, Collections.emptyList(), null);
+  }
+
+  /**
+   * Limit the memory of concurrent sub-processes. This does not apply to pooled workers.
+   */
+  ForkingContext admission(ForkAdmission admission) {
+    this.admission = Objects.requireNonNull(admission);
+    return this;
+  }
+
+  /**
+   * Pass task values to sub-processes through the files of a store, see {@link ValueStore}. This
+   * also applies to the workers of a pool.
+   */
+  ForkingContext values(ValueStore values) {
+    this.values = Objects.requireNonNull(values);
+    if (pool != null) {
+      pool.values(values);
+    }
+    return this;
+  }
+
+  /**
+   * @return The number of process fns that were forked, or tested for it in a dry run
+   */
+  long forkedTasks() {
+    return forkedTasks.get();
   }
 
-  static EvalContext composeWith(EvalContext baseContext) {
-    return new ForkingContext(baseContext, false);
+  /**
+   * @return The number of process fns that the {@link ForkPolicy} ran in-process
+   */
+  long inProcessTasks() {
+    return inProcessTasks.get();
   }
 
-  static EvalContext dryComposeWith(EvalContext baseContext) {
-    return new ForkingContext(baseContext, true);
+  /**
+   * @return The total resource usage of the forked process fns, with the highest peak rss of any
+   *         of them
+   */
+  synchronized ForkMetrics forkMetrics() {
+    return ForkMetrics.create(wallTime, cpuTime, gcCount, gcTime, peakRssBytes);
+  }
+
+  @Override
+  public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+    inProcess.computeIfAbsent(task.id(), id -> !policy.shouldFork(task));
+    ForkAdmission.declaredHeap(task).ifPresent(heap -> heaps.putIfAbsent(task.id(), heap));
+    final Value<T> value = super.evaluateInternal(task, context);
+    final ValueStore values = this.values;
+    if (values != null) {
+      value.consume(values::register);
+    }
+    return value;
   }
 
   @Override
   public <T> Value<T> invokeProcessFn(TaskId taskId, Fn<T> processFn) {
+    if (inProcess.getOrDefault(taskId, false)) {
+      LOG.debug("Running {} in-process by fork policy", taskId);
+      inProcessTasks.incrementAndGet();
+      return delegate.invokeProcessFn(taskId, processFn);
+    }
+    forkedTasks.incrementAndGet();
     // Wrap the process fn in a lambda that will execute the original process fn closure in a sub-process.
     final Fn<T> forkingProcessFn = fork(taskId, processFn);
     // Pass on the wrapped process fn to let the rest of EvalContexts do their thing. The last EvalContext in the chain
@@ -73,6 +192,8 @@ class ForkingContext extends ForwardingEvalContext {
     } else if (FloTesting.isTest()) {
       LOG.debug("Test run, forking disabled - testing serialization");
       return testFork(fn);
+    } else if (pool != null) {
+      return pooledFork(taskId, fn);
     } else {
       return realFork(taskId, fn);
     }
@@ -80,6 +201,7 @@ class ForkingContext extends ForwardingEvalContext {
 
   private static <T> Fn<T> testFork(Fn<T> fn) {
     // We do not currently have a mechanism for transporting mock inputs and outputs into and out of the task process.
+    // Note that the round trips below are subject to the configured SerializationValidation mode.
     return () -> {
       // Serialize & deserialize fn
       final Fn<T> deserializedFn = Serialization.requireSerializable(fn, "process fn");
@@ -92,10 +214,40 @@ class ForkingContext extends ForwardingEvalContext {
     };
   }
 
-  private static <T> Fn<T> realFork(TaskId taskId, Fn<T> fn) {
+  /**
+   * @return The jvm arguments that task sub-processes need to run with
+   */
+  static List<String> javaArgs() {
+    return Collections.singletonList(
+        "-D" + Serialization.SERIALIZER_PROPERTY + "=" + Serialization.serializerName());
+  }
+
+  private <T> Fn<T> pooledFork(TaskId taskId, Fn<T> fn) {
+    final CancellationSignal signal = cancellationSignal();
+    final Consumer<ForkMetrics> metricsConsumer = metricsConsumer(taskId);
+    return () -> pool.execute(fn, signal, metricsConsumer);
+  }
+
+  private <T> Fn<T> realFork(TaskId taskId, Fn<T> fn) {
+    final CancellationSignal signal = cancellationSignal();
+    final ValueStore values = this.values;
+    final Consumer<ForkMetrics> metricsConsumer = metricsConsumer(taskId);
+    final long heap = heaps.getOrDefault(taskId, 0L);
+    final List<String> args = new ArrayList<>(javaArgs);
+    if (heap > 0) {
+      // Overrides any -Xmx propagated from this process
+      args.add("-Xmx" + heap);
+    }
     return () -> {
-      try (final ForkingExecutor executor = new ForkingExecutor()) {
-        executor.javaArgs("-Dsun.io.serialization.extendedDebugInfo=true");
+      try (final ForkAdmission.Permit permit = admit(taskId, heap);
+          final ForkingExecutor executor = new ForkingExecutor();
+          final Registration ignored = signal.onCancel(executor::destroy)) {
+        executor.javaArgs(args);
+        executor.compress(compress);
+        executor.metrics(metricsConsumer);
+        if (values != null) {
+          executor.values(values);
+        }
         executor.environment(Collections.singletonMap("FLO_TASK_ID", taskId.toString()));
         return executor.execute(fn);
       } catch (IOException e) {
@@ -103,4 +255,34 @@ class ForkingContext extends ForwardingEvalContext {
       }
     };
   }
+
+  private Consumer<ForkMetrics> metricsConsumer(TaskId taskId) {
+    final Listener listener = listener();
+    return metrics -> {
+      LOG.debug("{} forked: {}", taskId, metrics);
+      synchronized (this) {
+        wallTime = wallTime.plus(metrics.wallTime());
+        if (!metrics.cpuTime().isNegative()) {
+          cpuTime = cpuTime.plus(metrics.cpuTime());
+        }
+        gcCount += metrics.gcCount();
+        gcTime = gcTime.plus(metrics.gcTime());
+        peakRssBytes = Math.max(peakRssBytes, metrics.peakRssBytes());
+      }
+      listener.meta(taskId, metrics.toMeta());
+    };
+  }
+
+  private ForkAdmission.Permit admit(TaskId taskId, long heap) {
+    final ForkAdmission admission = this.admission;
+    if (admission == null) {
+      return () -> { };
+    }
+    try {
+      return Blocking.call(() -> admission.acquire(heap));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting to fork " + taskId, e);
+    }
+  }
 }
@@ -23,22 +23,31 @@ package com.spotify.flo.context;
 import com.spotify.flo.Fn;
 import com.spotify.flo.Serialization;
 import com.spotify.flo.SerializationException;
+import com.spotify.flo.context.Frames.Frame;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
-import java.nio.file.InvalidPathException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -46,8 +55,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -57,15 +71,22 @@ import org.slf4j.LoggerFactory;
  * <p>
  * The function, its result and any thrown exception must be serializable as
  * serialization is used to transport these between the processes.
+ * <p>
+ * They are exchanged as {@link Frames} over a loopback socket that the sub-process connects to
+ * with a secret token, while stdout and stderr of the sub-process are copied to those of this
+ * process. Payloads can optionally be compressed.
  */
 class ForkingExecutor implements Closeable {
 
   private static final Logger log = LoggerFactory.getLogger(ForkingExecutor.class);
 
-  private final List<Execution> executions = new ArrayList<>();
+  private final List<Execution> executions = new CopyOnWriteArrayList<>();
 
   private Map<String, String> environment = Collections.emptyMap();
   private List<String> javaArgs = Collections.emptyList();
+  private boolean compress;
+  private Consumer<ForkMetrics> metricsConsumer = metrics -> { };
+  private ValueStore values;
 
   ForkingExecutor environment(Map<String, String> environment) {
     this.environment = new HashMap<>(environment);
@@ -81,6 +102,28 @@ class ForkingExecutor implements Closeable {
     return this;
   }
 
+  ForkingExecutor compress(boolean compress) {
+    this.compress = compress;
+    return this;
+  }
+
+  /**
+   * Receive the resource usage of every function that the sub-process reported.
+   */
+  ForkingExecutor metrics(Consumer<ForkMetrics> metricsConsumer) {
+    this.metricsConsumer = Objects.requireNonNull(metricsConsumer);
+    return this;
+  }
+
+  /**
+   * Pass the values of the store that are part of a function to the sub-process through their
+   * files, and register the results in the store.
+   */
+  ForkingExecutor values(ValueStore values) {
+    this.values = Objects.requireNonNull(values);
+    return this;
+  }
+
   /**
    * Execute a function in a sub-process.
    *
@@ -97,6 +140,15 @@ class ForkingExecutor implements Closeable {
     }
   }
 
+  /**
+   * Forcibly terminate the sub-processes of ongoing executions, e.g. when their results are no
+   * longer needed. The corresponding {@link #execute(Fn)} calls fail. This may be called from any
+   * thread.
+   */
+  void destroy() {
+    executions.forEach(Execution::destroy);
+  }
+
   @Override
   public void close() {
     executions.forEach(Execution::close);
@@ -106,21 +158,12 @@ class ForkingExecutor implements Closeable {
 
     private final ExecutorService executor = Executors.newCachedThreadPool();
 
-    private final Path tempdir = Files.createTempDirectory("flo-fork");
-
-    private final Path workdir = Files.createDirectory(tempdir.resolve("workdir"));
-
-    private final Path closureFile = tempdir.resolve("closure");
-    private final Path resultFile = tempdir.resolve("result");
-    private final Path errorFile = tempdir.resolve("error");
-
-    private final String home = System.getProperty("java.home");
-    private final String classPath = System.getProperty("java.class.path");
-    private final Path java = Paths.get(home, "bin", "java").toAbsolutePath().normalize();
+    private final Connection connection = new Connection();
 
     private final Fn<T> f;
 
-    private Process process;
+    private volatile Process process;
+    private long t0;
 
     Execution(Fn<T> f) throws IOException {
       this.f = Objects.requireNonNull(f);
@@ -131,42 +174,23 @@ class ForkingExecutor implements Closeable {
         throw new IllegalStateException();
       }
       log.debug("serializing closure");
+      final byte[] closure;
       try {
-        Serialization.serialize(f, closureFile);
+        closure = values != null ? values.serialize(f) : Serialization.serialize(f);
       } catch (SerializationException e) {
         throw new RuntimeException("Failed to serialize closure", e);
       }
-      
-      final String absoluteClassPath =
-          Arrays.stream(classPath.split(File.pathSeparator))
-              .map(cp -> Paths.get(cp).toAbsolutePath().toString())
-              .collect(Collectors.joining(File.pathSeparator));
-
-      final ProcessBuilder processBuilder =
-          new ProcessBuilder(java.toString(), "-cp", absoluteClassPath).directory(workdir.toFile());
-
-      // Propagate -Xmx and -D.
-      // Note: This is suboptimal because if the user has configured a max heap size we will effectively use that
-      // times the concurrent nummber of executing task processes in addition to the heap of the parent process.
-      // However, propagating a lower limit might make the task fail if the user has supplied a heap size that is
-      // tailored to the memory requirements of the task.
-      ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
-          .filter(s -> s.startsWith("-Xmx") || s.startsWith("-D"))
-          .forEach(processBuilder.command()::add);
-
-      // Custom jvm args
-      javaArgs.forEach(processBuilder.command()::add);
-
-      // Trampoline arguments
-      processBuilder.command().add(Trampoline.class.getName());
-      processBuilder.command().add(closureFile.toString());
-      processBuilder.command().add(resultFile.toString());
-      processBuilder.command().add(errorFile.toString());
+
+      // The closure and result go over the connection, so the sub-process runs in the working
+      // directory of this process instead of a directory of its own
+      final ProcessBuilder processBuilder = processBuilder(null, javaArgs,
+          connection.trampolineArgs(Trampoline.CONNECT));
 
       processBuilder.environment().putAll(environment);
 
       log.debug("Starting subprocess: environment={}, command={}, directory={}",
           processBuilder.environment(), processBuilder.command(), processBuilder.directory());
+      t0 = System.nanoTime();
       try {
         process = processBuilder.start();
       } catch (IOException e) {
@@ -176,16 +200,26 @@ class ForkingExecutor implements Closeable {
       // Copy std{err,out} line by line to avoid interleaving and corrupting line contents.
       executor.submit(() -> copyLines(process.getInputStream(), System.out));
       executor.submit(() -> copyLines(process.getErrorStream(), System.err));
+
+      connection.send(closure, compress, process);
     }
 
     T waitFor() {
       if (process == null) {
         throw new IllegalStateException();
       }
-      log.debug("Waiting for subprocess exit");
+      log.debug("Waiting for subprocess result");
+      final Frame reply;
       final int exitValue;
       try {
-        exitValue = process.waitFor();
+        reply = connection.receive();
+        connection.metrics().ifPresent(metrics ->
+            metricsConsumer.accept(metrics.withWallTime(Duration.ofNanos(System.nanoTime() - t0))));
+        if (reply != null) {
+          // Let the watchdog of the sub-process return, so that it does not delay the exit
+          closeQuietly(process.getOutputStream());
+        }
+        exitValue = Blocking.call(process::waitFor);
       } catch (InterruptedException e) {
         Thread.currentThread().interrupt();
         throw new RuntimeException(e);
@@ -197,48 +231,248 @@ class ForkingExecutor implements Closeable {
       if (exitValue != 0) {
         throw new RuntimeException("Subprocess failed: " + process.exitValue());
       }
+      final T result = readResult(reply);
+      if (values != null) {
+        values.register(result, reply.payload);
+      }
+      return result;
+    }
+
+    void destroy() {
+      final Process process = this.process;
+      if (process != null) {
+        log.debug("Destroying subprocess");
+        process.destroyForcibly();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (process != null) {
+        process.destroyForcibly();
+        process = null;
+      }
+      connection.close();
+      executor.shutdown();
+    }
+  }
 
-      if (Files.exists(errorFile)) {
-        // Failed
-        log.debug("Subprocess exited with error file");
-        final Throwable error;
+  /**
+   * The parent end of the socket of a sub-process.
+   */
+  static final class Connection implements Closeable {
+
+    private static final int ACCEPT_POLL_MILLIS = 100;
+
+    private final ServerSocket server;
+    private final String token = UUID.randomUUID().toString();
+
+    private Socket socket;
+    private DataInputStream in;
+    private DataOutputStream out;
+    private ForkMetrics metrics;
+
+    Connection() throws IOException {
+      server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+      server.setSoTimeout(ACCEPT_POLL_MILLIS);
+    }
+
+    /**
+     * @return The arguments of a {@link Trampoline} that connects to this
+     */
+    String[] trampolineArgs(String mode) {
+      return new String[]{mode, Integer.toString(server.getLocalPort()), token};
+    }
+
+    /**
+     * Send a serialized closure, waiting for the sub-process to connect first if needed. Does
+     * nothing if the sub-process exits before connecting.
+     */
+    void send(byte[] closure, boolean compress, Process process) {
+      metrics = null;
+      try {
+        if (socket == null && !accept(process)) {
+          return;
+        }
+        Frames.write(out, Frames.CLOSURE, closure, compress);
+      } catch (IOException e) {
+        // The sub-process died, which will be reported when waiting for it
+        log.debug("Failed to send closure", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+
+    /**
+     * @return The reply to a closure, or null if the sub-process did not send one
+     */
+    Frame receive() throws InterruptedException {
+      if (in == null) {
+        return null;
+      }
+      return Blocking.call(() -> {
         try {
-          error = Serialization.deserialize(errorFile);
-        } catch (SerializationException e) {
-          throw new RuntimeException("Failed to deserialize error", e);
+          while (true) {
+            final Frame frame = Frames.read(in);
+            if (frame == null || frame.type != Frames.METRICS) {
+              return frame;
+            }
+            metrics = ForkMetrics.fromBytes(frame.payload);
+          }
+        } catch (IOException e) {
+          log.debug("Failed to receive reply", e);
+          return null;
         }
-        if (error instanceof Error) {
-          throw (Error) error;
-        } else if (error instanceof RuntimeException) {
-          throw (RuntimeException) error;
-        } else {
-          throw new RuntimeException(error);
+      });
+    }
+
+    /**
+     * @return The resource usage reported by the sub-process for the last closure, if any
+     */
+    Optional<ForkMetrics> metrics() {
+      return Optional.ofNullable(metrics);
+    }
+
+    private boolean accept(Process process) throws IOException, InterruptedException {
+      while (true) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
         }
-      } else {
-        // Success
-        log.debug("Subprocess exited with result file");
-        final T result;
+        final Socket candidate;
         try {
-          result = Serialization.deserialize(resultFile);
-        } catch (SerializationException e) {
-          throw new RuntimeException("Failed to deserialize result", e);
+          candidate = server.accept();
+        } catch (SocketTimeoutException e) {
+          if (!process.isAlive()) {
+            return false;
+          }
+          continue;
         }
-        return result;
+        final DataInputStream candidateIn =
+            new DataInputStream(new BufferedInputStream(candidate.getInputStream()));
+        candidate.setSoTimeout(ACCEPT_POLL_MILLIS * 50);
+        final String candidateToken;
+        try {
+          candidateToken = candidateIn.readUTF();
+        } catch (IOException e) {
+          candidate.close();
+          continue;
+        }
+        if (!token.equals(candidateToken)) {
+          log.warn("Rejecting connection with invalid token from {}",
+              candidate.getRemoteSocketAddress());
+          candidate.close();
+          continue;
+        }
+        candidate.setSoTimeout(0);
+        candidate.setTcpNoDelay(true);
+        socket = candidate;
+        in = candidateIn;
+        out = new DataOutputStream(new BufferedOutputStream(candidate.getOutputStream()));
+        server.close();
+        return true;
       }
     }
 
     @Override
     public void close() {
-      if (process != null) {
-        process.destroyForcibly();
-        process = null;
+      closeQuietly(server);
+      if (socket != null) {
+        closeQuietly(socket);
       }
-      executor.shutdown();
-      tryDeleteDir(tempdir);
     }
   }
 
-  private static void tryDeleteDir(Path path) {
+  /**
+   * Get the outcome of a closure from the reply of a sub-process.
+   *
+   * @return The result of the function
+   * @throws RuntimeException or {@link Error} thrown by the function
+   */
+  static <T> T readResult(Frame reply) {
+    if (reply == null) {
+      throw new RuntimeException("Subprocess exited without result");
+    }
+    if (reply.type == Frames.ERROR) {
+      // Failed
+      log.debug("Subprocess replied with error");
+      final Throwable error;
+      try {
+        error = Serialization.deserialize(reply.payload);
+      } catch (SerializationException e) {
+        throw new RuntimeException("Failed to deserialize error", e);
+      }
+      if (error instanceof Error) {
+        throw (Error) error;
+      } else if (error instanceof RuntimeException) {
+        throw (RuntimeException) error;
+      } else {
+        throw new RuntimeException(error);
+      }
+    } else {
+      // Success
+      log.debug("Subprocess replied with result");
+      final T result;
+      try {
+        result = Serialization.deserialize(reply.payload);
+      } catch (SerializationException e) {
+        throw new RuntimeException("Failed to deserialize result", e);
+      }
+      return result;
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      log.debug("Failed to close {}", closeable, e);
+    }
+  }
+
+  /**
+   * Create a process builder for a {@link Trampoline} sub-process.
+   *
+   * @param workdir         The working directory of the sub-process, or null to use the working
+   *                        directory of this process
+   * @param javaArgs        Additional jvm arguments
+   * @param trampolineArgs  The arguments of the trampoline
+   */
+  static ProcessBuilder processBuilder(Path workdir, List<String> javaArgs,
+      String... trampolineArgs) {
+    final String home = System.getProperty("java.home");
+    final String classPath = System.getProperty("java.class.path");
+    final Path java = Paths.get(home, "bin", "java").toAbsolutePath().normalize();
+
+    final String absoluteClassPath =
+        Arrays.stream(classPath.split(File.pathSeparator))
+            .map(cp -> Paths.get(cp).toAbsolutePath().toString())
+            .collect(Collectors.joining(File.pathSeparator));
+
+    final ProcessBuilder processBuilder =
+        new ProcessBuilder(java.toString(), "-cp", absoluteClassPath)
+            .directory(workdir != null ? workdir.toFile() : null);
+
+    // Propagate -Xmx and -D.
+    // Note: This is suboptimal because if the user has configured a max heap size we will effectively use that
+    // times the concurrent nummber of executing task processes in addition to the heap of the parent process.
+    // However, propagating a lower limit might make the task fail if the user has supplied a heap size that is
+    // tailored to the memory requirements of the task.
+    ManagementFactory.getRuntimeMXBean().getInputArguments().stream()
+        .filter(s -> s.startsWith("-Xmx") || s.startsWith("-D"))
+        .forEach(processBuilder.command()::add);
+
+    // Custom jvm args
+    javaArgs.forEach(processBuilder.command()::add);
+
+    // Trampoline arguments
+    processBuilder.command().add(Trampoline.class.getName());
+    processBuilder.command().addAll(Arrays.asList(trampolineArgs));
+
+    return processBuilder;
+  }
+
+  static void tryDeleteDir(Path path) {
     try {
       deleteDir(path);
     } catch (IOException e) {
@@ -271,7 +505,17 @@ class ForkingExecutor implements Closeable {
     }
   }
 
-  private static void copyLines(InputStream in, PrintStream out) {
+  static void copyLines(InputStream in, PrintStream out) {
+    copyLines(in, out, () -> false);
+  }
+
+  /**
+   * Copy lines until the end of input, or until the stream is closed by destroying the process.
+   *
+   * @param destroyed  Whether the process was destroyed, in which case a closed stream is the
+   *                   end of input
+   */
+  static void copyLines(InputStream in, PrintStream out, BooleanSupplier destroyed) {
     final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
     try {
       String line;
@@ -279,11 +523,32 @@ class ForkingExecutor implements Closeable {
         out.println(line);
       }
     } catch (IOException e) {
-      log.error("Caught exception during stream copy", e);
+      if (destroyed.getAsBoolean()) {
+        log.debug("Stream closed by destroying the process", e);
+      } else {
+        log.error("Caught exception during stream copy", e);
+      }
     }
   }
 
-  private static class Trampoline {
+  /**
+   * The entry point of sub-processes.
+   *
+   * <p>Invoked with {@value #CONNECT} or {@value #WORKER}, a port and a token, it connects to the
+   * parent on the loopback interface and authenticates with the token. It then runs a single
+   * closure, or as a pooled worker, runs closures one at a time until the parent disconnects.
+   */
+  static class Trampoline {
+
+    static final String CONNECT = "--connect";
+    static final String WORKER = "--worker";
+
+    /**
+     * Set when the reply of a single closure is about to be sent, after which the parent closes
+     * stdin. A thread that is blocked in native code delays the exit of the JVM by up to 300 ms, so
+     * the watchdog then returns instead of waiting for the parent to exit.
+     */
+    private static volatile boolean replying;
 
     private static class Watchdog extends Thread {
 
@@ -304,6 +569,9 @@ class ForkingExecutor implements Closeable {
         } catch (IOException e) {
           log.error("watchdog failed", e);
         }
+        if (replying) {
+          return;
+        }
         log.debug("child process exiting");
         // Exit with non-zero status code to skip shutdown hooks
         System.exit(-1);
@@ -315,36 +583,59 @@ class ForkingExecutor implements Closeable {
       final Trampoline.Watchdog watchdog = new Trampoline.Watchdog();
       watchdog.start();
 
-      if (args.length != 3) {
-        log.error("args.length != 3");
+      if (args.length != 3 || !(CONNECT.equals(args[0]) || WORKER.equals(args[0]))) {
+        log.error("usage: {}|{} <port> <token>", CONNECT, WORKER);
         System.exit(3);
         return;
       }
-      final Path closureFile;
-      final Path resultFile;
-      final Path errorFile;
+      final boolean worker = WORKER.equals(args[0]);
+
+      final Socket socket;
+      final DataInputStream in;
+      final DataOutputStream out;
       try {
-        closureFile = Paths.get(args[0]);
-        resultFile = Paths.get(args[1]);
-        errorFile = Paths.get(args[2]);
-      } catch (InvalidPathException e) {
-        log.error("Failed to get file path", e);
+        socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeUTF(args[2]);
+        out.flush();
+      } catch (IOException | NumberFormatException e) {
+        log.error("Failed to connect to parent", e);
         System.exit(4);
         return;
       }
 
-      run(closureFile, resultFile, errorFile);
+      int status = 0;
+      do {
+        final Frame closure;
+        try {
+          closure = Frames.read(in);
+        } catch (IOException e) {
+          log.error("Failed to receive closure", e);
+          status = 5;
+          break;
+        }
+        if (closure == null) {
+          // The parent is done with this worker
+          break;
+        }
+        status = run(closure, out, !worker);
+      } while (worker && status == 0);
+
+      System.err.flush();
+      System.exit(status);
     }
 
-    private static void run(Path closureFile, Path resultFile, Path errorFile) {
-      log.debug("deserializing closure: {}", closureFile);
+    private static int run(Frame closure, DataOutputStream out, boolean last) {
+      final ForkMetrics start = ForkMetrics.sample();
+      log.debug("deserializing closure");
       final Fn<?> fn;
       try {
-        fn = Serialization.deserialize(closureFile);
+        fn = Serialization.deserialize(closure.payload);
       } catch (SerializationException e) {
-        log.error("Failed to deserialize closure: {}", closureFile, e);
-        System.exit(5);
-        return;
+        log.error("Failed to deserialize closure", e);
+        return 5;
       }
 
       log.debug("executing closure");
@@ -359,25 +650,27 @@ class ForkingExecutor implements Closeable {
       if (error != null) {
         log.debug("serializing error", error);
         try {
-          Serialization.serialize(error, errorFile);
-        } catch (SerializationException e) {
+          final byte[] payload = Serialization.serialize(error);
+          replying = last;
+          Frames.write(out, Frames.METRICS, ForkMetrics.sample().since(start).toBytes(), false);
+          Frames.write(out, Frames.ERROR, payload, closure.compressed);
+        } catch (SerializationException | IOException e) {
           log.error("failed to serialize error", e);
-          System.exit(6);
-          return;
+          return 6;
         }
       } else {
         log.debug("serializing result: {}", result);
         try {
-          Serialization.serialize(result, resultFile);
-        } catch (SerializationException e) {
+          final byte[] payload = Serialization.serialize(result);
+          replying = last;
+          Frames.write(out, Frames.METRICS, ForkMetrics.sample().since(start).toBytes(), false);
+          Frames.write(out, Frames.RESULT, payload, closure.compressed);
+        } catch (SerializationException | IOException e) {
           log.error("failed to serialize result", e);
-          System.exit(7);
-          return;
+          return 7;
         }
       }
-
-      System.err.flush();
-      System.exit(0);
+      return 0;
     }
   }
 }
@@ -0,0 +1,352 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.spotify.flo.CancellationSignal;
+import com.spotify.flo.CancellationSignal.Registration;
+import com.spotify.flo.Fn;
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationException;
+import com.spotify.flo.context.ForkingExecutor.Connection;
+import com.spotify.flo.context.ForkingExecutor.Trampoline;
+import com.spotify.flo.context.Frames.Frame;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pool of pre-started sub-process JVMs that execute {@link Fn}s one at a time, like
+ * {@link ForkingExecutor} does with a new JVM per function.
+ *
+ * <p>Reusing a worker process saves the JVM startup and class loading of short functions, at the
+ * cost of functions sharing static state with earlier functions that ran in the same worker. To
+ * bound that, a worker is replaced with a fresh one after it has run a max number of functions,
+ * and optionally after a function failed.
+ *
+ * <p>Every worker keeps its socket connection to the pool open, over which it receives closures
+ * and replies with their results, see {@link ForkingExecutor}.
+ *
+ * <p>Workers are started with the environment of this process, so unlike
+ * {@link ForkingExecutor#environment(java.util.Map)}, there are no per function environment
+ * variables.
+ *
+ * <p>A worker that fails to start is retried while a function waits for a worker. Functions fail
+ * instead of waiting when no worker is left and none can be started.
+ */
+class ForkingPool implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(ForkingPool.class);
+
+  private static final long ACQUIRE_POLL_MILLIS = 1_000;
+
+  private final int size;
+  private final int maxTasksPerWorker;
+  private final boolean recycleOnFailure;
+  private final List<String> javaArgs;
+  private final boolean compress;
+
+  private final Path tempdir;
+  private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+  private final List<Worker> workers = new ArrayList<>();
+  private final ExecutorService threads = Executors.newCachedThreadPool(daemonThreads());
+  private final AtomicLong workerIds = new AtomicLong();
+
+  private volatile ValueStore values;
+
+  // guarded by workers
+  private boolean closed;
+
+  /**
+   * Create a pool and start its workers.
+   *
+   * @param size               The number of worker processes
+   * @param maxTasksPerWorker  The number of functions after which a worker is replaced
+   * @param recycleOnFailure   Whether to replace a worker after a function failed
+   * @param javaArgs           Additional jvm arguments of the workers
+   * @param compress           Whether to compress closures and results
+   */
+  ForkingPool(int size, int maxTasksPerWorker, boolean recycleOnFailure, List<String> javaArgs,
+      boolean compress) throws IOException {
+    if (size < 1) {
+      throw new IllegalArgumentException("size must be > 0, got " + size);
+    }
+    if (maxTasksPerWorker < 1) {
+      throw new IllegalArgumentException(
+          "maxTasksPerWorker must be > 0, got " + maxTasksPerWorker);
+    }
+    this.size = size;
+    this.maxTasksPerWorker = maxTasksPerWorker;
+    this.recycleOnFailure = recycleOnFailure;
+    this.javaArgs = new ArrayList<>(javaArgs);
+    this.compress = compress;
+    this.tempdir = Files.createTempDirectory("flo-fork-pool");
+    try {
+      for (int i = 0; i < size; i++) {
+        startWorker();
+      }
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Pass the values of the store that are part of a function to the workers through their files,
+   * and register the results in the store.
+   */
+  ForkingPool values(ValueStore values) {
+    this.values = Objects.requireNonNull(values);
+    return this;
+  }
+
+  /**
+   * Execute a function in a worker process, waiting for a worker to become available if needed.
+   *
+   * @param f       The function to execute
+   * @param signal  A signal on which to destroy the worker while it executes the function
+   * @return The return value of the function. Any exception thrown by the function will be
+   *         propagated and re-thrown.
+   */
+  <T> T execute(Fn<T> f, CancellationSignal signal) {
+    return execute(f, signal, metrics -> { });
+  }
+
+  /**
+   * Execute a function in a worker process, like {@link #execute(Fn, CancellationSignal)}, and
+   * receive the resource usage that the worker reported for it. The wall time is measured from
+   * when the worker received the function.
+   */
+  <T> T execute(Fn<T> f, CancellationSignal signal, Consumer<ForkMetrics> metricsConsumer) {
+    log.debug("serializing closure");
+    final ValueStore values = this.values;
+    final byte[] closure;
+    try {
+      closure = values != null ? values.serialize(f) : Serialization.serialize(f);
+    } catch (SerializationException e) {
+      throw new RuntimeException("Failed to serialize closure", e);
+    }
+
+    final Worker worker = acquire();
+    boolean failed = true;
+    try (Registration ignored = signal.onCancel(worker::destroy)) {
+      final long t0 = System.nanoTime();
+      final Frame reply = worker.run(closure);
+      worker.connection.metrics().ifPresent(metrics ->
+          metricsConsumer.accept(metrics.withWallTime(Duration.ofNanos(System.nanoTime() - t0))));
+      if (reply == null) {
+        throw new RuntimeException("Subprocess failed: " + worker.exitValue());
+      }
+      log.debug("Worker {} finished", worker.id);
+      final T result = ForkingExecutor.readResult(reply);
+      failed = false;
+      if (values != null) {
+        values.register(result, reply.payload);
+      }
+      return result;
+    } finally {
+      release(worker, failed);
+    }
+  }
+
+  @Override
+  public void close() {
+    final List<Worker> toDestroy;
+    synchronized (workers) {
+      closed = true;
+      toDestroy = new ArrayList<>(workers);
+      workers.clear();
+    }
+    toDestroy.forEach(Worker::destroy);
+    threads.shutdown();
+    ForkingExecutor.tryDeleteDir(tempdir);
+  }
+
+  private Worker acquire() {
+    while (true) {
+      final Worker worker;
+      try {
+        worker = Blocking.call(() -> idle.poll(ACQUIRE_POLL_MILLIS, TimeUnit.MILLISECONDS));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+      if (worker == null) {
+        replenish();
+        continue;
+      }
+      if (worker.isAlive()) {
+        return worker;
+      }
+      log.debug("Worker {} exited while idle", worker.id);
+      release(worker, true);
+    }
+  }
+
+  private void release(Worker worker, boolean failed) {
+    if (worker.isAlive() && !(failed && recycleOnFailure) && worker.tasks < maxTasksPerWorker) {
+      idle.add(worker);
+      return;
+    }
+    log.debug("Recycling worker {} after {} tasks", worker.id, worker.tasks);
+    synchronized (workers) {
+      workers.remove(worker);
+    }
+    worker.destroy();
+    try {
+      startWorker();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to start worker", e);
+    }
+  }
+
+  /**
+   * Start the workers that failed to start when replacing others.
+   *
+   * @throws RuntimeException if there are no workers and none could be started
+   */
+  private void replenish() {
+    final boolean empty;
+    synchronized (workers) {
+      if (closed) {
+        throw new IllegalStateException("Pool is closed");
+      }
+      if (workers.size() >= size) {
+        return;
+      }
+      empty = workers.isEmpty();
+    }
+    try {
+      startWorker();
+    } catch (IOException | RuntimeException e) {
+      if (empty) {
+        throw new RuntimeException("No live workers, failed to start a worker", e);
+      }
+      log.warn("Failed to start worker", e);
+    }
+  }
+
+  private void startWorker() throws IOException {
+    synchronized (workers) {
+      if (closed || workers.size() >= size) {
+        return;
+      }
+      final Worker worker = new Worker();
+      workers.add(worker);
+      idle.add(worker);
+    }
+  }
+
+  private static ThreadFactory daemonThreads() {
+    final AtomicLong count = new AtomicLong();
+    return runnable -> {
+      final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("flo-fork-pool-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private class Worker {
+
+    private static final long EXIT_TIMEOUT_MILLIS = 10_000;
+
+    private final long id = workerIds.incrementAndGet();
+    private final Connection connection = new Connection();
+    private final Process process;
+
+    // only accessed by the thread holding the worker
+    private int tasks;
+
+    private volatile boolean destroyed;
+
+    Worker() throws IOException {
+      final Path workdir = Files.createDirectory(tempdir.resolve("worker-" + id));
+      final ProcessBuilder processBuilder = ForkingExecutor.processBuilder(
+          workdir, javaArgs, connection.trampolineArgs(Trampoline.WORKER));
+      log.debug("Starting worker: command={}, directory={}",
+          processBuilder.command(), processBuilder.directory());
+      try {
+        process = processBuilder.start();
+      } catch (IOException e) {
+        connection.close();
+        throw e;
+      }
+
+      threads.submit(() ->
+          ForkingExecutor.copyLines(process.getInputStream(), System.out, () -> destroyed));
+      threads.submit(() ->
+          ForkingExecutor.copyLines(process.getErrorStream(), System.err, () -> destroyed));
+    }
+
+    /**
+     * @return The reply of the worker, or null if it exited without one
+     */
+    Frame run(byte[] closure) {
+      tasks++;
+      connection.send(closure, compress, process);
+      try {
+        return connection.receive();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        destroy();
+        throw new RuntimeException(e);
+      }
+    }
+
+    int exitValue() {
+      try {
+        if (Blocking.call(() -> process.waitFor(EXIT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))) {
+          return process.exitValue();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      destroy();
+      return -1;
+    }
+
+    boolean isAlive() {
+      return process.isAlive();
+    }
+
+    void destroy() {
+      log.debug("Destroying worker {}", id);
+      destroyed = true;
+      process.destroyForcibly();
+      connection.close();
+    }
+  }
+}
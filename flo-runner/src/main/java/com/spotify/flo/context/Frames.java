@@ -0,0 +1,131 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Length-prefixed frames exchanged between a parent process and its {@link ForkingExecutor}
+ * sub-processes.
+ *
+ * <p>A frame is a type byte, a flags byte, the payload length as an int and the payload. The
+ * payload is optionally deflated, as indicated by the flags.
+ */
+final class Frames {
+
+  static final byte CLOSURE = 1;
+  static final byte RESULT = 2;
+  static final byte ERROR = 3;
+  static final byte METRICS = 4;
+
+  private static final byte COMPRESSED = 1;
+
+  private Frames() {
+    throw new UnsupportedOperationException();
+  }
+
+  static final class Frame {
+
+    final byte type;
+    final boolean compressed;
+    final byte[] payload;
+
+    private Frame(byte type, boolean compressed, byte[] payload) {
+      this.type = type;
+      this.compressed = compressed;
+      this.payload = payload;
+    }
+  }
+
+  static void write(DataOutputStream out, byte type, byte[] payload, boolean compress)
+      throws IOException {
+    final byte[] bytes = compress ? deflate(payload) : payload;
+    out.writeByte(type);
+    out.writeByte(compress ? COMPRESSED : 0);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+    out.flush();
+  }
+
+  /**
+   * @return The next frame, or null if the stream ended before it
+   */
+  static Frame read(DataInputStream in) throws IOException {
+    final int type = in.read();
+    if (type == -1) {
+      return null;
+    }
+    final byte flags = in.readByte();
+    final int length = in.readInt();
+    if (length < 0) {
+      throw new StreamCorruptedException("invalid frame length: " + length);
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    final boolean compressed = (flags & COMPRESSED) != 0;
+    return new Frame((byte) type, compressed, compressed ? inflate(bytes) : bytes);
+  }
+
+  private static byte[] deflate(byte[] bytes) {
+    final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes);
+      deflater.finish();
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+      final byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        out.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] bytes) throws IOException {
+    final Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(bytes);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 2);
+      final byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        final int n = inflater.inflate(buffer);
+        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new EOFException("truncated compressed frame");
+        }
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    } catch (DataFormatException e) {
+      throw new StreamCorruptedException("invalid compressed frame: " + e.getMessage());
+    } finally {
+      inflater.end();
+    }
+  }
+}
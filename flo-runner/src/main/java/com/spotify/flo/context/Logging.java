@@ -24,9 +24,11 @@ import static org.apache.commons.lang3.time.DurationFormatUtils.formatDurationHM
 
 import com.google.auto.value.AutoValue;
 import com.spotify.flo.ControlException;
+import com.spotify.flo.SerializationValidation;
+import com.spotify.flo.TaskGraph;
 import com.spotify.flo.TaskId;
-import com.spotify.flo.TaskInfo;
 import com.spotify.flo.freezer.Persisted;
+import com.spotify.flo.freezer.PersistingContext;
 import com.spotify.flo.status.TaskStatusException;
 import java.io.Serializable;
 import java.time.Duration;
@@ -87,11 +89,11 @@ class Logging {
     }
   }
 
-  void complete(TaskInfo taskInfo, Duration elapsed) {
+  void complete(TaskGraph graph, Duration elapsed) {
     LOG.info("Total time {}", formatDurationHMS(elapsed.toMillis()));
 
-    LOG.info("Executed {} out of {} tasks:", statuses.size(), PrintUtils.tree(taskInfo).size());
-    PrintUtils.traverseTree(taskInfo, (taskId, s) -> {
+    LOG.info("Executed {} out of {} tasks:", statuses.size(), graph.size());
+    PrintUtils.traverseTree(graph, (taskId, s) -> {
       final Status status = statuses.get(taskId);
       final String statusLine;
       if (status == null) {
@@ -105,6 +107,51 @@ class Logging {
     });
   }
 
+  void serializationValidation(SerializationValidation.Stats stats) {
+    LOG.info("Serialization validation: {} round trips in {}, {} skipped",
+        stats.validated(), formatDurationHMS(stats.time().toMillis()), stats.skipped());
+  }
+
+  void memoSpill(SpillingMemoizingContext.Stats stats) {
+    LOG.info("Memo spill: {} values ({} bytes) spilled in {}, {} values ({} bytes) reloaded in {}",
+        stats.spilledValues(), stats.spilledBytes(),
+        formatDurationHMS(stats.spillTime().toMillis()),
+        stats.reloadedValues(), stats.reloadedBytes(),
+        formatDurationHMS(stats.reloadTime().toMillis()));
+  }
+
+  void cache(CachingContext.Stats stats) {
+    LOG.info("Result cache: {} hits, {} misses, {} writes, {} evictions",
+        stats.hits(), stats.misses(), stats.writes(), stats.evictions());
+  }
+
+  void forks(long forked, long inProcess) {
+    LOG.info("Fork policy: {} tasks forked, {} forks avoided", forked, inProcess);
+  }
+
+  void forkMetrics(ForkMetrics metrics) {
+    LOG.info("Forked tasks: {} wall time, {} cpu time, {} gcs in {}, peak rss {} bytes",
+        formatDurationHMS(metrics.wallTime().toMillis()),
+        formatDurationHMS(metrics.cpuTime().toMillis()), metrics.gcCount(),
+        formatDurationHMS(metrics.gcTime().toMillis()), metrics.peakRssBytes());
+  }
+
+  void forkAdmission(ForkAdmission admission) {
+    LOG.info("Fork admission: {} forks waited {} in total, at most {}, peak committed {} bytes",
+        admission.admitted(), formatDurationHMS(admission.queueTime().toMillis()),
+        formatDurationHMS(admission.maxQueueTime().toMillis()), admission.peakCommittedBytes());
+  }
+
+  void forkValues(ValueStore values) {
+    LOG.info("Fork values: {} values stored in {} bytes, passed by handle {} times",
+        values.segments(), values.storedBytes(), values.references());
+  }
+
+  void persisted(PersistingContext context) {
+    LOG.info("Persisted {} tasks in {}", context.getFiles().size(),
+        formatDurationHMS(context.persistTime().toMillis()));
+  }
+
   void exception(Throwable throwable) {
     if (throwable instanceof TaskStatusException) {
       LOG.warn("Could not complete run: {}", throwable.getClass().getSimpleName());
@@ -115,13 +162,13 @@ class Logging {
     }
   }
 
-  void tree(TaskInfo taskInfo) {
-    PrintUtils.tree(taskInfo).forEach(LOG::info);
+  void tree(TaskGraph graph) {
+    PrintUtils.tree(graph).forEach(LOG::info);
   }
 
-  void printPlan(TaskInfo taskInfo) {
+  void printPlan(TaskGraph graph) {
     LOG.info("Evaluation plan:");
-    PrintUtils.tree(taskInfo).forEach(LOG::info);
+    PrintUtils.tree(graph).forEach(LOG::info);
     LOG.info("");
   }
 
@@ -20,13 +20,12 @@
 
 package com.spotify.flo.context;
 
-import static java.util.stream.Collectors.joining;
-
+import com.spotify.flo.TaskGraph;
 import com.spotify.flo.TaskId;
-import com.spotify.flo.TaskInfo;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Stack;
 import java.util.function.BiConsumer;
 
 /**
@@ -37,34 +36,57 @@ final class PrintUtils {
   private PrintUtils() {
   }
 
-  static List<String> tree(TaskInfo taskInfo) {
+  static List<String> tree(TaskGraph graph) {
     final List<String> lines = new ArrayList<>();
-    traverseTree(taskInfo, (taskId, s) -> lines.add(s));
+    traverseTree(graph, (taskId, s) -> lines.add(s));
     return lines;
   }
 
-  static void traverseTree(TaskInfo taskInfo, BiConsumer<TaskId, String> consumer) {
-    consumer.accept(taskInfo.id(), taskInfo.id().toString());
-    popSubTree(taskInfo.inputs(), consumer, new Stack<>());
+  /**
+   * Depth first traversal of the graph, where already visited tasks are printed as references
+   * and not expanded again. The traversal is iterative, so deep graphs do not exhaust the stack.
+   */
+  static void traverseTree(TaskGraph graph, BiConsumer<TaskId, String> consumer) {
+    final boolean[] visited = new boolean[graph.size()];
+    final Deque<Frame> stack = new ArrayDeque<>();
+
+    visited[graph.root()] = true;
+    consumer.accept(graph.id(graph.root()), graph.id(graph.root()).toString());
+    stack.push(new Frame(graph.root(), ""));
+
+    while (!stack.isEmpty()) {
+      final Frame frame = stack.peek();
+      final int inputCount = graph.inputCount(frame.node);
+      if (frame.cursor == inputCount) {
+        stack.pop();
+        continue;
+      }
+
+      final boolean last = frame.cursor == inputCount - 1;
+      final int input = graph.input(frame.node, frame.cursor++);
+      final TaskId id = graph.id(input);
+      final String branch = last ? "└" : "├";
+      final String prefix = frame.indent + branch + "▸ ";
+
+      if (visited[input]) {
+        consumer.accept(id, prefix + id + " ⤴");
+      } else {
+        visited[input] = true;
+        consumer.accept(id, prefix + id);
+        stack.push(new Frame(input, frame.indent + (last ? "   " : "│  ")));
+      }
+    }
   }
 
-  private static void popSubTree(List<TaskInfo> inputs, BiConsumer<TaskId, String> consumer, Stack<Boolean> indents) {
-    for (int i = 0; i < inputs.size(); i++) {
-      final TaskInfo taskInfo = inputs.get(i);
-      final String indent = indents.stream()
-          .map(b -> b ? "   " : "│  ")
-          .collect(joining());
-      final String branch = (i < inputs.size() - 1) ? "├" : "└";
-      final String prefix = indent + branch + "▸ ";
-      final String refArrow = taskInfo.isReference()
-          ? " ⤴"
-          : "";
+  private static final class Frame {
 
-      consumer.accept(taskInfo.id(), prefix + taskInfo.id() + refArrow);
+    private final int node;
+    private final String indent;
+    private int cursor;
 
-      indents.push(i == inputs.size() - 1);
-      popSubTree(taskInfo.inputs(), consumer, indents);
-      indents.pop();
+    private Frame(int node, String indent) {
+      this.node = node;
+      this.indent = indent;
     }
   }
 }
@@ -0,0 +1,301 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationException;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A run-scoped store of task values that {@link ForkingExecutor} sub-processes read from
+ * memory-mapped files instead of from their serialized closures.
+ *
+ * <p>Task values are registered as they complete. When a closure is serialized with
+ * {@link #serialize(Object)}, every registered value in it is written once to a segment file of
+ * its own and replaced by a {@link Handle}, which the sub-process resolves by mapping the file and
+ * deserializing the value from it. A value that is the input of many forked tasks is thus
+ * serialized and written once, instead of once per task.
+ *
+ * <p>Values that serialize to less than a threshold are not worth a file and are written as part
+ * of the closures. The size of simple values like strings and primitive arrays is estimated
+ * without serializing them, other values are serialized once to find out. Values are held weakly and by identity, while their files are kept until the
+ * store is closed, as closures that refer to them may still be in flight.
+ */
+final class ValueStore implements Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(ValueStore.class);
+
+  private final Path directory;
+  private final long threshold;
+
+  private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+  private final AtomicLong segments = new AtomicLong();
+  private final AtomicLong storedBytes = new AtomicLong();
+  private final AtomicLong references = new AtomicLong();
+
+  private volatile boolean closed;
+
+  private ValueStore(Path directory, long threshold) {
+    this.directory = directory;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Create a store with its segment files in a new directory.
+   *
+   * @param parent     The directory to create the directory of the store in
+   * @param threshold  The serialized size in bytes from which values are written to a file
+   */
+  static ValueStore create(Path parent, long threshold) throws IOException {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("threshold must be > 0, got " + threshold);
+    }
+    Files.createDirectories(parent);
+    return new ValueStore(Files.createTempDirectory(parent, "flo-values"), threshold);
+  }
+
+  /**
+   * Register a task value. It is serialized to its file the first time it is part of a closure.
+   */
+  void register(Object value) {
+    entry(value);
+  }
+
+  /**
+   * Register a task value along with its serialized form, e.g. as received from a sub-process,
+   * which is written to its file right away if it is large enough.
+   */
+  void register(Object value, byte[] serialized) {
+    final Entry entry = entry(value);
+    if (entry != null) {
+      entry.store(serialized);
+    }
+  }
+
+  /**
+   * Serialize a closure, writing handles in place of the registered values in it.
+   */
+  byte[] serialize(Object closure) throws SerializationException {
+    return Serialization.serialize(closure, this::replace);
+  }
+
+  /**
+   * @return The number of values that were written to files
+   */
+  long segments() {
+    return segments.get();
+  }
+
+  /**
+   * @return The total size of the files
+   */
+  long storedBytes() {
+    return storedBytes.get();
+  }
+
+  /**
+   * @return The number of times that a handle was written in place of a value
+   */
+  long references() {
+    return references.get();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    entries.clear();
+    ForkingExecutor.tryDeleteDir(directory);
+  }
+
+  private Entry entry(Object value) {
+    if (value == null || closed) {
+      return null;
+    }
+    expunge();
+    return entries.computeIfAbsent(new Key(value, collected), key -> new Entry());
+  }
+
+  private Object replace(Object object) {
+    if (entries.isEmpty()) {
+      return object;
+    }
+    final Entry entry = entries.get(new Key(object, null));
+    if (entry == null) {
+      return object;
+    }
+    final Handle handle = entry.handle(object);
+    if (handle == null) {
+      return object;
+    }
+    references.incrementAndGet();
+    return handle;
+  }
+
+  private void expunge() {
+    Object key;
+    while ((key = collected.poll()) != null) {
+      entries.remove(key);
+    }
+  }
+
+  private Handle write(byte[] serialized) throws IOException {
+    final Path file = directory.resolve(segments.getAndIncrement() + ".seg");
+    try (final FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE)) {
+      channel.map(READ_WRITE, 0, serialized.length).put(serialized);
+    }
+    storedBytes.addAndGet(serialized.length);
+    return new Handle(file.toString());
+  }
+
+  /**
+   * Map a segment file and deserialize the value in it.
+   */
+  static <T> T read(Path file) throws IOException, SerializationException {
+    final ByteBuffer buffer;
+    try (final FileChannel channel = FileChannel.open(file, READ)) {
+      buffer = channel.map(READ_ONLY, 0, channel.size());
+    }
+    return Serialization.deserialize(buffer);
+  }
+
+  /**
+   * Where a registered value is stored, decided when it is first serialized.
+   */
+  private final class Entry {
+
+    // guarded by this
+    private boolean decided;
+    private Handle handle;
+
+    synchronized Handle handle(Object value) {
+      if (!decided) {
+        final long estimatedSize = Serialization.estimatedSize(value);
+        if (estimatedSize >= 0 && estimatedSize < threshold) {
+          decided = true;
+          return null;
+        }
+        final byte[] serialized;
+        try {
+          serialized = Serialization.serialize(value);
+        } catch (SerializationException e) {
+          // Let the serialization of the closure report it
+          decided = true;
+          return null;
+        }
+        store(serialized);
+      }
+      return handle;
+    }
+
+    synchronized void store(byte[] serialized) {
+      if (decided) {
+        return;
+      }
+      decided = true;
+      if (serialized.length < threshold || closed) {
+        return;
+      }
+      try {
+        handle = write(serialized);
+      } catch (IOException e) {
+        log.warn("Failed to store value, passing it in closures instead", e);
+      }
+    }
+  }
+
+  /**
+   * A weak reference to a value that is equal to other references to the identical value.
+   */
+  private static final class Key extends WeakReference<Object> {
+
+    private final int hash;
+
+    private Key(Object value, ReferenceQueue<Object> queue) {
+      super(value, queue);
+      this.hash = System.identityHashCode(value);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      final Object value = get();
+      return value != null && value == ((Key) o).get();
+    }
+  }
+
+  /**
+   * Written in place of a stored value and resolved to the value from its file when read.
+   */
+  static final class Handle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String file;
+
+    private Handle(String file) {
+      this.file = file;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      try {
+        return read(Paths.get(file));
+      } catch (IOException | SerializationException e) {
+        final InvalidObjectException exception =
+            new InvalidObjectException("Failed to read value from " + file);
+        exception.initCause(e);
+        throw exception;
+      }
+    }
+  }
+}
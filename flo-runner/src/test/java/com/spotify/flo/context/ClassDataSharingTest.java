@@ -0,0 +1,61 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Optional;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClassDataSharingTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void keyIsStable() {
+    assertThat(ClassDataSharing.key(), is(ClassDataSharing.key()));
+  }
+
+  @Test
+  public void noArchiveIfNotSupported() throws IOException {
+    assumeFalse(ClassDataSharing.isSupported());
+    final Path directory = temporaryFolder.getRoot().toPath();
+    assertThat(ClassDataSharing.archive(directory, Collections.emptyList()),
+        is(Optional.empty()));
+    assertThat(Files.list(directory).count(), is(0L));
+  }
+
+  @Test
+  public void javaArgsUseArchive() {
+    assertThat(ClassDataSharing.javaArgs(Paths.get("/tmp/flo.jsa")),
+        contains("-XX:SharedArchiveFile=/tmp/flo.jsa"));
+  }
+}
@@ -26,8 +26,11 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
@@ -41,9 +44,14 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import com.google.common.collect.ImmutableMap;
+import com.spotify.flo.EvalContext;
 import com.spotify.flo.FloTesting;
+import com.spotify.flo.HeapRequirement;
 import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationValidation;
+import com.spotify.flo.SerializationValidation.Mode;
 import com.spotify.flo.Task;
+import com.spotify.flo.TaskContextGeneric;
 import com.spotify.flo.TaskId;
 import com.spotify.flo.TestScope;
 import com.spotify.flo.Tracing;
@@ -56,6 +64,9 @@ import com.spotify.flo.context.Mocks.StorageLookup;
 import com.spotify.flo.freezer.Persisted;
 import com.spotify.flo.status.NotReady;
 import com.spotify.flo.status.NotRetriable;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigValueFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
@@ -200,6 +211,122 @@ public class FloRunnerTest {
     assertThat(result, is("foo"));
   }
 
+  @Test
+  public void valueIsPassedInFutureWithVirtualExecutor() throws Exception {
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.executor", ConfigValueFactory.fromAnyRef("virtual"))
+        .withValue("flo.maxConcurrency", ConfigValueFactory.fromAnyRef(2));
+
+    final String result = runTask(FOO_TASK, config).future().get(30, SECONDS);
+
+    assertThat(result, is("foo"));
+  }
+
+  @Test
+  public void valueIsPassedInFutureWithForkJoinExecutor() throws Exception {
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.executor", ConfigValueFactory.fromAnyRef("forkjoin"));
+
+    final String result = runTask(FOO_TASK, config).future().get(30, SECONDS);
+
+    assertThat(result, is("foo"));
+  }
+
+  @Test
+  public void valueIsPassedInFutureWithPlanExecutor() throws Exception {
+    final Task<String> foo = FOO_TASK;
+    final Task<String> task = Task.named("foobar").ofType(String.class)
+        .input(() -> foo)
+        .input(() -> foo)
+        .process((a, b) -> a + b);
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.executor", ConfigValueFactory.fromAnyRef("plan"));
+
+    final String result = runTask(task, config).future().get(30, SECONDS);
+
+    assertThat(result, is("foofoo"));
+  }
+
+  @Test
+  public void valueIsPassedInFutureWithTrampolinedExecutor() throws Exception {
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.executor", ConfigValueFactory.fromAnyRef("trampolined"));
+
+    final String result = runTask(FOO_TASK, config).future().get(30, SECONDS);
+
+    assertThat(result, is("foo"));
+  }
+
+  @Test
+  public void valueIsPassedInFutureWithMemoEviction() throws Exception {
+    final Task<String> foo = FOO_TASK;
+    final Task<String> task = Task.named("foobar").ofType(String.class)
+        .input(() -> foo)
+        .input(() -> foo)
+        .process((a, b) -> a + b);
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.memo.mode", ConfigValueFactory.fromAnyRef("evict"));
+
+    final String result = runTask(task, config).future().get(30, SECONDS);
+
+    assertThat(result, is("foofoo"));
+  }
+
+  @Test
+  public void valueIsPassedInFutureWithMemoSpill() throws Exception {
+    final Task<String> foo = FOO_TASK;
+    final Task<String> task = Task.named("foobar").ofType(String.class)
+        .input(() -> foo)
+        .input(() -> foo)
+        .process((a, b) -> a + b);
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.memo.mode", ConfigValueFactory.fromAnyRef("spill"))
+        .withValue("flo.memo.budget", ConfigValueFactory.fromAnyRef(0));
+
+    final String result = runTask(task, config).future().get(30, SECONDS);
+
+    assertThat(result, is("foofoo"));
+  }
+
+  @Test
+  public void valueIsServedFromCacheInLaterRuns() throws Exception {
+    final String directory = temporaryFolder.newFolder().toString();
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.cache.enabled", ConfigValueFactory.fromAnyRef(true))
+        .withValue("flo.cache.directory", ConfigValueFactory.fromAnyRef(directory));
+    final Task<String> first = Task.named("cached").ofType(String.class)
+        .process(() -> "first");
+    final Task<String> second = Task.named("cached").ofType(String.class)
+        .process(() -> "second");
+
+    assertThat(runTask(first, config).future().get(30, SECONDS), is("first"));
+    assertThat(runTask(second, config).future().get(30, SECONDS), is("first"));
+  }
+
+  @Test
+  public void cachedValueIsNotServedInPersistMode() throws Exception {
+    final File stateLocation = temporaryFolder.newFolder();
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.cache.enabled", ConfigValueFactory.fromAnyRef(true))
+        .withValue("flo.cache.directory",
+            ConfigValueFactory.fromAnyRef(temporaryFolder.newFolder().toString()));
+    final Task<String> task = Task.named("cached").ofType(String.class)
+        .process(() -> "cached");
+
+    assertThat(runTask(task, config).future().get(30, SECONDS), is("cached"));
+
+    final AtomicInteger status = new AtomicInteger(1);
+    runTask(task, config
+        .withValue("mode", ConfigValueFactory.fromAnyRef("persist"))
+        .withValue("flo.state.location",
+            ConfigValueFactory.fromAnyRef(stateLocation.toURI().toString())))
+        .waitAndExit(status::set);
+
+    assertThat(status.get(), is(0));
+    assertThat(Files.walk(stateLocation.toPath()).filter(Files::isRegularFile).count(),
+        is(greaterThan(0L)));
+  }
+
   @Test
   public void testSerializeException() throws Exception {
     final File file = temporaryFolder.newFile();
@@ -224,6 +351,37 @@ public class FloRunnerTest {
     assertThat(exception.getMessage(), is("foo"));
   }
 
+  @Test
+  public void failFastAbortsRunningTasks() throws Exception {
+    final Task<String> slow = Task.named("slow").ofType(String.class)
+        .process(() -> {
+          try {
+            Thread.sleep(120_000);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          return "slow";
+        });
+    final Task<String> failing = Task.named("failing").ofType(String.class)
+        .process(() -> {
+          throw new RuntimeException("foo");
+        });
+    final Task<String> task = Task.named("foo").ofType(String.class)
+        .input(() -> slow)
+        .input(() -> failing)
+        .process((s, f) -> s + f);
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.failFast", ConfigValueFactory.fromAnyRef(true));
+
+    Throwable exception = null;
+    try {
+      runTask(task, config).future().get(30, SECONDS);
+    } catch (ExecutionException e) {
+      exception = e.getCause();
+    }
+    assertThat(exception.getMessage(), is("foo"));
+  }
+
   @Test
   public void errorsArePassed() throws Exception {
     final Task<String> task = Task.named("foo").ofType(String.class)
@@ -255,6 +413,17 @@ public class FloRunnerTest {
     assertThat(status.get(), is(0));
   }
 
+  @Test
+  public void validationModeIsKeptUnlessConfigured() throws Exception {
+    SerializationValidation.setMode(Mode.OFF);
+    try {
+      runTask(FOO_TASK).value();
+      assertThat(SerializationValidation.mode(), is(Mode.OFF));
+    } finally {
+      SerializationValidation.setMode(Mode.STRICT);
+    }
+  }
+
   @Test
   public void valuesCanBeWaitedOn() throws Exception {
     final String result = runTask(FOO_TASK).value();
@@ -525,6 +694,73 @@ public class FloRunnerTest {
     assertThat(result.uri, is("hdfs://foo/bar"));
   }
 
+  @Test
+  public void operatorsRunInProcessByPolicy() throws Exception {
+    final String mainJvm = jvmName();
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.fork.inProcess.operators", ConfigValueFactory.fromAnyRef(true));
+    final Task<JobResult> task = Task.named("task").ofType(JobResult.class)
+        .operator(JobOperator.create())
+        .process(job -> job.success(result -> new JobResult(jvmName(), "hdfs://foo/bar")));
+
+    final JobResult result = runTask(task, config).future().get(30, SECONDS);
+
+    assertThat(result.jvmName, is(mainJvm));
+  }
+
+  @Test
+  public void namedTasksRunInProcessByPolicy() throws Exception {
+    final String mainJvm = jvmName();
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.fork.inProcess.names",
+            ConfigValueFactory.fromIterable(Collections.singletonList("cheap.*")));
+    final Task<String> cheap = Task.named("cheapFormat").ofType(String.class)
+        .process(FloRunnerTest::jvmName);
+    final Task<String> expensive = Task.named("expensive").ofType(String.class)
+        .input(() -> cheap)
+        .process(c -> c + " " + jvmName());
+
+    final String result = runTask(expensive, config).future().get(30, SECONDS);
+
+    assertThat(result, startsWith(mainJvm + " "));
+    assertThat(result, is(not(mainJvm + " " + mainJvm)));
+  }
+
+  @Test
+  public void forkedTasksGetDeclaredHeap() throws Exception {
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.fork.memory.enabled", ConfigValueFactory.fromAnyRef(true));
+    final Task<Long> task = Task.named("heap").ofType(Long.class)
+        .context(new Heap(128 * 1024 * 1024))
+        .process(heap -> Runtime.getRuntime().maxMemory());
+
+    final long maxMemory = runTask(task, config).future().get(30, SECONDS);
+
+    assertThat(maxMemory, is(lessThanOrEqualTo(128L * 1024 * 1024)));
+    assertThat(maxMemory, is(greaterThan(64L * 1024 * 1024)));
+  }
+
+  @Test
+  public void forkedTasksReadStoredValues() throws Exception {
+    final Config config = ConfigFactory.load("flo")
+        .withValue("flo.fork.values.enabled", ConfigValueFactory.fromAnyRef(true))
+        .withValue("flo.fork.values.threshold", ConfigValueFactory.fromAnyRef("1K"));
+    final Task<String> large = Task.named("large").ofType(String.class)
+        .process(() -> String.join("", Collections.nCopies(100_000, "flo")));
+    final Task<Integer> first = Task.named("first").ofType(Integer.class)
+        .input(() -> large)
+        .process(String::length);
+    final Task<Integer> second = Task.named("second").ofType(Integer.class)
+        .input(() -> large)
+        .process(l -> l.indexOf("flo"));
+    final Task<Integer> sum = Task.named("sum").ofType(Integer.class)
+        .input(() -> first)
+        .input(() -> second)
+        .process((f, s) -> f + s);
+
+    assertThat(runTask(sum, config).future().get(30, SECONDS), is(300_000));
+  }
+
   @Test
   public void tasksAreObservedByInstrumentedContext() throws Exception {
     final Task<String> fooTask = Task.named("foo").ofType(String.class)
@@ -546,6 +782,8 @@ public class FloRunnerTest {
     verify(listener).status(barTask.id(), Phase.START);
     verify(listener).status(barTask.id(), Phase.SUCCESS);
     verify(listener).meta(barTask.id(), Collections.singletonMap("task-id", barTask.id().toString()));
+    verify(listener).meta(eq(fooTask.id()), argThat(meta -> meta.containsKey("fork-wall-ms")));
+    verify(listener).meta(eq(barTask.id()), argThat(meta -> meta.containsKey("fork-wall-ms")));
     verifyNoMoreInteractions(listener);
   }
 
@@ -573,6 +811,25 @@ public class FloRunnerTest {
     assertThat(Files.list(Paths.get(fooRuns)).count(), is(1L));
   }
 
+  private static class Heap extends TaskContextGeneric<String> implements HeapRequirement {
+
+    private final long bytes;
+
+    Heap(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String provide(EvalContext evalContext) {
+      return "heap";
+    }
+
+    @Override
+    public long heapBytes() {
+      return bytes;
+    }
+  }
+
   private static String jvmName() {
     return ManagementFactory.getRuntimeMXBean().getName();
   }
@@ -0,0 +1,142 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.HeapRequirement;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskContextGeneric;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class ForkAdmissionTest {
+
+  private final ForkAdmission admission = new ForkAdmission(100, 30, 10);
+
+  @Test
+  public void admitsForksWithinBudget() throws Exception {
+    try (ForkAdmission.Permit first = admission.acquire(0);
+        ForkAdmission.Permit second = admission.acquire(50)) {
+      assertThat(admission.admitted(), is(2L));
+      assertThat(admission.peakCommittedBytes(), is(100L));
+    }
+  }
+
+  @Test
+  public void queuesForksUntilBudgetIsReleased() throws Exception {
+    final ForkAdmission.Permit first = admission.acquire(60);
+    final CompletableFuture<ForkAdmission.Permit> second = acquireAsync(60);
+
+    awaitQueued(1);
+    Thread.sleep(100);
+    assertThat(second.isDone(), is(false));
+
+    first.close();
+    second.get(10, TimeUnit.SECONDS).close();
+    assertThat(admission.peakCommittedBytes(), is(70L));
+    assertThat(admission.maxQueueTime().toMillis(), is(greaterThanOrEqualTo(100L)));
+  }
+
+  @Test
+  public void admitsForksInOrder() throws Exception {
+    final ForkAdmission.Permit first = admission.acquire(60);
+    final CompletableFuture<ForkAdmission.Permit> large = acquireAsync(80);
+    awaitQueued(1);
+    // Would fit, but has to wait for the large fork that queued first
+    final CompletableFuture<ForkAdmission.Permit> small = acquireAsync(1);
+
+    awaitQueued(2);
+    Thread.sleep(100);
+    assertThat(small.isDone(), is(false));
+
+    first.close();
+    large.get(10, TimeUnit.SECONDS).close();
+    small.get(10, TimeUnit.SECONDS).close();
+  }
+
+  @Test
+  public void admitsOversizedForkAlone() throws Exception {
+    try (ForkAdmission.Permit permit = admission.acquire(1000)) {
+      assertThat(admission.peakCommittedBytes(), is(1010L));
+    }
+  }
+
+  @Test
+  public void findsLargestDeclaredHeap() {
+    final Task<String> task = Task.named("task").ofType(String.class)
+        .context(new Heap(17))
+        .context(new Heap(4711))
+        .process((a, b) -> a + b);
+    assertThat(ForkAdmission.declaredHeap(task), is(OptionalLong.of(4711)));
+
+    final Task<String> plain = Task.named("plain").ofType(String.class)
+        .process(() -> "plain");
+    assertThat(ForkAdmission.declaredHeap(plain), is(OptionalLong.empty()));
+  }
+
+  private void awaitQueued(int forks) throws InterruptedException {
+    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (admission.queued() < forks) {
+      if (System.nanoTime() > deadline) {
+        throw new AssertionError("Timed out waiting for " + forks + " queued forks");
+      }
+      Thread.sleep(1);
+    }
+  }
+
+  private CompletableFuture<ForkAdmission.Permit> acquireAsync(long heap) {
+    final ForkAdmission admission = this.admission;
+    final CompletableFuture<ForkAdmission.Permit> future = new CompletableFuture<>();
+    new Thread(() -> {
+      try {
+        future.complete(admission.acquire(heap));
+      } catch (InterruptedException e) {
+        future.completeExceptionally(e);
+      }
+    }).start();
+    return future;
+  }
+
+  private static class Heap extends TaskContextGeneric<String> implements HeapRequirement {
+
+    private final long bytes;
+
+    Heap(long bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String provide(EvalContext evalContext) {
+      return "heap";
+    }
+
+    @Override
+    public long heapBytes() {
+      return bytes;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.InProcess;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskContextGeneric;
+import com.spotify.flo.context.Jobs.JobOperator;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class ForkPolicyTest {
+
+  private static final Task<String> PLAIN = Task.named("plain").ofType(String.class)
+      .process(() -> "plain");
+
+  private static final Task<String> MARKED = Task.named("marked").ofType(String.class)
+      .context(new Marker())
+      .process(marker -> "marked");
+
+  private static final Task<String> OPERATOR = Task.named("operator").ofType(String.class)
+      .operator(JobOperator.create())
+      .process(job -> job.success(result -> "done"));
+
+  @Test
+  public void forkAllForksUnmarkedTasks() {
+    final ForkPolicy policy = ForkPolicy.forkAll();
+    assertThat(policy.shouldFork(PLAIN), is(true));
+    assertThat(policy.shouldFork(OPERATOR), is(true));
+    assertThat(policy.shouldFork(MARKED), is(false));
+  }
+
+  @Test
+  public void operatorsCanRunInProcess() {
+    final ForkPolicy policy = ForkPolicy.create(Collections.emptyList(), true);
+    assertThat(policy.shouldFork(PLAIN), is(true));
+    assertThat(policy.shouldFork(OPERATOR), is(false));
+  }
+
+  @Test
+  public void namesMustMatchFully() {
+    final ForkPolicy policy = ForkPolicy.create(Arrays.asList("pla", "oper.*"), false);
+    assertThat(policy.shouldFork(PLAIN), is(true));
+    assertThat(policy.shouldFork(OPERATOR), is(false));
+  }
+
+  private static class Marker extends TaskContextGeneric<String> implements InProcess {
+
+    @Override
+    public String provide(EvalContext evalContext) {
+      return "marker";
+    }
+  }
+}
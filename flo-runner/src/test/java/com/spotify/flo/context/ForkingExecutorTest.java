@@ -20,23 +20,31 @@
 
 package com.spotify.flo.context;
 
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isA;
 import static org.hamcrest.Matchers.not;
 import static org.junit.Assert.assertThat;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
 
 public class ForkingExecutorTest {
 
   @Rule public ExpectedException exception = ExpectedException.none();
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
   private ForkingExecutor forkingExecutor;
 
@@ -45,6 +53,33 @@ public class ForkingExecutorTest {
     forkingExecutor = new ForkingExecutor();
   }
 
+  @Test
+  public void destroyTerminatesOngoingExecution() throws Exception {
+    final CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> {
+      try {
+        return forkingExecutor.execute(() -> {
+          try {
+            Thread.sleep(60_000);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          return "done";
+        });
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    });
+
+    // Keep destroying until the sub-process has been started and killed
+    while (!result.isDone()) {
+      forkingExecutor.destroy();
+      Thread.sleep(100);
+    }
+
+    exception.expectCause(isA(RuntimeException.class));
+    result.get(30, TimeUnit.SECONDS);
+  }
+
   @Test
   public void returnsResult() throws IOException {
     final String result = forkingExecutor.execute(() ->
@@ -52,6 +87,45 @@ public class ForkingExecutorTest {
     assertThat(result, is("hello world!"));
   }
 
+  @Test
+  public void returnsLargeCompressedResult() throws IOException {
+    final String result = forkingExecutor
+        .compress(true)
+        .execute(() -> String.join("", Collections.nCopies(1_000_000, "flo")));
+    assertThat(result.length(), is(3_000_000));
+  }
+
+  @Test
+  public void readsStoredValues() throws IOException {
+    final String input = String.join("", Collections.nCopies(1_000_000, "flo"));
+    try (ValueStore values = ValueStore.create(temporaryFolder.getRoot().toPath(), 1_000)) {
+      values.register(input);
+      final int length = forkingExecutor
+          .values(values)
+          .execute(() -> input.length());
+      assertThat(length, is(3_000_000));
+      assertThat(values.segments(), is(1L));
+      assertThat(values.references(), is(1L));
+    }
+  }
+
+  @Test
+  public void reportsMetrics() throws IOException {
+    final List<ForkMetrics> metrics = new ArrayList<>();
+    forkingExecutor
+        .metrics(metrics::add)
+        .execute(() -> {
+          System.gc();
+          return "gc";
+        });
+    assertThat(metrics.size(), is(1));
+    final ForkMetrics m = metrics.get(0);
+    assertThat(m.wallTime().isNegative(), is(false));
+    assertThat(m.wallTime().compareTo(m.gcTime()), is(greaterThan(0)));
+    assertThat(m.gcCount(), is(greaterThan(0L)));
+    assertThat(m.peakRssBytes(), is(greaterThan(0L)));
+  }
+
   @Test
   public void propagatesException() throws IOException {
     exception.expect(FoobarException.class);
@@ -0,0 +1,194 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isA;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.spotify.flo.CancellationSignal;
+import com.spotify.flo.Fn;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ForkingPoolTest {
+
+  @Rule public ExpectedException exception = ExpectedException.none();
+
+  private ForkingPool pool;
+
+  @After
+  public void tearDown() {
+    if (pool != null) {
+      pool.close();
+    }
+  }
+
+  @Test
+  public void returnsResult() throws IOException {
+    pool = pool(1, 10, true);
+    assertThat(execute(() -> "hello world!"), is("hello world!"));
+  }
+
+  @Test
+  public void propagatesException() throws IOException {
+    pool = pool(1, 10, true);
+    exception.expect(FoobarException.class);
+    exception.expectMessage("foobar!");
+    execute(() -> {
+      throw new FoobarException("foobar!");
+    });
+  }
+
+  @Test
+  public void executesInSubprocess() throws IOException {
+    pool = pool(1, 10, true);
+    assertThat(execute(ForkingPoolTest::jvm), is(not(jvm())));
+  }
+
+  @Test
+  public void reusesWorkers() throws IOException {
+    pool = pool(1, 10, true);
+    assertThat(execute(ForkingPoolTest::jvm), is(execute(ForkingPoolTest::jvm)));
+  }
+
+  @Test
+  public void recyclesWorkersAfterMaxTasks() throws IOException {
+    pool = pool(1, 2, true);
+    final String first = execute(ForkingPoolTest::jvm);
+    assertThat(execute(ForkingPoolTest::jvm), is(first));
+    assertThat(execute(ForkingPoolTest::jvm), is(not(first)));
+  }
+
+  @Test
+  public void recyclesWorkersAfterFailure() throws IOException {
+    pool = pool(1, 10, true);
+    final String first = execute(ForkingPoolTest::jvm);
+    failingExecution();
+    assertThat(execute(ForkingPoolTest::jvm), is(not(first)));
+  }
+
+  @Test
+  public void keepsWorkersAfterFailureIfConfigured() throws IOException {
+    pool = pool(1, 10, false);
+    final String first = execute(ForkingPoolTest::jvm);
+    failingExecution();
+    assertThat(execute(ForkingPoolTest::jvm), is(first));
+  }
+
+  @Test
+  public void runsTasksConcurrently() throws Exception {
+    pool = pool(2, 10, true);
+    final List<CompletableFuture<String>> results = IntStream.range(0, 4)
+        .mapToObj(i -> CompletableFuture.supplyAsync(() ->
+            pool.execute(() -> "task " + i, CancellationSignal.none())))
+        .collect(Collectors.toList());
+    for (int i = 0; i < results.size(); i++) {
+      assertThat(results.get(i).get(30, TimeUnit.SECONDS), is("task " + i));
+    }
+  }
+
+  @Test
+  public void cancellationDestroysWorker() throws Exception {
+    pool = pool(1, 10, true);
+    final CancellationSignal signal = CancellationSignal.create();
+    final CompletableFuture<String> result = CompletableFuture.supplyAsync(() ->
+        pool.execute(() -> {
+          try {
+            Thread.sleep(60_000);
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          return "done";
+        }, signal));
+
+    Thread.sleep(500);
+    signal.cancel(new RuntimeException("cancelled"));
+
+    try {
+      result.get(30, TimeUnit.SECONDS);
+      fail();
+    } catch (Exception e) {
+      assertThat(e.getCause(), isA(RuntimeException.class));
+    }
+
+    // The worker is replaced
+    assertThat(execute(() -> "after"), is("after"));
+  }
+
+  @Test
+  public void failsWhenNoWorkerCanBeStarted() throws IOException {
+    pool = pool(1, 1, true);
+    // Delete the directory of the pool from the worker, so that no replacement can be started
+    execute(() -> {
+      ForkingExecutor.tryDeleteDir(Paths.get("").toAbsolutePath().getParent());
+      return null;
+    });
+
+    exception.expect(RuntimeException.class);
+    exception.expectMessage("No live workers");
+    execute(() -> "never");
+  }
+
+  private void failingExecution() throws IOException {
+    try {
+      execute(() -> {
+        throw new FoobarException("foobar!");
+      });
+      fail();
+    } catch (FoobarException ignore) {
+    }
+  }
+
+  private <T> T execute(Fn<T> fn) throws IOException {
+    return pool.execute(fn, CancellationSignal.none());
+  }
+
+  private static ForkingPool pool(int size, int maxTasksPerWorker, boolean recycleOnFailure)
+      throws IOException {
+    return new ForkingPool(size, maxTasksPerWorker, recycleOnFailure, Collections.emptyList(),
+        false);
+  }
+
+  private static String jvm() {
+    return ManagementFactory.getRuntimeMXBean().getName();
+  }
+
+  private static class FoobarException extends RuntimeException {
+
+    FoobarException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,85 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.context.Frames.Frame;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class FramesTest {
+
+  private static final byte[] PAYLOAD =
+      String.join("", Collections.nCopies(10_000, "flo")).getBytes(StandardCharsets.UTF_8);
+
+  @Test
+  public void roundTripsFrames() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(bytes);
+    Frames.write(out, Frames.CLOSURE, PAYLOAD, false);
+    Frames.write(out, Frames.RESULT, new byte[0], false);
+
+    final DataInputStream in = input(bytes.toByteArray());
+    final Frame closure = Frames.read(in);
+    assertThat(closure.type, is(Frames.CLOSURE));
+    assertThat(closure.compressed, is(false));
+    assertThat(closure.payload, is(PAYLOAD));
+    final Frame result = Frames.read(in);
+    assertThat(result.type, is(Frames.RESULT));
+    assertThat(result.payload.length, is(0));
+    assertThat(Frames.read(in), is(nullValue()));
+  }
+
+  @Test
+  public void compressesPayload() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Frames.write(new DataOutputStream(bytes), Frames.ERROR, PAYLOAD, true);
+    assertThat(bytes.size(), is(lessThan(PAYLOAD.length / 10)));
+
+    final Frame error = Frames.read(input(bytes.toByteArray()));
+    assertThat(error.type, is(Frames.ERROR));
+    assertThat(error.compressed, is(true));
+    assertThat(error.payload, is(PAYLOAD));
+  }
+
+  @Test(expected = EOFException.class)
+  public void failsOnTruncatedFrame() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Frames.write(new DataOutputStream(bytes), Frames.RESULT, PAYLOAD, false);
+    Frames.read(input(Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1)));
+  }
+
+  private static DataInputStream input(byte[] bytes) {
+    return new DataInputStream(new ByteArrayInputStream(bytes));
+  }
+}
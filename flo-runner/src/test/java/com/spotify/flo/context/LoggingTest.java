@@ -22,12 +22,11 @@ package com.spotify.flo.context;
 
 import static org.mockito.Mockito.verify;
 
-import com.google.common.collect.ImmutableList;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskGraph;
 import com.spotify.flo.TaskId;
-import com.spotify.flo.TaskInfo;
 import java.io.IOException;
 import java.time.Duration;
-import java.util.Collections;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -41,9 +40,10 @@ public class LoggingTest {
   private static final TaskId FOO = TaskId.create("foo");
   private static final TaskId BAR = TaskId.create("bar");
   private static final TaskId BAZ = TaskId.create("baz");
-  private static final TaskInfo TASK_INFO = TaskInfo.create(FOO, ImmutableList.of(
-      TaskInfo.create(BAR, Collections.emptyList()),
-      TaskInfo.create(BAZ, Collections.emptyList())));
+  private static final TaskGraph GRAPH = TaskGraph.of(Task.named("foo").ofType(String.class)
+      .input(() -> Task.named("bar").ofType(String.class).process(() -> "bar"))
+      .input(() -> Task.named("baz").ofType(String.class).process(() -> "baz"))
+      .process((bar, baz) -> bar + baz));
 
   @Mock private Logger logger;
 
@@ -58,7 +58,7 @@ public class LoggingTest {
   public void completeShouldLogSummary() {
     sut.completedValue(BAR, "bar-value", Duration.ofSeconds(3));
     sut.failedValue(BAZ, new IOException("bug!"), Duration.ofSeconds(4));
-    sut.complete(TASK_INFO, Duration.ofSeconds(17));
+    sut.complete(GRAPH, Duration.ofSeconds(17));
 
     verify(logger).info("Total time {}", "00:00:17.000");
     verify(logger).info("Executed {} out of {} tasks:", 2, 3);
@@ -0,0 +1,53 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskGraph;
+import org.junit.Test;
+
+public class PrintUtilsTest {
+
+  @Test
+  public void shouldPrintTreeWithReferences() {
+    final Task<String> bottom = Task.named("Bottom").ofType(String.class).process(() -> "b");
+    final Task<String> left = Task.named("Left").ofType(String.class)
+        .input(() -> bottom)
+        .process(b -> b);
+    final Task<String> right = Task.named("Right").ofType(String.class)
+        .input(() -> bottom)
+        .process(b -> b);
+    final Task<String> top = Task.named("Top").ofType(String.class)
+        .input(() -> left)
+        .input(() -> right)
+        .process((l, r) -> l + r);
+
+    assertThat(PrintUtils.tree(TaskGraph.of(top)), contains(
+        "" + top.id(),
+        "├▸ " + left.id(),
+        "│  └▸ " + bottom.id(),
+        "└▸ " + right.id(),
+        "   └▸ " + bottom.id() + " ⤴"));
+  }
+}
@@ -0,0 +1,123 @@
+/*-
+ * -\-\-
+ * Flo Runner
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.Serialization;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ValueStoreTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final List<String> large = new ArrayList<>(Collections.nCopies(10_000, "flo"));
+
+  private Path directory;
+  private ValueStore store;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = temporaryFolder.getRoot().toPath();
+    store = ValueStore.create(directory, 1_000);
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+  }
+
+  @Test
+  public void storesLargeValuesOnce() throws Exception {
+    store.register(large);
+
+    final byte[] first = store.serialize(Arrays.asList(large, large));
+    final byte[] second = store.serialize(Collections.singletonList(large));
+
+    assertThat(first.length, is(lessThan(1_000)));
+    assertThat(Serialization.deserialize(first), is(Arrays.asList(large, large)));
+    assertThat(Serialization.deserialize(second), is(Collections.singletonList(large)));
+    assertThat(store.segments(), is(1L));
+    assertThat(store.references(), is(2L));
+  }
+
+  @Test
+  public void inlinesSmallValues() throws Exception {
+    final List<String> small = new ArrayList<>(Collections.singletonList("flo"));
+    store.register(small);
+
+    final byte[] closure = store.serialize(Collections.singletonList(small));
+
+    assertThat(Serialization.deserialize(closure), is(Collections.singletonList(small)));
+    assertThat(store.segments(), is(0L));
+    assertThat(store.references(), is(0L));
+  }
+
+  @Test
+  public void decidesOnSimpleValuesByTheirEstimatedSize() throws Exception {
+    final byte[] small = new byte[10];
+    final byte[] big = new byte[10_000];
+    store.register(small);
+    store.register(big);
+
+    final byte[] closure = store.serialize(Arrays.asList(small, big));
+
+    final List<byte[]> copy = Serialization.deserialize(closure);
+    assertThat(copy.get(0).length, is(10));
+    assertThat(copy.get(1).length, is(10_000));
+    assertThat(store.segments(), is(1L));
+    assertThat(store.references(), is(1L));
+  }
+
+  @Test
+  public void storesSerializedValuesRightAway() throws Exception {
+    store.register(large, Serialization.serialize(large));
+    assertThat(store.segments(), is(1L));
+
+    final byte[] closure = store.serialize(Collections.singletonList(large));
+
+    assertThat(Serialization.deserialize(closure), is(Collections.singletonList(large)));
+    assertThat(store.segments(), is(1L));
+  }
+
+  @Test
+  public void closeDeletesFiles() throws Exception {
+    store.register(large);
+    store.serialize(large);
+
+    store.close();
+
+    assertThat(Files.list(directory).count(), is(0L));
+  }
+}
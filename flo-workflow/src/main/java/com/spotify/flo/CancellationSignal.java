@@ -0,0 +1,192 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A signal that tells ongoing evaluation that its result is no longer needed, e.g. because another
+ * task in the same graph has failed. See {@link EvalContext#cancellationSignal()}.
+ *
+ * <p>Work that can be aborted either polls {@link #isCancelled()} or registers a listener with
+ * {@link #onCancel(Runnable)}. A signal is cancelled at most once, and the cause of the first
+ * {@link #cancel(Throwable)} call is kept.
+ */
+public final class CancellationSignal {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CancellationSignal.class);
+
+  private static final CancellationSignal NONE = new CancellationSignal(false);
+
+  private final boolean cancellable;
+
+  private volatile Throwable cause;
+
+  // guarded by this, null once cancelled
+  private Set<Listener> listeners = new LinkedHashSet<>();
+
+  private CancellationSignal(boolean cancellable) {
+    this.cancellable = cancellable;
+  }
+
+  /**
+   * @return A new signal that has not been cancelled
+   */
+  public static CancellationSignal create() {
+    return new CancellationSignal(true);
+  }
+
+  /**
+   * @return A signal that is never cancelled. Calls to {@link #cancel(Throwable)} have no effect.
+   */
+  public static CancellationSignal none() {
+    return NONE;
+  }
+
+  /**
+   * @return true if this signal can be cancelled, false if it is {@link #none()}
+   */
+  public boolean isCancellable() {
+    return cancellable;
+  }
+
+  /**
+   * @return true if this signal has been cancelled
+   */
+  public boolean isCancelled() {
+    return cause != null;
+  }
+
+  /**
+   * @return The cause this signal was cancelled with, or null if it has not been cancelled
+   */
+  public Throwable cause() {
+    return cause;
+  }
+
+  /**
+   * Throw a {@link CancellationException} if this signal has been cancelled.
+   *
+   * @throws CancellationException if this signal has been cancelled, with the cancellation cause
+   */
+  public void throwIfCancelled() {
+    final Throwable cause = this.cause;
+    if (cause != null) {
+      final CancellationException exception = new CancellationException("Evaluation was cancelled");
+      exception.initCause(cause);
+      throw exception;
+    }
+  }
+
+  /**
+   * Cancel this signal and run the registered listeners on the calling thread.
+   *
+   * @param cause  The reason for cancelling, e.g. the failure of a task
+   * @return true if this call cancelled the signal, false if it was already cancelled or is
+   *         {@link #none()}
+   */
+  public boolean cancel(Throwable cause) {
+    Objects.requireNonNull(cause);
+    if (!cancellable) {
+      return false;
+    }
+    synchronized (this) {
+      if (this.cause != null) {
+        return false;
+      }
+      this.cause = cause;
+      // Listeners run while holding the lock, so that no listener runs after it is closed
+      for (Listener listener : listeners) {
+        listener.run();
+      }
+      listeners = null;
+    }
+    return true;
+  }
+
+  /**
+   * Register a listener that is run when this signal is cancelled. If the signal already is
+   * cancelled, the listener is run immediately on the calling thread.
+   *
+   * <p>Listeners should be quick, e.g. interrupt a thread or destroy a process, as closing any
+   * registration blocks until the listeners have run.
+   *
+   * @param listener  The listener to run
+   * @return A registration that unregisters the listener when closed
+   */
+  public Registration onCancel(Runnable listener) {
+    final Listener registration = new Listener(Objects.requireNonNull(listener));
+    if (!cancellable) {
+      return registration;
+    }
+    synchronized (this) {
+      if (listeners != null) {
+        listeners.add(registration);
+        return registration;
+      }
+    }
+    registration.run();
+    return registration;
+  }
+
+  /**
+   * A registered cancellation listener.
+   */
+  public interface Registration extends AutoCloseable {
+
+    /**
+     * Unregister the listener. After this returns, the listener will not be run.
+     */
+    @Override
+    void close();
+  }
+
+  private final class Listener implements Registration {
+
+    private final Runnable runnable;
+
+    private Listener(Runnable runnable) {
+      this.runnable = runnable;
+    }
+
+    private void run() {
+      try {
+        runnable.run();
+      } catch (Throwable t) {
+        LOG.warn("Cancellation listener failed", t);
+      }
+    }
+
+    @Override
+    public void close() {
+      synchronized (CancellationSignal.this) {
+        if (listeners != null) {
+          listeners.remove(this);
+        }
+      }
+    }
+  }
+}
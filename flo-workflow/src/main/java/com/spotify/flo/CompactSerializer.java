@@ -0,0 +1,244 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link Serializer} based on Java serialization that writes class descriptors as a reference
+ * into a fixed dictionary of common classes, or as just the class name for other classes.
+ *
+ * <p>Java serialization writes the full descriptor of every class once per stream, including the
+ * names and types of all its fields. For the small object graphs that flo serializes, like tasks,
+ * task ids and lambdas, the descriptors make up most of the stream.
+ *
+ * <p>Since the field layout is taken from the local classes when reading, a stream can only be
+ * read by the same versions of the classes that wrote it, e.g. by a forked process or a later
+ * stage of the same build. The {@code serialVersionUID} of every class is written along with its
+ * name and checked when reading, like Java serialization does, so that a stream written by an
+ * incompatible version of a class fails with an {@link InvalidClassException} instead of being
+ * read with the wrong field layout. Streams are identified by a header of their own, so
+ * {@link Serialization} can tell them apart from plain Java serialization streams.
+ */
+final class CompactSerializer implements Serializer {
+
+  static final CompactSerializer INSTANCE = new CompactSerializer();
+
+  static final int MAGIC = 0xF10C;
+  private static final int VERSION = 2;
+
+  private static final int CLASS_NAME = 0;
+
+  /**
+   * Classes that are written as an index into this list. Append only, the index is the format.
+   */
+  private static final List<String> DICTIONARY = Arrays.asList(
+      "com.spotify.flo.AutoValue_Task",
+      "com.spotify.flo.Task",
+      "com.spotify.flo.AutoValue_TaskIds",
+      "com.spotify.flo.TaskIds",
+      "com.spotify.flo.Singleton",
+      "com.spotify.flo.BaseRefs",
+      "com.spotify.flo.BuilderUtils",
+      "[Lcom.spotify.flo.Fn;",
+      "java.lang.invoke.SerializedLambda",
+      "[Ljava.lang.Object;",
+      "java.lang.Object",
+      "java.lang.String",
+      "java.lang.Number",
+      "java.lang.Integer",
+      "java.lang.Long",
+      "java.lang.Double",
+      "java.lang.Boolean",
+      "java.lang.Enum",
+      "java.util.ArrayList",
+      "java.util.Arrays$ArrayList",
+      "java.util.Collections$EmptyList",
+      "java.util.Collections$SingletonList",
+      "java.util.Collections$UnmodifiableRandomAccessList",
+      "java.util.Collections$UnmodifiableList",
+      "java.util.Collections$UnmodifiableCollection",
+      "java.util.HashMap",
+      "java.util.LinkedHashMap",
+      "java.util.HashSet",
+      "java.util.LinkedHashSet",
+      "java.lang.Throwable",
+      "java.lang.Exception",
+      "java.lang.RuntimeException",
+      "[Ljava.lang.StackTraceElement;",
+      "java.lang.StackTraceElement");
+
+  private static final Map<String, Integer> INDEX = new HashMap<>();
+
+  private static final Map<String, Class<?>> PRIMITIVES = new HashMap<>();
+
+  static {
+    for (int i = 0; i < DICTIONARY.size(); i++) {
+      INDEX.put(DICTIONARY.get(i), i + 1);
+    }
+    for (Class<?> c : Arrays.asList(boolean.class, byte.class, char.class, short.class,
+        int.class, long.class, float.class, double.class, void.class)) {
+      PRIMITIVES.put(c.getName(), c);
+    }
+  }
+
+  private CompactSerializer() {
+  }
+
+  @Override
+  public void serialize(Object object, OutputStream outputStream) throws SerializationException {
+    try (ObjectOutputStream oos = new CompactObjectOutputStream(outputStream, null)) {
+      oos.writeObject(object);
+    } catch (Throwable t) {
+      throw new SerializationException("Serialization failed", t);
+    }
+  }
+
+  @Override
+  public void serialize(Object object, OutputStream outputStream, UnaryOperator<Object> replacer)
+      throws SerializationException {
+    try (ObjectOutputStream oos = new CompactObjectOutputStream(outputStream, replacer)) {
+      oos.writeObject(object);
+    } catch (Throwable t) {
+      throw new SerializationException("Serialization failed", t);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T deserialize(InputStream inputStream) throws SerializationException {
+    try (ObjectInputStream ois = new CompactObjectInputStream(inputStream)) {
+      return (T) ois.readObject();
+    } catch (Throwable t) {
+      throw new SerializationException("Deserialization failed", t);
+    }
+  }
+
+  private static final class CompactObjectOutputStream extends ObjectOutputStream {
+
+    private final UnaryOperator<Object> replacer;
+
+    private CompactObjectOutputStream(OutputStream out, UnaryOperator<Object> replacer)
+        throws IOException {
+      super(out);
+      this.replacer = replacer;
+      if (replacer != null) {
+        enableReplaceObject(true);
+      }
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      return replacer.apply(obj);
+    }
+
+    @Override
+    protected void writeStreamHeader() throws IOException {
+      writeShort(MAGIC);
+      writeByte(VERSION);
+    }
+
+    @Override
+    protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+      final Integer index = INDEX.get(desc.getName());
+      if (index != null) {
+        writeByte(index);
+      } else {
+        writeByte(CLASS_NAME);
+        writeUTF(desc.getName());
+      }
+      writeLong(desc.getSerialVersionUID());
+    }
+  }
+
+  private static final class CompactObjectInputStream extends ObjectInputStream {
+
+    private CompactObjectInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected void readStreamHeader() throws IOException {
+      final int magic = readUnsignedShort();
+      final int version = readUnsignedByte();
+      if (magic != MAGIC || version != VERSION) {
+        throw new StreamCorruptedException(
+            String.format("invalid compact stream header: %04X%02X", magic, version));
+      }
+    }
+
+    @Override
+    protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+      final int index = readUnsignedByte();
+      final String name;
+      if (index == CLASS_NAME) {
+        name = readUTF();
+      } else if (index <= DICTIONARY.size()) {
+        name = DICTIONARY.get(index - 1);
+      } else {
+        throw new StreamCorruptedException("invalid class reference: " + index);
+      }
+      final long suid = readLong();
+      final ObjectStreamClass desc = ObjectStreamClass.lookupAny(loadClass(name));
+      if (!desc.forClass().isArray() && suid != desc.getSerialVersionUID()) {
+        throw new InvalidClassException(name, "local class incompatible: "
+            + "stream classdesc serialVersionUID = " + suid
+            + ", local class serialVersionUID = " + desc.getSerialVersionUID());
+      }
+      return desc;
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc)
+        throws IOException, ClassNotFoundException {
+      final Class<?> cl = desc.forClass();
+      return cl != null ? cl : super.resolveClass(desc);
+    }
+
+    private static Class<?> loadClass(String name) throws ClassNotFoundException {
+      final Class<?> primitive = PRIMITIVES.get(name);
+      if (primitive != null) {
+        return primitive;
+      }
+      final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+      if (contextClassLoader != null) {
+        try {
+          return Class.forName(name, false, contextClassLoader);
+        } catch (ClassNotFoundException e) {
+          // fall through
+        }
+      }
+      return Class.forName(name, false, CompactSerializer.class.getClassLoader());
+    }
+  }
+}
@@ -25,6 +25,7 @@ import static com.spotify.flo.EvalContextWithTask.withTask;
 import com.spotify.flo.TaskOperator.Listener;
 import com.spotify.flo.context.AsyncContext;
 import com.spotify.flo.context.SyncContext;
+import com.spotify.flo.context.VirtualThreads;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -71,48 +72,12 @@ public interface EvalContext {
    * @param <T>      The type of the task result
    * @return A value of the task result
    */
-  @SuppressWarnings("unchecked")
   default <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
     // Get the process fn input arguments
-    final Value<List<Object>> args = task.args().stream()
-        .map(arg -> arg.get(context))
-        .map(value -> value.map(v -> (Object) v))
-        .collect(Values.toValueList(context));
-
-    return args.flatMap(as -> {
-
-      // Call preRun on task contexts after all args are evaluated
-      task.contexts().forEach(tc -> tc.preRun(task));
-
-      final TaskOperator operator = task.contexts().stream()
-          .filter(c -> c instanceof TaskOperator)
-          .map(c -> (TaskOperator) c)
-          .findAny()
-          .orElse(null);
-
-      final Listener listener = context.listener();
-      final Invokable processFn = task.processFn();
-      final Value<Object> value = context.invokeProcessFn(task.id(), () ->  {
-
-        // Run the process fn
-        // If the task is using an operator, the return type will be the SpecT of the TaskOperator.
-        // Otherwise, the return type will be the T of this task.
-        final Object result = processFn.invoke(as.toArray());
-
-        // Run operator
-        if (operator != null) {
-          return operator.perform(result, listener);
-        } else {
-          return result;
-        }
-      });
-
-      // Let the task contexts know the result
-      value.consume(v -> task.contexts().forEach(tc -> tc.onSuccess(task, (T) v)));
-      value.onFail(t -> task.contexts().forEach(tc -> tc.onFail(task, t)));
-
-      return (Value<T>) value;
-    });
+    final Value<List<Object>> args = Values.allOf(context, TaskEvaluation.args(task, context));
+
+    // Call preRun, invoke the process fn and notify the task contexts after all args are evaluated
+    return args.flatMap(as -> TaskEvaluation.invoke(task, as, context));
   }
 
   /**
@@ -184,6 +149,18 @@ public interface EvalContext {
     return Listener.NOP;
   }
 
+  /**
+   * The signal that tells evaluation in this context that its result is no longer needed.
+   *
+   * <p>The default implementation returns {@link CancellationSignal#none()}, which is never
+   * cancelled. See {@link com.spotify.flo.context.FailFastContext}.
+   *
+   * @return The cancellation signal of this context
+   */
+  default CancellationSignal cancellationSignal() {
+    return CancellationSignal.none();
+  }
+
   /**
    * A wrapped value with additional semantics for how the enclosed value becomes available and
    * how computations on that value are executed.
@@ -313,4 +290,29 @@ public interface EvalContext {
   static EvalContext async(Executor executor) {
     return AsyncContext.create(executor);
   }
+
+  /**
+   * Create an asynchronous {@link EvalContext} that executes all evaluation on a new virtual
+   * thread per evaluation step. See {@link VirtualThreads}.
+   *
+   * <p>This is suited for graphs where tasks block for a long time, as a blocked task does not
+   * hold on to a worker of a fixed size pool.
+   *
+   * @return A new asynchronous evaluation context
+   */
+  static EvalContext virtual() {
+    return virtual(0);
+  }
+
+  /**
+   * Create an asynchronous {@link EvalContext} that executes all evaluation on a new virtual
+   * thread per evaluation step, with at most {@code maxConcurrency} steps running concurrently.
+   * See {@link VirtualThreads}.
+   *
+   * @param maxConcurrency  The max number of concurrently running steps, or 0 for no limit
+   * @return A new asynchronous evaluation context
+   */
+  static EvalContext virtual(int maxConcurrency) {
+    return AsyncContext.create(VirtualThreads.newExecutor(maxConcurrency));
+  }
 }
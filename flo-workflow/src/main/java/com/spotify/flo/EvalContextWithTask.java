@@ -38,6 +38,10 @@ public class EvalContextWithTask extends ForwardingEvalContext {
   }
 
   static EvalContext withTask(EvalContext delegate, Task<?> task) {
+    // Replace rather than nest, so that the chain of delegates does not grow with graph depth
+    if (delegate instanceof EvalContextWithTask) {
+      return new EvalContextWithTask(((EvalContextWithTask) delegate).delegate, task);
+    }
     return new EvalContextWithTask(delegate, task);
   }
 
@@ -0,0 +1,37 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+/**
+ * Implemented by {@link TaskContext}s to declare the max heap size that the process fn of a task
+ * needs when it is forked into a sub-process.
+ *
+ * <p>The forked JVM is started with that max heap size, and a runner that limits the memory of
+ * concurrently forked tasks accounts for it. If a task has several such contexts, the largest
+ * requirement applies.
+ */
+public interface HeapRequirement {
+
+  /**
+   * @return The max heap size in bytes
+   */
+  long heapBytes();
+}
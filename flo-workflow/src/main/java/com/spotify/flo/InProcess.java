@@ -0,0 +1,32 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+/**
+ * A marker for {@link TaskContext}s of tasks that should be evaluated in the process of the
+ * runner, even when tasks are otherwise forked into sub-processes.
+ *
+ * <p>This suits tasks that are too cheap to pay for starting a JVM, like a {@link TaskOperator}
+ * that spends its time waiting for a remote job. The process fn of such tasks must be safe to run
+ * next to other tasks, as it shares the memory and static state of the runner.
+ */
+public interface InProcess {
+}
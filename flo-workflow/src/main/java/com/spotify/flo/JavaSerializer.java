@@ -0,0 +1,85 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.function.UnaryOperator;
+
+/**
+ * A {@link Serializer} using plain {@link ObjectOutputStream} and {@link ObjectInputStream}.
+ */
+final class JavaSerializer implements Serializer {
+
+  static final JavaSerializer INSTANCE = new JavaSerializer();
+
+  private JavaSerializer() {
+  }
+
+  @Override
+  public void serialize(Object object, OutputStream outputStream) throws SerializationException {
+    try (ObjectOutputStream oos = new ObjectOutputStream(outputStream)) {
+      oos.writeObject(object);
+    } catch (Throwable t) {
+      throw new SerializationException("Serialization failed", t);
+    }
+  }
+
+  @Override
+  public void serialize(Object object, OutputStream outputStream, UnaryOperator<Object> replacer)
+      throws SerializationException {
+    try (ObjectOutputStream oos = new ReplacingObjectOutputStream(outputStream, replacer)) {
+      oos.writeObject(object);
+    } catch (Throwable t) {
+      throw new SerializationException("Serialization failed", t);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> T deserialize(InputStream inputStream) throws SerializationException {
+    try (ObjectInputStream ois = new ObjectInputStream(inputStream)) {
+      return (T) ois.readObject();
+    } catch (Throwable t) {
+      throw new SerializationException("Deserialization failed", t);
+    }
+  }
+
+  private static final class ReplacingObjectOutputStream extends ObjectOutputStream {
+
+    private final UnaryOperator<Object> replacer;
+
+    private ReplacingObjectOutputStream(OutputStream out, UnaryOperator<Object> replacer)
+        throws IOException {
+      super(out);
+      this.replacer = replacer;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      return replacer.apply(obj);
+    }
+  }
+}
@@ -23,32 +23,101 @@ package com.spotify.flo;
 import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.WRITE;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectStreamException;
 import java.io.OutputStream;
-import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.function.UnaryOperator;
 
 /**
  * Internal API.
+ *
+ * <p>Objects are serialized with the {@link Serializer} selected by the {@code flo.serializer}
+ * system property or {@link #setSerializer(String)}, or else the first one provided through
+ * {@link ServiceLoader}, or else plain Java serialization. Streams written by the built-in
+ * serializers are recognized when deserializing, regardless of the selected serializer.
  */
 public class Serialization {
 
+  public static final String SERIALIZER_PROPERTY = "flo.serializer";
+
+  private static final String JAVA = "java";
+  private static final String COMPACT = "compact";
+
+  private static final int JAVA_MAGIC = 0xACED;
+
+  // Keep the buffer of a thread for reuse if it did not grow beyond this
+  private static final int MAX_REUSED_BUFFER_SIZE = 1 << 20;
+
+  private static final ThreadLocal<ByteArrayOutputStream> BUFFER = new ThreadLocal<>();
+
+  private static volatile String serializerName;
+  private static volatile Serializer serializer;
+
   static {
-    // Best effort. Hope that ObjectOutputStream has not been loaded yet :pray:
-    System.setProperty("sun.io.serialization.extendedDebugInfo", "true");
+    final String name = System.getProperty(SERIALIZER_PROPERTY);
+    if (name != null) {
+      setSerializer(name);
+    } else {
+      final Iterator<Serializer> provided = ServiceLoader.load(Serializer.class).iterator();
+      if (provided.hasNext()) {
+        serializer = provided.next();
+        serializerName = serializer.getClass().getName();
+      } else {
+        serializer = JavaSerializer.INSTANCE;
+        serializerName = JAVA;
+      }
+    }
   }
 
   private Serialization() {
     throw new UnsupportedOperationException();
   }
 
+  /**
+   * Select the serializer to use.
+   *
+   * @param name {@code java}, {@code compact} or the class name of a {@link Serializer} with a
+   *             public no-arg constructor
+   * @throws IllegalArgumentException if there is no such serializer
+   */
+  public static void setSerializer(String name) {
+    Objects.requireNonNull(name);
+    final Serializer selected;
+    switch (name) {
+      case JAVA:
+        selected = JavaSerializer.INSTANCE;
+        break;
+      case COMPACT:
+        selected = CompactSerializer.INSTANCE;
+        break;
+      default:
+        try {
+          selected = (Serializer) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+          throw new IllegalArgumentException("Unknown serializer: " + name, e);
+        }
+    }
+    serializer = selected;
+    serializerName = name;
+  }
+
+  /**
+   * @return The name of the selected serializer, suitable for {@link #setSerializer(String)}
+   */
+  public static String serializerName() {
+    return serializerName;
+  }
+
   public static void serialize(Object object, Path file) throws SerializationException {
     try (final OutputStream os = Files.newOutputStream(file, WRITE, CREATE_NEW)) {
       serialize(object, os);
@@ -58,17 +127,82 @@ public class Serialization {
   }
 
   public static void serialize(Object object, OutputStream outputStream) throws SerializationException {
-    try (ObjectOutputStream oos = new ObjectOutputStream(outputStream)) {
-      oos.writeObject(object);
-    } catch (Throwable t) {
-      throw new SerializationException("Serialization failed", t);
+    try {
+      serializer.serialize(object, outputStream);
+    } catch (SerializationException e) {
+      throw SerializationDiagnostics.explain(object, e);
+    }
+  }
+
+  private static void serialize(Object object, OutputStream outputStream,
+      UnaryOperator<Object> replacer) throws SerializationException {
+    try {
+      serializer.serialize(object, outputStream, replacer);
+    } catch (SerializationException e) {
+      throw SerializationDiagnostics.explain(object, e);
     }
   }
 
   public static byte[] serialize(Object object) throws SerializationException {
-    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-    serialize(object, baos);
-    return baos.toByteArray();
+    return serialize(object, (UnaryOperator<Object>) null);
+  }
+
+  /**
+   * Serialize an object, writing the replacement returned by {@code replacer} in place of every
+   * object in the graph, if supported by the selected {@link Serializer}. Replacements are written
+   * as is and may in turn resolve to the original object when deserialized.
+   *
+   * @param replacer  The replacement of each object, or the object itself, or null for none
+   */
+  public static byte[] serialize(Object object, UnaryOperator<Object> replacer)
+      throws SerializationException {
+    // Reuse a buffer per thread, unless it is already in use further up the stack
+    ByteArrayOutputStream buffer = BUFFER.get();
+    if (buffer == null) {
+      buffer = new ByteArrayOutputStream();
+    } else {
+      BUFFER.set(null);
+    }
+    try {
+      if (replacer == null) {
+        serialize(object, buffer);
+      } else {
+        serialize(object, buffer, replacer);
+      }
+      return buffer.toByteArray();
+    } finally {
+      if (buffer.size() <= MAX_REUSED_BUFFER_SIZE) {
+        buffer.reset();
+        BUFFER.set(buffer);
+      }
+    }
+  }
+
+  /**
+   * Estimate the serialized size of a value without serializing it, for values of simple types.
+   *
+   * @return The estimated serialized size in bytes, or -1 if the value is not of a simple type
+   */
+  public static long estimatedSize(Object value) {
+    if (value == null || value instanceof Number || value instanceof Boolean
+        || value instanceof Character) {
+      return 16;
+    } else if (value instanceof String) {
+      return ((String) value).length();
+    } else if (value.getClass().isArray() && value.getClass().getComponentType().isPrimitive()) {
+      final long length = Array.getLength(value);
+      final Class<?> component = value.getClass().getComponentType();
+      if (component == byte.class || component == boolean.class) {
+        return length;
+      } else if (component == char.class || component == short.class) {
+        return length * 2;
+      } else if (component == int.class || component == float.class) {
+        return length * 4;
+      } else {
+        return length * 8;
+      }
+    }
+    return -1;
   }
 
   public static <T> T deserialize(Path filePath) throws SerializationException {
@@ -79,26 +213,114 @@ public class Serialization {
     }
   }
 
-  @SuppressWarnings("unchecked")
   public static <T> T deserialize(InputStream inputStream) throws SerializationException {
-    try (ObjectInputStream ois = new ObjectInputStream(inputStream)) {
-      return (T) ois.readObject();
-    } catch (Throwable t) {
-      throw new SerializationException("Deserialization failed", t);
+    final InputStream in = inputStream.markSupported()
+        ? inputStream
+        : new BufferedInputStream(inputStream);
+    final int magic;
+    try {
+      in.mark(2);
+      magic = (in.read() << 8) | in.read();
+      in.reset();
+    } catch (IOException e) {
+      throw new SerializationException("Deserialization failed", e);
+    }
+    switch (magic) {
+      case JAVA_MAGIC:
+        return JavaSerializer.INSTANCE.deserialize(in);
+      case CompactSerializer.MAGIC:
+        return CompactSerializer.INSTANCE.deserialize(in);
+      default:
+        return serializer.deserialize(in);
     }
   }
 
-  @SuppressWarnings("unchecked")
   public static <T> T deserialize(byte[] bytes) throws SerializationException {
     return deserialize(new ByteArrayInputStream(bytes));
   }
 
+  /**
+   * Deserialize an object from the remaining bytes of a buffer, e.g. of a memory-mapped file,
+   * without copying them. The position of the buffer is advanced past the bytes read.
+   */
+  public static <T> T deserialize(ByteBuffer buffer) throws SerializationException {
+    return deserialize(new ByteBufferInputStream(buffer));
+  }
+
+  /**
+   * Validate that an object survives a serialization round trip, subject to the current
+   * {@link SerializationValidation} mode.
+   *
+   * @return The deserialized copy if the object was validated, otherwise the object itself
+   * @throws IllegalArgumentException if the object is not serializable
+   */
   public static <T> T requireSerializable(T o, String name) {
+    if (!SerializationValidation.shouldValidate(o)) {
+      return o;
+    }
+    final long t0 = System.nanoTime();
     try {
       final byte[] serialized = Serialization.serialize(o);
-      return Serialization.deserialize(serialized);
+      final T copy = Serialization.deserialize(serialized);
+      SerializationValidation.validated(o, System.nanoTime() - t0);
+      return copy;
     } catch (SerializationException e) {
+      SerializationValidation.failed(System.nanoTime() - t0);
       throw new IllegalArgumentException(name + " not serializable: " + o, e);
     }
   }
+
+  private static final class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+      buffer.reset();
+    }
+  }
 }
@@ -0,0 +1,303 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import java.io.Externalizable;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+import java.lang.invoke.SerializedLambda;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Explains why an object is not serializable, in the format of the extended debug info of
+ * {@link ObjectOutputStream}.
+ *
+ * <p>The extended debug info of {@link ObjectOutputStream} (enabled by the
+ * {@code sun.io.serialization.extendedDebugInfo} system property) formats a description of every
+ * object it writes, which makes all serialization slow. Instead, when serialization fails, this
+ * walks the object graph the way serialization does and describes the path to the first object
+ * that is not serializable.
+ *
+ * <p>Objects with a custom {@code writeObject} method are approximated by their collection
+ * elements, map entries or non-transient fields. The fields of JDK classes are not accessible by
+ * reflection on newer JDKs, so lambdas are walked through the public API of
+ * {@link SerializedLambda}, and other JDK collections and maps through their elements.
+ */
+final class SerializationDiagnostics {
+
+  private static final boolean EXTENDED_DEBUG_INFO =
+      Boolean.getBoolean("sun.io.serialization.extendedDebugInfo");
+
+  private final Deque<String> trace = new ArrayDeque<>();
+  private final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+
+  private SerializationDiagnostics() {
+  }
+
+  /**
+   * Add debug info to a serialization failure, if it was caused by an object that is not
+   * serializable.
+   *
+   * @param object   The object that failed to serialize
+   * @param failure  The failure
+   * @return A failure with a detailed {@link NotSerializableException} as cause, or the failure
+   */
+  static SerializationException explain(Object object, SerializationException failure) {
+    if (EXTENDED_DEBUG_INFO || !(failure.getCause() instanceof NotSerializableException)) {
+      return failure;
+    }
+    final String explanation;
+    try {
+      explanation = new SerializationDiagnostics().walk(object, true);
+    } catch (RuntimeException | StackOverflowError e) {
+      return failure;
+    }
+    if (explanation == null) {
+      return failure;
+    }
+    final NotSerializableException cause = new NotSerializableException(explanation);
+    cause.setStackTrace(failure.getCause().getStackTrace());
+    return new SerializationException(failure.getMessage(), cause);
+  }
+
+  /**
+   * @return A description of the path to the first object that is not serializable, or null
+   */
+  private String walk(Object obj, boolean root) {
+    obj = replace(obj);
+    if (obj == null || !visited.add(obj)) {
+      return null;
+    }
+    final Class<?> cl = obj.getClass();
+    if (obj instanceof String || obj instanceof Class || obj instanceof ObjectStreamClass
+        || obj instanceof Enum || obj instanceof Externalizable) {
+      return null;
+    }
+    if (cl.isArray()) {
+      return walkArray(obj);
+    }
+    if (!(obj instanceof Serializable)) {
+      final StringBuilder sb = new StringBuilder(cl.getName());
+      for (String frame : trace) {
+        sb.append("\n\t- ").append(frame);
+      }
+      return sb.toString();
+    }
+
+    trace.push((root ? "root " : "") + "object (class \"" + cl.getName() + "\", " + obj + ")");
+    final String explanation = walkObject(obj);
+    trace.pop();
+    return explanation;
+  }
+
+  private String walkArray(Object array) {
+    if (array.getClass().getComponentType().isPrimitive()) {
+      return null;
+    }
+    final int length = Array.getLength(array);
+    trace.push("array (class \"" + array.getClass().getName() + "\", size: " + length + ")");
+    try {
+      for (int i = 0; i < length; i++) {
+        trace.push("element of array (index: " + i + ")");
+        final String explanation = walk(Array.get(array, i), false);
+        trace.pop();
+        if (explanation != null) {
+          return explanation;
+        }
+      }
+      return null;
+    } finally {
+      trace.pop();
+    }
+  }
+
+  private String walkObject(Object obj) {
+    if (obj instanceof SerializedLambda) {
+      return walkCapturedArgs((SerializedLambda) obj);
+    }
+    // Superclass data is written first
+    final List<Class<?>> slots = new ArrayList<>();
+    for (Class<?> c = obj.getClass(); c != null && Serializable.class.isAssignableFrom(c);
+        c = c.getSuperclass()) {
+      slots.add(0, c);
+    }
+    for (Class<?> slot : slots) {
+      final String explanation;
+      if (hasWriteObject(slot)) {
+        trace.push("custom writeObject data (class \"" + slot.getName() + "\")");
+        explanation = walkCustomData(obj, slot);
+      } else {
+        explanation = walkFields(obj, slot);
+      }
+      if (explanation != null) {
+        return explanation;
+      }
+      if (hasWriteObject(slot)) {
+        trace.pop();
+      }
+    }
+    return null;
+  }
+
+  private String walkFields(Object obj, Class<?> slot) {
+    final ObjectStreamClass desc = ObjectStreamClass.lookup(slot);
+    if (desc == null) {
+      return null;
+    }
+    for (ObjectStreamField field : desc.getFields()) {
+      if (field.isPrimitive()) {
+        continue;
+      }
+      final Object value;
+      try {
+        value = fieldValue(obj, slot, field.getName());
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        return walkElements(obj);
+      }
+      trace.push("field (class \"" + slot.getName() + "\", name: \"" + field.getName()
+          + "\", type: \"" + field.getType() + "\")");
+      final String explanation = walk(value, false);
+      trace.pop();
+      if (explanation != null) {
+        return explanation;
+      }
+    }
+    return null;
+  }
+
+  private String walkCustomData(Object obj, Class<?> slot) {
+    if ((obj instanceof Collection || obj instanceof Map) && slot == obj.getClass()) {
+      return walkElements(obj);
+    } else {
+      return walkFields(obj, slot);
+    }
+  }
+
+  /**
+   * Walk the elements of a collection or the entries of a map, or nothing for other objects.
+   */
+  private String walkElements(Object obj) {
+    final Iterator<?> elements;
+    if (obj instanceof Collection) {
+      elements = ((Collection<?>) obj).iterator();
+    } else if (obj instanceof Map) {
+      final List<Object> entries = new ArrayList<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) obj).entrySet()) {
+        entries.add(entry.getKey());
+        entries.add(entry.getValue());
+      }
+      elements = entries.iterator();
+    } else {
+      return null;
+    }
+    while (elements.hasNext()) {
+      final String explanation = walk(elements.next(), false);
+      if (explanation != null) {
+        return explanation;
+      }
+    }
+    return null;
+  }
+
+  private String walkCapturedArgs(SerializedLambda lambda) {
+    final Object[] capturedArgs = new Object[lambda.getCapturedArgCount()];
+    for (int i = 0; i < capturedArgs.length; i++) {
+      capturedArgs[i] = lambda.getCapturedArg(i);
+    }
+    trace.push("field (class \"" + SerializedLambda.class.getName()
+        + "\", name: \"capturedArgs\", type: \"" + Object[].class + "\")");
+    final String explanation = walk(capturedArgs, false);
+    trace.pop();
+    return explanation;
+  }
+
+  private static Object fieldValue(Object obj, Class<?> slot, String name)
+      throws ReflectiveOperationException {
+    final Field field = slot.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(obj);
+  }
+
+  private static boolean hasWriteObject(Class<?> slot) {
+    try {
+      final Method method = slot.getDeclaredMethod("writeObject", ObjectOutputStream.class);
+      return Modifier.isPrivate(method.getModifiers()) && !Modifier.isStatic(method.getModifiers());
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Apply {@code writeReplace} methods like serialization does.
+   */
+  private static Object replace(Object obj) {
+    while (obj instanceof Serializable) {
+      final Method writeReplace = writeReplace(obj.getClass());
+      if (writeReplace == null) {
+        break;
+      }
+      final Object replaced;
+      try {
+        writeReplace.setAccessible(true);
+        replaced = writeReplace.invoke(obj);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        break;
+      }
+      if (replaced == null || replaced.getClass() == obj.getClass()) {
+        return replaced;
+      }
+      obj = replaced;
+    }
+    return obj;
+  }
+
+  private static Method writeReplace(Class<?> cl) {
+    for (Class<?> c = cl; c != null; c = c.getSuperclass()) {
+      try {
+        final Method method = c.getDeclaredMethod("writeReplace");
+        final int modifiers = method.getModifiers();
+        if (Modifier.isStatic(modifiers) || (c != cl && Modifier.isPrivate(modifiers))) {
+          return null;
+        }
+        return method;
+      } catch (NoSuchMethodException e) {
+        // continue with superclass
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,215 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import com.google.auto.value.AutoValue;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Controls how much work {@link Serialization#requireSerializable(Object, String)} does when
+ * validating task closures, contexts and results.
+ *
+ * <p>A full validation is a serialization round trip. Verdicts are cached per lambda class, so
+ * depending on the {@link Mode}, subsequent instances of an already verified lambda class (the
+ * same lambda capturing different values) can skip the round trip. Instances of other classes,
+ * e.g. tasks or task results, can hold arbitrary state and are always validated. Except that
+ * outside of {@link Mode#STRICT}, a task built by a task builder is not validated as a whole,
+ * since the builder validated its process fn, contexts and inputs as they were added, and a round
+ * trip of a task includes its whole upstream graph.
+ *
+ * <p>The initial mode is read from the {@code flo.serialization.validation} system property and
+ * defaults to {@link Mode#STRICT}. The sample rate is read from {@code flo.serialization.sampleRate}.
+ */
+public final class SerializationValidation {
+
+  static final String MODE_PROPERTY = "flo.serialization.validation";
+  static final String SAMPLE_RATE_PROPERTY = "flo.serialization.sampleRate";
+
+  private static final int DEFAULT_SAMPLE_RATE = 100;
+
+  /**
+   * The validation modes.
+   */
+  public enum Mode {
+    /**
+     * Validate every instance.
+     */
+    STRICT,
+
+    /**
+     * Validate every instance until the class has been verified, then every n:th instance.
+     */
+    SAMPLED,
+
+    /**
+     * Validate instances until the class has been verified, e.g. once per lambda class.
+     */
+    FIRST_PER_CLASS,
+
+    /**
+     * Do not validate.
+     */
+    OFF;
+
+    /**
+     * Parses a mode name, ignoring case and treating dashes as underscores.
+     *
+     * @param name The name of the mode, e.g. "first-per-class"
+     * @return The parsed mode
+     * @throws IllegalArgumentException if the name is not a known mode
+     */
+    public static Mode parse(String name) {
+      return valueOf(name.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+    }
+  }
+
+  private static final ConcurrentMap<Class<?>, AtomicLong> verified = new ConcurrentHashMap<>();
+
+  private static final LongAdder validations = new LongAdder();
+  private static final LongAdder skipped = new LongAdder();
+  private static final LongAdder nanos = new LongAdder();
+
+  private static volatile Mode mode = Mode.parse(System.getProperty(MODE_PROPERTY, "strict"));
+  private static volatile int sampleRate =
+      Integer.getInteger(SAMPLE_RATE_PROPERTY, DEFAULT_SAMPLE_RATE);
+
+  private SerializationValidation() {
+    throw new UnsupportedOperationException();
+  }
+
+  public static Mode mode() {
+    return mode;
+  }
+
+  /**
+   * Set the validation mode. This also clears all cached class verdicts.
+   *
+   * @param mode The mode to use from now on
+   */
+  public static void setMode(Mode mode) {
+    SerializationValidation.mode = Objects.requireNonNull(mode);
+    verified.clear();
+  }
+
+  /**
+   * Set how often instances of an already verified class are validated in {@link Mode#SAMPLED}.
+   *
+   * @param sampleRate Validate one out of this many instances
+   */
+  public static void setSampleRate(int sampleRate) {
+    if (sampleRate < 1) {
+      throw new IllegalArgumentException("sampleRate must be positive");
+    }
+    SerializationValidation.sampleRate = sampleRate;
+  }
+
+  /**
+   * @return A snapshot of the validation counters
+   */
+  public static Stats stats() {
+    return Stats.create(validations.sum(), skipped.sum(), Duration.ofNanos(nanos.sum()));
+  }
+
+  /**
+   * @return Whether objects composed of already validated components are validated as well,
+   *         counting them as skipped if not
+   */
+  static boolean validatesComposites() {
+    if (mode == Mode.STRICT) {
+      return true;
+    }
+    skipped.increment();
+    return false;
+  }
+
+  static boolean shouldValidate(Object o) {
+    final Mode mode = SerializationValidation.mode;
+    if (mode == Mode.STRICT || o == null) {
+      return true;
+    }
+    if (mode == Mode.OFF) {
+      skipped.increment();
+      return false;
+    }
+    final AtomicLong count = isCached(o.getClass()) ? verified.get(o.getClass()) : null;
+    if (count == null) {
+      return true;
+    }
+    if (mode == Mode.SAMPLED && count.getAndIncrement() % sampleRate == 0) {
+      return true;
+    }
+    skipped.increment();
+    return false;
+  }
+
+  static void validated(Object o, long elapsedNanos) {
+    validations.increment();
+    nanos.add(elapsedNanos);
+    if (o != null && isCached(o.getClass())) {
+      // The instance that verified the class counts as the first sample
+      verified.putIfAbsent(o.getClass(), new AtomicLong(1));
+    }
+  }
+
+  /**
+   * Only lambda classes have verdicts cached, as their instances differ in captured values only.
+   */
+  private static boolean isCached(Class<?> cls) {
+    return cls.isSynthetic() || cls.getName().contains("$$Lambda");
+  }
+
+  static void failed(long elapsedNanos) {
+    validations.increment();
+    nanos.add(elapsedNanos);
+  }
+
+  /**
+   * Counters for the validations done since the JVM started.
+   */
+  @AutoValue
+  public abstract static class Stats {
+
+    /**
+     * @return The number of serialization round trips performed
+     */
+    public abstract long validated();
+
+    /**
+     * @return The number of validations skipped due to cached verdicts or {@link Mode#OFF}
+     */
+    public abstract long skipped();
+
+    /**
+     * @return The total time spent in serialization round trips
+     */
+    public abstract Duration time();
+
+    static Stats create(long validated, long skipped, Duration time) {
+      return new AutoValue_SerializationValidation_Stats(validated, skipped, time);
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.UnaryOperator;
+
+/**
+ * A serialization format used by {@link Serialization}.
+ *
+ * <p>Implementations can be selected by class name with the {@code flo.serializer} system
+ * property or {@link Serialization#setSerializer(String)}, or provided through
+ * {@link java.util.ServiceLoader}. The built-in formats are {@code java}, plain Java serialization,
+ * which is the default, and {@code compact}, which writes class descriptors as short references.
+ *
+ * <p>Implementations must close the stream they are given and wrap any failure in a
+ * {@link SerializationException}.
+ */
+public interface Serializer {
+
+  /**
+   * Serialize an object to a stream.
+   *
+   * @param object        The object to serialize
+   * @param outputStream  The stream to write to, closed when done
+   * @throws SerializationException if the object could not be serialized
+   */
+  void serialize(Object object, OutputStream outputStream) throws SerializationException;
+
+  /**
+   * Serialize an object to a stream, writing the replacement returned by {@code replacer} in place
+   * of every object in the graph. The replacer returns objects that should be written as is.
+   *
+   * <p>The default implementation does not support replacement and writes the graph as is.
+   *
+   * @param object        The object to serialize
+   * @param outputStream  The stream to write to, closed when done
+   * @param replacer      The replacement of each object, or the object itself
+   * @throws SerializationException if the object could not be serialized
+   */
+  default void serialize(Object object, OutputStream outputStream,
+      UnaryOperator<Object> replacer) throws SerializationException {
+    serialize(object, outputStream);
+  }
+
+  /**
+   * Deserialize an object from a stream.
+   *
+   * @param inputStream  The stream to read from, closed when done
+   * @param <T>          The type of the object
+   * @return The deserialized object
+   * @throws SerializationException if the object could not be deserialized
+   */
+  <T> T deserialize(InputStream inputStream) throws SerializationException;
+}
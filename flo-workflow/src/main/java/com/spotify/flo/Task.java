@@ -77,6 +77,24 @@ public abstract class Task<T> implements Serializable {
       TaskId taskId,
       Invokable processFn,
       List<ProcessFnArg> args) {
+    return create(inputs, contexts, type, taskId, processFn, args, false);
+  }
+
+  /**
+   * @param componentsValidated Whether the inputs, contexts and process fn of the task have been
+   *                            validated by {@link Serialization#requireSerializable} already, in
+   *                            which case the task as a whole is only validated in
+   *                            {@link SerializationValidation.Mode#STRICT} mode. A round trip of
+   *                            a task includes its whole upstream graph.
+   */
+  static <T> Task<T> create(
+      Fn<List<Task<?>>> inputs,
+      List<TaskContext<?, ? super T>> contexts,
+      Class<T> type,
+      TaskId taskId,
+      Invokable processFn,
+      List<ProcessFnArg> args,
+      boolean componentsValidated) {
     if (contexts.stream().filter(c -> c instanceof TaskOutput).count() > 1) {
       throw new IllegalArgumentException("A task can have at most one TaskOutput");
     }
@@ -84,6 +102,9 @@ public abstract class Task<T> implements Serializable {
       throw new IllegalArgumentException("A task can have at most one TaskOperator");
     }
     final AutoValue_Task<T> task = new AutoValue_Task<>(taskId, type, inputs, contexts, processFn, args);
+    if (componentsValidated && !SerializationValidation.validatesComposites()) {
+      return task;
+    }
     return Serialization.requireSerializable(task, "task");
   }
 
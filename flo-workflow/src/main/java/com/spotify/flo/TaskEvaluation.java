@@ -0,0 +1,129 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import com.spotify.flo.EvalContext.Value;
+import com.spotify.flo.TaskOperator.Listener;
+import com.spotify.flo.context.Blocking;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The steps of evaluating a single {@link Task}, as performed by
+ * {@link EvalContext#evaluateInternal(Task, EvalContext)}.
+ *
+ * <p>This is intended to be used by {@link EvalContext} implementations that schedule tasks
+ * themselves but need to keep the {@link TaskContext} and {@link TaskOperator} semantics of the
+ * default evaluation.
+ */
+public final class TaskEvaluation {
+
+  private TaskEvaluation() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Get the values of the process fn arguments of a task, in order. Input tasks are evaluated
+   * through {@link EvalContext#evaluate(Task)} of the given context.
+   *
+   * @param task     The task
+   * @param context  The context to evaluate the arguments in
+   * @return The argument values
+   */
+  public static List<Value<?>> args(Task<?> task, EvalContext context) {
+    final List<ProcessFnArg> processFnArgs = task.args();
+    final List<Value<?>> argValues = new ArrayList<>(processFnArgs.size());
+    for (ProcessFnArg arg : processFnArgs) {
+      argValues.add(arg.get(context));
+    }
+    return argValues;
+  }
+
+  /**
+   * Invoke the process fn of a task with resolved arguments.
+   *
+   * <p>Calls {@link TaskContext#preRun(Task)} on the task contexts, invokes the process fn through
+   * {@link EvalContext#invokeProcessFn(TaskId, Fn)}, runs the {@link TaskOperator} of the task, if
+   * any, and lets the task contexts know the result.
+   *
+   * @param task     The task
+   * @param args     The resolved process fn arguments
+   * @param context  The context to invoke the process fn in
+   * @param <T>      The type of the task result
+   * @return The (deferred) value of the task result
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Value<T> invoke(Task<T> task, List<Object> args, EvalContext context) {
+    // Call preRun on task contexts after all args are evaluated
+    task.contexts().forEach(tc -> tc.preRun(task));
+
+    final TaskOperator operator = task.contexts().stream()
+        .filter(c -> c instanceof TaskOperator)
+        .map(c -> (TaskOperator) c)
+        .findAny()
+        .orElse(null);
+
+    final Listener listener = context.listener();
+    final Invokable processFn = task.processFn();
+    final Value<Object> value = context.invokeProcessFn(task.id(), () ->  {
+
+      // Run the process fn
+      // If the task is using an operator, the return type will be the SpecT of the TaskOperator.
+      // Otherwise, the return type will be the T of this task.
+      final Object result = processFn.invoke(args.toArray());
+
+      // Run operator, which typically blocks while waiting for an external job
+      if (operator != null) {
+        return Blocking.get(() -> operator.perform(result, listener));
+      } else {
+        return result;
+      }
+    });
+
+    // Let the task contexts know the result
+    value.consume(v -> task.contexts().forEach(tc -> tc.onSuccess(task, (T) v)));
+    value.onFail(t -> task.contexts().forEach(tc -> tc.onFail(task, t)));
+
+    return (Value<T>) value;
+  }
+
+  /**
+   * Create a placeholder of a task that is evaluated elsewhere, e.g. an input of a task that is
+   * loaded on its own. The placeholder has the id and type of the task, but no inputs, and its
+   * process fn fails.
+   *
+   * @param id    The id of the task
+   * @param type  The type of the task result
+   * @param <T>   The type of the task result
+   * @return A task that stands in for the task
+   */
+  public static <T> Task<T> placeholder(TaskId id, Class<T> type) {
+    return Task.create(
+        Collections::emptyList, Collections.emptyList(),
+        type,
+        id,
+        a -> {
+          throw new IllegalStateException("Placeholder of " + id + " can not be invoked");
+        },
+        Collections.emptyList());
+  }
+}
@@ -0,0 +1,272 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, indexed execution plan of a {@link Task} graph.
+ *
+ * <p>The graph is materialized once by calling {@link Task#inputs()} exactly once for every
+ * distinct {@link TaskId}. Nodes are identified by int indices, with the root task at index
+ * {@code 0}. Edges are stored in compressed sparse row form, so traversals do not allocate.
+ *
+ * <p>The inputs of a node are kept in declaration order, including duplicates, which mirrors how
+ * the task requests them during evaluation. The outputs (consumers) of a node are distinct.
+ *
+ * <p>Construction is iterative, so arbitrarily deep graphs can be planned without exhausting the
+ * stack.
+ */
+public final class TaskGraph {
+
+  private final Task<?>[] tasks;
+  private final Map<TaskId, Integer> index;
+
+  private final int[] inputOffsets;
+  private final int[] inputs;
+  private final int[] outputOffsets;
+  private final int[] outputs;
+  private final int[] inDegree;
+  private final int[] topologicalOrder;
+
+  private TaskGraph(
+      Task<?>[] tasks,
+      Map<TaskId, Integer> index,
+      int[] inputOffsets,
+      int[] inputs,
+      int[] outputOffsets,
+      int[] outputs,
+      int[] inDegree,
+      int[] topologicalOrder) {
+    this.tasks = tasks;
+    this.index = index;
+    this.inputOffsets = inputOffsets;
+    this.inputs = inputs;
+    this.outputOffsets = outputOffsets;
+    this.outputs = outputs;
+    this.inDegree = inDegree;
+    this.topologicalOrder = topologicalOrder;
+  }
+
+  /**
+   * Plan the graph rooted at a task.
+   *
+   * @param root The root task
+   * @return The plan for the root task and all its transitive inputs
+   */
+  public static TaskGraph of(Task<?> root) {
+    final List<Task<?>> tasks = new ArrayList<>();
+    final List<int[]> nodeInputs = new ArrayList<>();
+    final Map<TaskId, Integer> index = new HashMap<>();
+    final Deque<Integer> expand = new ArrayDeque<>();
+
+    tasks.add(root);
+    nodeInputs.add(null);
+    index.put(root.id(), 0);
+    expand.push(0);
+
+    int edgeCount = 0;
+    while (!expand.isEmpty()) {
+      final int node = expand.pop();
+      final List<Task<?>> upstreams = tasks.get(node).inputs();
+      final int[] in = new int[upstreams.size()];
+      for (int i = 0; i < in.length; i++) {
+        final Task<?> upstream = upstreams.get(i);
+        Integer upstreamNode = index.get(upstream.id());
+        if (upstreamNode == null) {
+          upstreamNode = tasks.size();
+          tasks.add(upstream);
+          nodeInputs.add(null);
+          index.put(upstream.id(), upstreamNode);
+          expand.push(upstreamNode);
+        }
+        in[i] = upstreamNode;
+      }
+      nodeInputs.set(node, in);
+      edgeCount += in.length;
+    }
+
+    final int n = tasks.size();
+
+    // Inputs in declaration order
+    final int[] inputOffsets = new int[n + 1];
+    final int[] inputs = new int[edgeCount];
+    for (int node = 0; node < n; node++) {
+      final int[] in = nodeInputs.get(node);
+      inputOffsets[node + 1] = inputOffsets[node] + in.length;
+      System.arraycopy(in, 0, inputs, inputOffsets[node], in.length);
+    }
+
+    // Distinct inputs per node give the in-degree and the reverse (output) edges
+    final int[] inDegree = new int[n];
+    final int[] outDegree = new int[n];
+    final int[] lastSeen = new int[n];
+    Arrays.fill(lastSeen, -1);
+    for (int node = 0; node < n; node++) {
+      for (int e = inputOffsets[node]; e < inputOffsets[node + 1]; e++) {
+        final int upstream = inputs[e];
+        if (lastSeen[upstream] != node) {
+          lastSeen[upstream] = node;
+          inDegree[node]++;
+          outDegree[upstream]++;
+        }
+      }
+    }
+
+    final int[] outputOffsets = new int[n + 1];
+    for (int node = 0; node < n; node++) {
+      outputOffsets[node + 1] = outputOffsets[node] + outDegree[node];
+    }
+    final int[] outputs = new int[outputOffsets[n]];
+    final int[] cursor = Arrays.copyOf(outputOffsets, n);
+    Arrays.fill(lastSeen, -1);
+    for (int node = 0; node < n; node++) {
+      for (int e = inputOffsets[node]; e < inputOffsets[node + 1]; e++) {
+        final int upstream = inputs[e];
+        if (lastSeen[upstream] != node) {
+          lastSeen[upstream] = node;
+          outputs[cursor[upstream]++] = node;
+        }
+      }
+    }
+
+    // Kahn's algorithm, upstreams first. Nodes on cycles are left out.
+    final int[] remaining = Arrays.copyOf(inDegree, n);
+    final int[] order = new int[n];
+    int head = 0;
+    int tail = 0;
+    for (int node = 0; node < n; node++) {
+      if (remaining[node] == 0) {
+        order[tail++] = node;
+      }
+    }
+    while (head < tail) {
+      final int node = order[head++];
+      for (int e = outputOffsets[node]; e < outputOffsets[node + 1]; e++) {
+        if (--remaining[outputs[e]] == 0) {
+          order[tail++] = outputs[e];
+        }
+      }
+    }
+
+    return new TaskGraph(
+        tasks.toArray(new Task<?>[0]), index,
+        inputOffsets, inputs, outputOffsets, outputs, inDegree,
+        Arrays.copyOf(order, tail));
+  }
+
+  /**
+   * @return The number of distinct tasks in the graph
+   */
+  public int size() {
+    return tasks.length;
+  }
+
+  /**
+   * @return The node index of the root task
+   */
+  public int root() {
+    return 0;
+  }
+
+  public Task<?> task(int node) {
+    return tasks[node];
+  }
+
+  public TaskId id(int node) {
+    return tasks[node].id();
+  }
+
+  /**
+   * @param id A task id
+   * @return The node index of the task, or {@code -1} if it is not part of the graph
+   */
+  public int indexOf(TaskId id) {
+    final Integer node = index.get(id);
+    return node == null ? -1 : node;
+  }
+
+  /**
+   * @return The number of declared inputs of a node, including duplicates
+   */
+  public int inputCount(int node) {
+    return inputOffsets[node + 1] - inputOffsets[node];
+  }
+
+  /**
+   * @return The node index of the i:th declared input of a node
+   */
+  public int input(int node, int i) {
+    return inputs[inputOffsets[node] + i];
+  }
+
+  /**
+   * @return The number of distinct consumers of a node
+   */
+  public int outputCount(int node) {
+    return outputOffsets[node + 1] - outputOffsets[node];
+  }
+
+  /**
+   * @return The node index of the i:th distinct consumer of a node
+   */
+  public int output(int node, int i) {
+    return outputs[outputOffsets[node] + i];
+  }
+
+  /**
+   * @return The number of distinct inputs of a node
+   */
+  public int inDegree(int node) {
+    return inDegree[node];
+  }
+
+  /**
+   * @return The number of distinct consumers of a node
+   */
+  public int outDegree(int node) {
+    return outputCount(node);
+  }
+
+  /**
+   * A topological order of the nodes, where every node comes after all of its inputs.
+   *
+   * <p>If the graph contains cycles, the nodes that are on or downstream of a cycle are left out.
+   *
+   * @return The node indices in topological order
+   */
+  public int[] topologicalOrder() {
+    return topologicalOrder.clone();
+  }
+
+  /**
+   * @return true if the graph contains no dependency cycles
+   */
+  public boolean isAcyclic() {
+    return topologicalOrder.length == tasks.length;
+  }
+}
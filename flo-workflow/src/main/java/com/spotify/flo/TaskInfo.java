@@ -23,7 +23,10 @@ package com.spotify.flo;
 import static java.util.stream.Collectors.toList;
 
 import com.google.auto.value.AutoValue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -51,7 +54,43 @@ public abstract class TaskInfo {
   }
 
   public static TaskInfo ofTask(Task<?> task) {
-    return ofTask(task, new HashSet<>());
+    return ofGraph(TaskGraph.of(task));
+  }
+
+  /**
+   * Create a {@link TaskInfo} tree of a planned graph. Tasks that have already been visited in a
+   * depth first traversal are represented by {@link #ref(TaskId)}s.
+   *
+   * <p>The tree is built iteratively, so deep graphs do not exhaust the stack.
+   *
+   * @param graph The graph to describe
+   * @return A task info tree for the root of the graph
+   */
+  public static TaskInfo ofGraph(TaskGraph graph) {
+    final boolean[] visited = new boolean[graph.size()];
+    final Deque<Frame> stack = new ArrayDeque<>();
+    visited[graph.root()] = true;
+    stack.push(new Frame(graph.root()));
+
+    while (true) {
+      final Frame frame = stack.peek();
+      if (frame.cursor < graph.inputCount(frame.node)) {
+        final int input = graph.input(frame.node, frame.cursor++);
+        if (visited[input]) {
+          frame.upstreams.add(TaskInfo.ref(graph.id(input)));
+        } else {
+          visited[input] = true;
+          stack.push(new Frame(input));
+        }
+      } else {
+        stack.pop();
+        final TaskInfo taskInfo = TaskInfo.create(graph.id(frame.node), frame.upstreams);
+        if (stack.isEmpty()) {
+          return taskInfo;
+        }
+        stack.peek().upstreams.add(taskInfo);
+      }
+    }
   }
 
   public static TaskInfo ofTask(Task<?> task, Set<TaskId> visits) {
@@ -69,4 +108,15 @@ public abstract class TaskInfo {
 
     return TaskInfo.create(id, upstreams);
   }
+
+  private static final class Frame {
+
+    private final int node;
+    private final List<TaskInfo> upstreams = new ArrayList<>();
+    private int cursor;
+
+    private Frame(int node) {
+      this.node = node;
+    }
+  }
 }
@@ -21,7 +21,6 @@
 package com.spotify.flo;
 
 import com.spotify.flo.EvalContext.Value;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.function.Function;
@@ -47,13 +46,6 @@ final class ValueFold<T> implements Function<List<Value<T>>, Value<List<T>>> {
 
   @Override
   public Value<List<T>> apply(List<Value<T>> list) {
-    Value<List<T>> values = evalContext.immediateValue(new ArrayList<>());
-    for (Value<T> tValue : list) {
-      values = Values.mapBoth(evalContext, values, tValue, (l, t) -> {
-        l.add(t);
-        return l;
-      });
-    }
-    return values;
+    return Values.allOf(evalContext, list);
   }
 }
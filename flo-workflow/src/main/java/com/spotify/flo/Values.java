@@ -20,9 +20,12 @@
 
 package com.spotify.flo;
 
+import com.spotify.flo.EvalContext.Promise;
 import com.spotify.flo.EvalContext.Value;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.stream.Collector;
@@ -45,6 +48,9 @@ public final class Values {
    * {@code first} will be propagated into the returned value, having the exception from
    * {@code second} added as a suppressed exception to it.
    *
+   * <p>If the {@link EvalContext#cancellationSignal()} of the context is cancellable, the returned
+   * value instead fails as soon as either input fails, without waiting for the other input.
+   *
    * @param context The context which values are processed in
    * @param first   The first input value
    * @param second  The second input value
@@ -54,11 +60,17 @@ public final class Values {
    * @param <V>     The type of the return value
    * @return A value that completes only when both inputs have completed
    */
+  @SuppressWarnings("unchecked")
   public static <T, U, V> Value<V> mapBoth(
       EvalContext context,
       Value<T> first,
       Value<U> second,
       BiFunction<? super T, ? super U, ? extends V> fn) {
+    if (context.cancellationSignal().isCancellable()) {
+      return allOf(context, Arrays.<Value<?>>asList(first, second))
+          .map(both -> fn.apply((T) both.get(0), (U) both.get(1)));
+    }
+
     EvalContext.Promise<V> promise = context.promise();
 
     BiConsumer<T, Throwable> firstComplete = (t, firstThrowable) -> {
@@ -85,11 +97,97 @@ public final class Values {
     return promise.value();
   }
 
+  /**
+   * Joins a {@link List} of {@link Value}s into a {@link Value} of a {@link List} of the enclosed
+   * values, in the same order.
+   *
+   * <p>The returned {@link Value} will not complete until all input values have completed either
+   * successfully or with an exception. If any inputs fail, the exception from the first failed
+   * input in list order will be propagated into the returned value, having the exceptions from
+   * the other failed inputs added as suppressed exceptions to it.
+   *
+   * <p>The join completes a single promise from an atomic countdown, so the cost is linear in the
+   * number of inputs regardless of the order in which they complete.
+   *
+   * <p>If the {@link EvalContext#cancellationSignal()} of the context is cancellable, the returned
+   * value instead fails with the exception of the first input to fail, as soon as it fails.
+   *
+   * @param context The context which values are processed in
+   * @param values  The input values
+   * @param <T>     The inner type of the values
+   * @return A value that completes only when all inputs have completed
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> Value<List<T>> allOf(
+      EvalContext context,
+      List<? extends Value<? extends T>> values) {
+    final int n = values.size();
+    if (n == 0) {
+      return context.immediateValue(new ArrayList<>());
+    }
+
+    final Promise<List<T>> promise = context.promise();
+    final Object[] results = new Object[n];
+    final Throwable[] failures = new Throwable[n];
+    final AtomicInteger remaining = new AtomicInteger(n);
+    final boolean failFast = context.cancellationSignal().isCancellable();
+
+    final Runnable complete = () -> {
+      Throwable failure = null;
+      for (Throwable t : failures) {
+        if (t == null) {
+          continue;
+        }
+        if (failure == null) {
+          failure = t;
+        } else if (t != failure) {
+          failure.addSuppressed(t);
+        }
+      }
+      if (failure != null) {
+        promise.fail(failure);
+      } else {
+        final List<T> list = new ArrayList<>(n);
+        for (Object result : results) {
+          list.add((T) result);
+        }
+        promise.set(list);
+      }
+    };
+
+    for (int i = 0; i < n; i++) {
+      final int index = i;
+      final Value<? extends T> value = values.get(i);
+      value.consume(v -> {
+        results[index] = v;
+        if (remaining.decrementAndGet() == 0) {
+          complete.run();
+        }
+      });
+      value.onFail(t -> {
+        if (failFast) {
+          // Stop counting down, so that no other input can complete the promise
+          if (remaining.getAndSet(-1) > 0) {
+            promise.fail(t);
+          }
+          return;
+        }
+        failures[index] = t;
+        if (remaining.decrementAndGet() == 0) {
+          complete.run();
+        }
+      });
+    }
+
+    return promise.value();
+  }
+
   /**
    * A {@link Collector} that collects a {@link Stream} of {@link Value}s into a {@link Value}
    * of a {@link List}.
    *
-   * <p>The semantics of joining {@link Value}s is decided by this {@link EvalContext}.
+   * <p>The semantics of joining {@link Value}s is decided by this {@link EvalContext}. See
+   * {@link #allOf(EvalContext, List)}.
    *
    * @param context The context which values are processed in
    * @param <T>     The inner type of the values
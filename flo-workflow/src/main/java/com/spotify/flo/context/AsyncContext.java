@@ -38,13 +38,30 @@ import java.util.concurrent.Executor;
 public class AsyncContext implements EvalContext {
 
   private final Executor executor;
+  private final boolean inlineContinuations;
 
-  private AsyncContext(Executor executor) {
+  private AsyncContext(Executor executor, boolean inlineContinuations) {
     this.executor = Context.currentContextExecutor(Objects.requireNonNull(executor));
+    this.inlineContinuations = inlineContinuations;
   }
 
   public static EvalContext create(Executor executor) {
-    return new AsyncContext(executor);
+    return new AsyncContext(executor, false);
+  }
+
+  /**
+   * Create an {@link AsyncContext} that only dispatches task evaluation and {@link #value(Fn)}
+   * computations, such as process fn invocations, to the executor. Continuations of values, like
+   * {@code map}, {@code flatMap}, {@code consume} and {@code onFail}, run on the thread that
+   * completes the value.
+   *
+   * <p>Continuations should be cheap, as they occupy the thread that completed the value.
+   *
+   * @param executor  The executor to run evaluations on
+   * @return A new asynchronous evaluation context
+   */
+  public static EvalContext createInline(Executor executor) {
+    return new AsyncContext(executor, true);
   }
 
   @Override
@@ -60,18 +77,20 @@ public class AsyncContext implements EvalContext {
 
   @Override
   public final <T> Value<T> value(Fn<T> t) {
-    return new FuturePromise<>(this, executor, CompletableFuture.supplyAsync(t, executor))
+    return new FuturePromise<>(
+        this, executor, inlineContinuations, CompletableFuture.supplyAsync(t, executor))
         .value();
   }
 
   @Override
   public final <T> Value<T> immediateValue(T t) {
-    return new FuturePromise<>(this, executor, CompletableFuture.completedFuture(t))
+    return new FuturePromise<>(
+        this, executor, inlineContinuations, CompletableFuture.completedFuture(t))
         .value();
   }
 
   @Override
   public <T> Promise<T> promise() {
-    return new FuturePromise<>(this, executor, new CompletableFuture<>());
+    return new FuturePromise<>(this, executor, inlineContinuations, new CompletableFuture<>());
   }
 }
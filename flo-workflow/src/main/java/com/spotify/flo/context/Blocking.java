@@ -0,0 +1,103 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.spotify.flo.Fn;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+
+/**
+ * Utilities for running blocking calls as a {@link ManagedBlocker}.
+ *
+ * <p>When called from a {@link ForkJoinPool} worker, the pool is told that the worker is about to
+ * block, so that it can activate a spare worker to keep its parallelism. When called from any
+ * other thread, the call simply runs.
+ */
+public final class Blocking {
+
+  private Blocking() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * A call that might block and can be interrupted.
+   */
+  @FunctionalInterface
+  public interface Call<T> {
+
+    T call() throws InterruptedException;
+  }
+
+  /**
+   * Run a blocking call.
+   *
+   * @param call  The call
+   * @param <T>   The type of the result
+   * @return The result of the call
+   * @throws InterruptedException if the call was interrupted
+   */
+  public static <T> T call(Call<T> call) throws InterruptedException {
+    final Blocker<T> blocker = new Blocker<>(call);
+    ForkJoinPool.managedBlock(blocker);
+    return blocker.result;
+  }
+
+  /**
+   * Run a blocking function.
+   *
+   * @param fn   The function
+   * @param <T>  The type of the result
+   * @return The result of the function
+   */
+  public static <T> T get(Fn<T> fn) {
+    try {
+      return call(fn::get);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static final class Blocker<T> implements ManagedBlocker {
+
+    private final Call<T> call;
+
+    private boolean done;
+    private T result;
+
+    private Blocker(Call<T> call) {
+      this.call = Objects.requireNonNull(call);
+    }
+
+    @Override
+    public boolean block() throws InterruptedException {
+      result = call.call();
+      done = true;
+      return true;
+    }
+
+    @Override
+    public boolean isReleasable() {
+      return done;
+    }
+  }
+}
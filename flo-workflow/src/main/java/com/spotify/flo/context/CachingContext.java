@@ -0,0 +1,368 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.auto.value.AutoValue;
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationException;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskGraph;
+import com.spotify.flo.TaskId;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A flo {@link EvalContext} that caches the results of task evaluations in a local directory,
+ * so that later runs can skip evaluating tasks whose result is already known.
+ *
+ * <p>A result is stored under a cache key derived from the {@link TaskId} of the task, the cache
+ * keys of all its inputs and a user supplied code version. A task is thus only served from the
+ * cache if neither it nor anything upstream of it has changed, as far as task ids can tell. The
+ * code version should be changed when process functions change without their task ids changing.
+ *
+ * <p>On a cache hit, the task and its inputs are not evaluated at all. Tasks that are evaluated
+ * for their side effects should not be evaluated in a caching context. Tasks with a
+ * {@link com.spotify.flo.TaskContext}, such as a {@link com.spotify.flo.TaskOperator} that runs a
+ * remote job or a {@link com.spotify.flo.TaskOutput}, are always evaluated and never cached, as
+ * the hooks of their contexts would not run on a cache hit.
+ *
+ * <p>Results are written with {@link Serialization} to a temporary file that is atomically moved
+ * into place, so concurrent runs sharing a directory never see partially written entries. Results
+ * that are not serializable are not cached. When the entries exceed the max size of the cache,
+ * the least recently used ones are deleted.
+ */
+public class CachingContext extends ForwardingEvalContext {
+
+  private static final Logger LOG = LoggerFactory.getLogger(CachingContext.class);
+
+  private static final String SUFFIX = ".ser";
+
+  private final Path directory;
+  private final long maxBytes;
+  private final String version;
+  private final TaskGraph graph;
+
+  private final ConcurrentMap<TaskId, String> keys = new ConcurrentHashMap<>();
+  private final AtomicLong cacheBytes = new AtomicLong(-1);
+  private final Object evictionLock = new Object();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder writes = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private CachingContext(EvalContext baseContext, Path directory, long maxBytes, String version,
+      TaskGraph graph) {
+    super(baseContext);
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes must be >= 0, got " + maxBytes);
+    }
+    this.directory = Objects.requireNonNull(directory);
+    this.maxBytes = maxBytes;
+    this.version = Objects.requireNonNull(version);
+    this.graph = graph;
+  }
+
+  /**
+   * Create a caching context.
+   *
+   * @param baseContext  The context to compose with
+   * @param directory    The cache directory, created if it does not exist
+   * @param maxBytes     The max total size of the cache entries
+   * @param version      The code version, part of every cache key
+   * @return A new caching context
+   */
+  public static CachingContext composeWith(EvalContext baseContext, Path directory,
+      long maxBytes, String version) {
+    return create(baseContext, directory, maxBytes, version, null);
+  }
+
+  /**
+   * Create a caching context that computes the cache keys of the tasks of an already built graph
+   * from that graph, instead of walking the graph of every task again.
+   *
+   * @param baseContext  The context to compose with
+   * @param directory    The cache directory, created if it does not exist
+   * @param maxBytes     The max total size of the cache entries
+   * @param version      The code version, part of every cache key
+   * @param graph        The graph of the task that will be evaluated
+   * @return A new caching context
+   */
+  public static CachingContext composeWith(EvalContext baseContext, Path directory,
+      long maxBytes, String version, TaskGraph graph) {
+    return create(baseContext, directory, maxBytes, version, Objects.requireNonNull(graph));
+  }
+
+  private static CachingContext create(EvalContext baseContext, Path directory,
+      long maxBytes, String version, TaskGraph graph) {
+    try {
+      Files.createDirectories(directory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new CachingContext(baseContext, directory, maxBytes, version, graph);
+  }
+
+  @Override
+  public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+    if (!task.contexts().isEmpty()) {
+      LOG.debug("Not caching {}, it has task contexts", task.id());
+      return super.evaluateInternal(task, context);
+    }
+
+    final String key = key(task);
+    if (key == null) {
+      // Part of a dependency cycle, let the evaluation deal with it
+      return super.evaluateInternal(task, context);
+    }
+
+    final Path entry = directory.resolve(key + SUFFIX);
+    if (Files.exists(entry)) {
+      final T value;
+      try {
+        value = Serialization.deserialize(entry);
+      } catch (SerializationException e) {
+        LOG.warn("Could not read cache entry {} of {}, evaluating", entry, task.id(), e);
+        delete(entry);
+        return miss(task, context, key);
+      }
+      touch(entry);
+      hits.increment();
+      LOG.debug("Cache hit for {}", task.id());
+      return context.immediateValue(value);
+    }
+    return miss(task, context, key);
+  }
+
+  /**
+   * @return Counters for the lookups and writes of this context
+   */
+  public Stats stats() {
+    return Stats.create(hits.sum(), misses.sum(), writes.sum(), evictions.sum());
+  }
+
+  private <T> Value<T> miss(Task<T> task, EvalContext context, String key) {
+    misses.increment();
+    // Store before completing, so the entry is in place once the run completes
+    return super.evaluateInternal(task, context).map(v -> {
+      store(task.id(), key, v);
+      return v;
+    });
+  }
+
+  private void store(TaskId taskId, String key, Object value) {
+    final Path entry = directory.resolve(key + SUFFIX);
+    Path tmp = null;
+    try {
+      tmp = Files.createTempFile(directory, key, ".tmp");
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        Serialization.serialize(value, out);
+      }
+      Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      writes.increment();
+      added(Files.size(entry));
+    } catch (SerializationException | IOException e) {
+      LOG.debug("Not caching result of {}", taskId, e);
+      if (tmp != null) {
+        delete(tmp);
+      }
+    }
+  }
+
+  private void added(long bytes) throws IOException {
+    if (cacheBytes.get() == -1) {
+      synchronized (evictionLock) {
+        if (cacheBytes.get() == -1) {
+          cacheBytes.set(entries().stream().mapToLong(this::size).sum());
+        }
+      }
+    } else {
+      cacheBytes.addAndGet(bytes);
+    }
+    if (cacheBytes.get() > maxBytes) {
+      evict();
+    }
+  }
+
+  private void evict() throws IOException {
+    synchronized (evictionLock) {
+      // Rescan, the directory might be shared with other runs
+      final List<Path> entries = entries();
+      long total = entries.stream().mapToLong(this::size).sum();
+      entries.sort(Comparator.comparing(this::lastModified));
+      for (Path entry : entries) {
+        if (total <= maxBytes) {
+          break;
+        }
+        final long size = size(entry);
+        if (delete(entry)) {
+          total -= size;
+          evictions.increment();
+        }
+      }
+      cacheBytes.set(total);
+    }
+  }
+
+  private List<Path> entries() throws IOException {
+    try (Stream<Path> paths = Files.list(directory)) {
+      return paths
+          .filter(path -> path.getFileName().toString().endsWith(SUFFIX))
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+  }
+
+  /**
+   * Get the cache key of a task, computing the keys of all tasks upstream of it if needed.
+   *
+   * @return The cache key, or null if the task is part of or downstream of a dependency cycle
+   */
+  private String key(Task<?> task) {
+    final String key = keys.get(task.id());
+    if (key != null) {
+      return key;
+    }
+    final TaskGraph graph = this.graph != null && this.graph.indexOf(task.id()) != -1
+        ? this.graph
+        : TaskGraph.of(task);
+    for (int node : graph.topologicalOrder()) {
+      keys.computeIfAbsent(graph.id(node), id -> {
+        final MessageDigest digest = sha256();
+        digest.update(version.getBytes(UTF_8));
+        digest.update((byte) 0);
+        digest.update(id.toString().getBytes(UTF_8));
+        for (int i = 0; i < graph.inputCount(node); i++) {
+          digest.update((byte) 0);
+          digest.update(keys.get(graph.id(graph.input(node, i))).getBytes(UTF_8));
+        }
+        return hex(digest.digest());
+      });
+    }
+    return keys.get(task.id());
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+
+  private void touch(Path entry) {
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      LOG.debug("Could not touch cache entry {}", entry, e);
+    }
+  }
+
+  private long size(Path entry) {
+    try {
+      return Files.size(entry);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private FileTime lastModified(Path entry) {
+    try {
+      return Files.getLastModifiedTime(entry);
+    } catch (IOException e) {
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private boolean delete(Path path) {
+    try {
+      Files.delete(path);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      LOG.warn("Could not delete {}", path, e);
+      return false;
+    }
+  }
+
+  /**
+   * Counters for the lookups and writes of a {@link CachingContext}.
+   */
+  @AutoValue
+  public abstract static class Stats {
+
+    /**
+     * @return The number of tasks served from the cache
+     */
+    public abstract long hits();
+
+    /**
+     * @return The number of tasks that were evaluated because they were not in the cache
+     */
+    public abstract long misses();
+
+    /**
+     * @return The number of results written to the cache
+     */
+    public abstract long writes();
+
+    /**
+     * @return The number of entries deleted to keep the cache within its max size
+     */
+    public abstract long evictions();
+
+    static Stats create(long hits, long misses, long writes, long evictions) {
+      return new AutoValue_CachingContext_Stats(hits, misses, writes, evictions);
+    }
+  }
+}
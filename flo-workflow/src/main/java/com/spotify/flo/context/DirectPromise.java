@@ -0,0 +1,290 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.util.Objects.requireNonNull;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.EvalContext.Promise;
+import com.spotify.flo.EvalContext.Value;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Promise} that is also its own {@link Value}. Callbacks run on the thread that completes
+ * the promise, or inline on the calling thread if it is already completed.
+ *
+ * <p>Unlike {@link FuturePromise}, no {@link java.util.concurrent.CompletableFuture} or executor
+ * hop is involved, which makes this suitable for values that are consumed where they complete.
+ *
+ * <p>A promise can optionally be created with a notifier {@link Executor}, in which case the
+ * callbacks that are pending when the promise completes are run through that executor instead.
+ * Derived values share the notifier of the value they were derived from.
+ *
+ * <p>Like the callbacks of a {@link java.util.concurrent.CompletableFuture}, each callback is
+ * isolated: an exception thrown by one is logged and does not prevent the others from running.
+ */
+final class DirectPromise<T> implements Promise<T>, Value<T> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DirectPromise.class);
+
+  private static final Object PENDING = new Object();
+
+  private final EvalContext context;
+  private final Executor notifier;
+
+  private volatile Object result;
+  private volatile Throwable failure;
+
+  // guarded by this, allocated on first use while pending
+  private List<Consumer<T>> consumers;
+  private List<Consumer<Throwable>> errorConsumers;
+
+  private DirectPromise(EvalContext context, Executor notifier, Object result,
+      Throwable failure) {
+    this.context = requireNonNull(context);
+    this.notifier = notifier;
+    this.failure = failure;
+    this.result = result;
+  }
+
+  static <T> DirectPromise<T> create(EvalContext context) {
+    return new DirectPromise<>(context, null, PENDING, null);
+  }
+
+  static <T> DirectPromise<T> create(EvalContext context, Executor notifier) {
+    return new DirectPromise<>(context, requireNonNull(notifier), PENDING, null);
+  }
+
+  static <T> DirectPromise<T> completed(EvalContext context, T value) {
+    return new DirectPromise<>(context, null, value, null);
+  }
+
+  static <T> DirectPromise<T> failed(EvalContext context, Throwable throwable) {
+    return new DirectPromise<>(context, null, null, requireNonNull(throwable));
+  }
+
+  /**
+   * @return true if this promise was fulfilled with a value
+   */
+  boolean isSuccess() {
+    return result != PENDING && failure == null;
+  }
+
+  /**
+   * @return The value of a successfully fulfilled promise
+   */
+  @SuppressWarnings("unchecked")
+  T result() {
+    return (T) result;
+  }
+
+  @Override
+  public Value<T> value() {
+    return this;
+  }
+
+  @Override
+  public EvalContext context() {
+    return context;
+  }
+
+  @Override
+  public void set(T value) {
+    final List<Consumer<T>> toNotify;
+    synchronized (this) {
+      checkPending();
+      result = value;
+      toNotify = consumers;
+      consumers = null;
+      errorConsumers = null;
+    }
+    if (toNotify != null) {
+      notify(toNotify, value);
+    }
+  }
+
+  @Override
+  public void fail(Throwable throwable) {
+    requireNonNull(throwable);
+    final List<Consumer<Throwable>> toNotify;
+    synchronized (this) {
+      checkPending();
+      failure = throwable;
+      result = null;
+      toNotify = errorConsumers;
+      consumers = null;
+      errorConsumers = null;
+    }
+    if (toNotify != null) {
+      notify(toNotify, throwable);
+    }
+  }
+
+  private <V> void notify(List<Consumer<V>> toNotify, V value) {
+    if (notifier == null) {
+      for (Consumer<V> consumer : toNotify) {
+        accept(consumer, value);
+      }
+    } else {
+      notifier.execute(() -> {
+        for (Consumer<V> consumer : toNotify) {
+          accept(consumer, value);
+        }
+      });
+    }
+  }
+
+  /**
+   * Run a callback, isolating the other callbacks and the completing thread from its failure.
+   */
+  private static <V> void accept(Consumer<V> consumer, V value) {
+    try {
+      consumer.accept(value);
+    } catch (Throwable t) {
+      LOG.warn("Exception in value callback", t);
+    }
+  }
+
+  @Override
+  public void consume(Consumer<T> consumer) {
+    if (result == PENDING) {
+      synchronized (this) {
+        if (result == PENDING) {
+          if (consumers == null) {
+            consumers = new ArrayList<>(1);
+          }
+          consumers.add(consumer);
+          return;
+        }
+      }
+    }
+    if (failure == null) {
+      accept(consumer, result());
+    }
+  }
+
+  @Override
+  public void onFail(Consumer<Throwable> errorConsumer) {
+    if (result == PENDING) {
+      synchronized (this) {
+        if (result == PENDING) {
+          if (errorConsumers == null) {
+            errorConsumers = new ArrayList<>(1);
+          }
+          errorConsumers.add(errorConsumer);
+          return;
+        }
+      }
+    }
+    final Throwable throwable = failure;
+    if (throwable != null) {
+      accept(errorConsumer, throwable);
+    }
+  }
+
+  @Override
+  public <U> Value<U> map(Function<? super T, ? extends U> fn) {
+    if (isSuccess()) {
+      try {
+        return completed(context, fn.apply(result()));
+      } catch (Throwable t) {
+        return failed(context, t);
+      }
+    }
+    final Throwable throwable = failure;
+    if (throwable != null) {
+      return failed(context, throwable);
+    }
+
+    final DirectPromise<U> promise = derive();
+    consume(t -> {
+      final U u;
+      try {
+        u = fn.apply(t);
+      } catch (Throwable e) {
+        promise.fail(e);
+        return;
+      }
+      promise.set(u);
+    });
+    onFail(promise::fail);
+    return promise;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <U> Value<U> flatMap(Function<? super T, ? extends Value<? extends U>> fn) {
+    if (isSuccess()) {
+      final Value<? extends U> next;
+      try {
+        next = fn.apply(result());
+      } catch (Throwable t) {
+        return failed(context, t);
+      }
+      if (next instanceof DirectPromise) {
+        return (Value<U>) next;
+      }
+      return bridge(next);
+    }
+    final Throwable throwable = failure;
+    if (throwable != null) {
+      return failed(context, throwable);
+    }
+
+    final DirectPromise<U> promise = derive();
+    consume(t -> {
+      final Value<? extends U> next;
+      try {
+        next = fn.apply(t);
+      } catch (Throwable e) {
+        promise.fail(e);
+        return;
+      }
+      next.consume(promise::set);
+      next.onFail(promise::fail);
+    });
+    onFail(promise::fail);
+    return promise;
+  }
+
+  private <U> Value<U> bridge(Value<? extends U> value) {
+    final DirectPromise<U> promise = derive();
+    value.consume(promise::set);
+    value.onFail(promise::fail);
+    return promise;
+  }
+
+  private <U> DirectPromise<U> derive() {
+    return new DirectPromise<>(context, notifier, PENDING, null);
+  }
+
+  private void checkPending() {
+    if (result != PENDING) {
+      throw new IllegalStateException("Promise was already completed");
+    }
+  }
+}
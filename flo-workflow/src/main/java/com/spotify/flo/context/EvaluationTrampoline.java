@@ -0,0 +1,100 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} that runs submitted commands on the calling thread with a bounded stack
+ * depth.
+ *
+ * <p>Commands are run inline, like a same thread executor, until {@link #MAX_DEPTH} commands are
+ * nested on the stack. Commands submitted beyond that are queued and run one after the other by
+ * the outermost call, after the command it is running returns. This keeps the evaluation order of
+ * shallow graphs identical to plain synchronous evaluation, while graphs of any depth can be
+ * evaluated without overflowing the stack.
+ *
+ * <p>Exceptions thrown by nested commands propagate to their caller. When a command run by the
+ * outermost call throws, the remaining queued commands are still run and the first exception is
+ * rethrown once the queue is drained.
+ *
+ * <p>This executor is not thread safe.
+ */
+final class EvaluationTrampoline implements Executor {
+
+  static final int MAX_DEPTH = 64;
+
+  private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+  private int depth;
+
+  @Override
+  public void execute(Runnable command) {
+    Objects.requireNonNull(command);
+    if (depth >= MAX_DEPTH) {
+      queue.add(command);
+      return;
+    }
+    if (depth > 0) {
+      depth++;
+      try {
+        command.run();
+      } finally {
+        depth--;
+      }
+      return;
+    }
+
+    depth = 1;
+    RuntimeException exception = null;
+    Error error = null;
+    try {
+      Runnable next = command;
+      do {
+        try {
+          next.run();
+        } catch (RuntimeException e) {
+          if (exception == null) {
+            exception = e;
+          } else {
+            exception.addSuppressed(e);
+          }
+        } catch (Error e) {
+          if (error == null) {
+            error = e;
+          } else {
+            error.addSuppressed(e);
+          }
+        }
+      } while ((next = queue.poll()) != null);
+    } finally {
+      depth = 0;
+    }
+
+    if (error != null) {
+      throw error;
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.spotify.flo.CancellationSignal;
+import com.spotify.flo.CancellationSignal.Registration;
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Fn;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskId;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A flo {@link EvalContext} that aborts the evaluation of a task graph as soon as one task fails,
+ * instead of letting independent tasks run to completion only to have their results discarded.
+ *
+ * <p>This context owns the {@link CancellationSignal} that is returned by
+ * {@link #cancellationSignal()} and cancels it with the first task failure. After that:
+ *
+ * <ul>
+ *   <li>Joins of input values through {@link com.spotify.flo.Values} fail as soon as one input
+ *       fails, see {@link com.spotify.flo.Values#allOf(EvalContext, java.util.List)}.</li>
+ *   <li>Tasks that have not yet been evaluated, or whose process fn has not started, fail with a
+ *       {@link CancellationException}.</li>
+ *   <li>Threads that are running a process fn, including any
+ *       {@link com.spotify.flo.TaskOperator}, are interrupted.</li>
+ * </ul>
+ *
+ * <p>This context should be composed directly on top of the base context, so that every other
+ * context forwards {@link #cancellationSignal()} to it and it sees the process fn invocations of
+ * all tasks.
+ */
+public class FailFastContext extends ForwardingEvalContext {
+
+  private final CancellationSignal signal = CancellationSignal.create();
+
+  private FailFastContext(EvalContext baseContext) {
+    super(baseContext);
+  }
+
+  public static EvalContext composeWith(EvalContext baseContext) {
+    return new FailFastContext(baseContext);
+  }
+
+  @Override
+  public CancellationSignal cancellationSignal() {
+    return signal;
+  }
+
+  @Override
+  public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+    if (signal.isCancelled()) {
+      final Promise<T> promise = context.promise();
+      promise.fail(cancelled(task.id()));
+      return promise.value();
+    }
+    final Value<T> value = delegate.evaluateInternal(task, context);
+    value.onFail(signal::cancel);
+    return value;
+  }
+
+  @Override
+  public <T> Value<T> invokeProcessFn(TaskId taskId, Fn<T> processFn) {
+    return delegate.invokeProcessFn(taskId, () -> {
+      if (signal.isCancelled()) {
+        throw cancelled(taskId);
+      }
+      final Thread thread = Thread.currentThread();
+      try (Registration ignored = signal.onCancel(thread::interrupt)) {
+        return processFn.get();
+      } finally {
+        if (signal.isCancelled()) {
+          // Do not leak the interrupt to whatever runs next on this thread
+          Thread.interrupted();
+        }
+      }
+    });
+  }
+
+  private CancellationException cancelled(TaskId taskId) {
+    final CancellationException exception =
+        new CancellationException("Evaluation of " + taskId + " was cancelled");
+    exception.initCause(signal.cause());
+    return exception;
+  }
+}
@@ -0,0 +1,79 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.spotify.flo.EvalContext;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * An asynchronous {@link EvalContext} that runs evaluation on a work-stealing {@link ForkJoinPool}.
+ *
+ * <p>Work that is scheduled from a worker of the pool, like the continuations of a value that
+ * completes on that worker, is forked onto the local deque of the worker instead of the shared
+ * submission queue. Idle workers steal from the other end of the deques.
+ *
+ * <p>Blocking task operators are run through {@link Blocking}, so the pool can compensate for
+ * workers that are blocked.
+ */
+public class ForkJoinContext extends ForwardingEvalContext {
+
+  private ForkJoinContext(ForkJoinPool pool) {
+    super(AsyncContext.create(new WorkStealingExecutor(pool)));
+  }
+
+  public static EvalContext create(ForkJoinPool pool) {
+    return new ForkJoinContext(pool);
+  }
+
+  private static final class WorkStealingExecutor implements Executor {
+
+    private final ForkJoinPool pool;
+
+    private WorkStealingExecutor(ForkJoinPool pool) {
+      this.pool = Objects.requireNonNull(pool);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      final Thread thread = Thread.currentThread();
+      if (thread instanceof ForkJoinWorkerThread
+          && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+        ForkJoinTask.adapt(() -> run(command)).fork();
+      } else {
+        pool.execute(command);
+      }
+    }
+
+    private static void run(Runnable command) {
+      try {
+        command.run();
+      } catch (Throwable t) {
+        // Forked tasks are never joined, report like an executed task would
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+      }
+    }
+  }
+}
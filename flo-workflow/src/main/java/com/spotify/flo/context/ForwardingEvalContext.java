@@ -20,6 +20,7 @@
 
 package com.spotify.flo.context;
 
+import com.spotify.flo.CancellationSignal;
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.Fn;
 import com.spotify.flo.Task;
@@ -67,4 +68,9 @@ public abstract class ForwardingEvalContext implements EvalContext {
   public Listener listener() {
     return delegate.listener();
   }
+
+  @Override
+  public CancellationSignal cancellationSignal() {
+    return delegate.cancellationSignal();
+  }
 }
@@ -28,6 +28,7 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -37,12 +38,23 @@ final class FuturePromise<T> implements Promise<T> {
 
   private final EvalContext evalContext;
   private final Executor executor;
+  private final boolean inline;
 
   private final CompletableFuture<T> future;
 
   FuturePromise(EvalContext evalContext, Executor executor, CompletableFuture<T> future) {
+    this(evalContext, executor, false, future);
+  }
+
+  /**
+   * @param inline  If true, continuations run on the thread that completes the future instead of
+   *                being dispatched to the executor
+   */
+  FuturePromise(
+      EvalContext evalContext, Executor executor, boolean inline, CompletableFuture<T> future) {
     this.evalContext = requireNonNull(evalContext);
     this.executor = requireNonNull(executor);
+    this.inline = inline;
     this.future = requireNonNull(future);
   }
 
@@ -88,40 +100,55 @@ final class FuturePromise<T> implements Promise<T> {
 
     @Override
     public void consume(Consumer<V> consumer) {
-      future.thenAcceptAsync(consumer, executor);
+      if (inline) {
+        future.thenAccept(consumer);
+      } else {
+        future.thenAcceptAsync(consumer, executor);
+      }
     }
 
     @Override
     public void onFail(Consumer<Throwable> errorConsumer) {
-      future.whenCompleteAsync((ˍ, throwable) -> {
+      final BiConsumer<V, Throwable> action = (ˍ, throwable) -> {
         if (throwable != null) {
           errorConsumer.accept(resolveAppThrowable(throwable));
         }
-      }, executor);
+      };
+      if (inline) {
+        future.whenComplete(action);
+      } else {
+        future.whenCompleteAsync(action, executor);
+      }
     }
 
     @Override
     public <U> Value<U> map(Function<? super V, ? extends U> fn) {
-      return new FutureValue<>(future.thenApplyAsync(fn, executor));
+      return new FutureValue<>(inline
+          ? future.thenApply(fn)
+          : future.thenApplyAsync(fn, executor));
     }
 
     @Override
     public <U> Value<U> flatMap(Function<? super V, ? extends Value<? extends U>> function) {
       final CompletableFuture<U> next = new CompletableFuture<>();
-      CompletionStage<? extends Value<? extends U>> mapped =
-          future.thenApplyAsync(function, executor);
-
-      mapped.whenCompleteAsync(
-          (value, throwable) -> {
-            if (throwable != null) {
-              next.completeExceptionally(resolveAppThrowable(throwable));
-            } else {
-              value.consume(next::complete);
-              value.onFail(next::completeExceptionally);
-            }
-          },
-          executor);
-      return new FuturePromise<>(evalContext, executor, next).value();
+      final CompletionStage<? extends Value<? extends U>> mapped = inline
+          ? future.thenApply(function)
+          : future.thenApplyAsync(function, executor);
+
+      final BiConsumer<Value<? extends U>, Throwable> action = (value, throwable) -> {
+        if (throwable != null) {
+          next.completeExceptionally(resolveAppThrowable(throwable));
+        } else {
+          value.consume(next::complete);
+          value.onFail(next::completeExceptionally);
+        }
+      };
+      if (inline) {
+        mapped.whenComplete(action);
+      } else {
+        mapped.whenCompleteAsync(action, executor);
+      }
+      return new FuturePromise<>(evalContext, executor, inline, next).value();
     }
   }
 }
@@ -22,24 +22,77 @@ package com.spotify.flo.context;
 
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.Task;
+import com.spotify.flo.TaskGraph;
 import com.spotify.flo.TaskId;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A flo {@link EvalContext} that memoizes the results of task evaluations and
  * ensures that tasks are only evaluated once.
+ *
+ * <p>By default, results are retained for the lifetime of the context. A context created with
+ * {@link #composeWithEviction(EvalContext)} instead plans the graph of the first evaluated task and
+ * counts the requests for every task in it. Once all consumers of a task have requested its
+ * value, the context drops its reference to the value and keeps a tombstone.
+ *
+ * <p>The counts are only a plan. A task that is requested again after it was evicted, e.g. by a
+ * retrying decorator or a second evaluation of the root, is evaluated again with a warning and
+ * retained from then on. A task that is requested fewer times than planned, e.g. because a
+ * consumer was short-circuited by a decorating context, is never evicted.
  */
 public class MemoizingContext extends ForwardingEvalContext {
 
+  private static final Logger LOG = LoggerFactory.getLogger(MemoizingContext.class);
+
+  private static final int UNTRACKED = -1;
+
   private final ConcurrentMap<TaskId, Promise<?>> ongoing = new ConcurrentHashMap<>();
 
-  private MemoizingContext(EvalContext baseContext) {
+  private final boolean evicting;
+  private final TaskGraph graph;
+  private final ConcurrentMap<TaskId, Memo> memos = new ConcurrentHashMap<>();
+  private volatile boolean planned;
+
+  private MemoizingContext(EvalContext baseContext, boolean evicting, TaskGraph graph) {
     super(baseContext);
+    this.evicting = evicting;
+    this.graph = graph;
   }
 
   public static EvalContext composeWith(EvalContext baseContext) {
-    return new MemoizingContext(baseContext);
+    return new MemoizingContext(baseContext, false, null);
+  }
+
+  /**
+   * Create a memoizing context that does not retain the result of a task after every consumer in
+   * the planned graph has requested it, so that large intermediate results can be garbage
+   * collected while the rest of the graph is evaluated.
+   *
+   * <p>The graph of the first evaluated task is planned with {@link TaskGraph#of(Task)}, so this
+   * is intended for contexts that evaluate a single root task. Tasks that are not part of that
+   * graph are retained.
+   *
+   * @param baseContext  The context to compose with
+   * @return A new memoizing context
+   */
+  public static EvalContext composeWithEviction(EvalContext baseContext) {
+    return new MemoizingContext(baseContext, true, null);
+  }
+
+  /**
+   * Create an evicting memoizing context like {@link #composeWithEviction(EvalContext)}, that
+   * plans with an already built graph if its root is the first evaluated task.
+   *
+   * @param baseContext  The context to compose with
+   * @param graph        The graph of the task that will be evaluated
+   * @return A new memoizing context
+   */
+  public static EvalContext composeWithEviction(EvalContext baseContext, TaskGraph graph) {
+    return new MemoizingContext(baseContext, true, Objects.requireNonNull(graph));
   }
 
   @SuppressWarnings("unchecked")
@@ -49,7 +102,12 @@ public class MemoizingContext extends ForwardingEvalContext {
     // in computeIfAbsent is not allowed: "... the computation should be short and simple,
     // and must not attempt to update any other mappings of this map.".
     final Promise<T> promise = context.promise();
-    final Promise<?> existing = ongoing.putIfAbsent(task.id(), promise);
+    final Promise<?> existing;
+    if (evicting) {
+      existing = request(task, promise);
+    } else {
+      existing = ongoing.putIfAbsent(task.id(), promise);
+    }
     if (existing != null) {
       return (Value<T>) existing.value();
     }
@@ -62,4 +120,68 @@ public class MemoizingContext extends ForwardingEvalContext {
     }
     return promise.value();
   }
+
+  /**
+   * Register a request for a task, and evict it if this was the last planned request. An evicted
+   * task is tracked no more, so that it is evaluated again and then retained.
+   *
+   * @return The promise of an earlier request, or null if the given promise should be fulfilled
+   */
+  private Promise<?> request(Task<?> task, Promise<?> promise) {
+    if (!planned) {
+      plan(task);
+    }
+    final Memo memo = memos.computeIfAbsent(task.id(), id -> new Memo(UNTRACKED));
+    synchronized (memo) {
+      if (memo.evicted) {
+        LOG.warn("{} was requested more times than planned after its value was evicted,"
+            + " evaluating it again", task.id());
+        memo.evicted = false;
+        memo.remaining = UNTRACKED;
+      }
+      final Promise<?> existing = memo.promise;
+      if (existing == null) {
+        memo.promise = promise;
+      }
+      if (memo.remaining != UNTRACKED && --memo.remaining == 0) {
+        memo.promise = null;
+        memo.evicted = true;
+      }
+      return existing;
+    }
+  }
+
+  private synchronized void plan(Task<?> root) {
+    if (planned) {
+      return;
+    }
+    final TaskGraph graph = this.graph != null && this.graph.id(this.graph.root()).equals(root.id())
+        ? this.graph
+        : TaskGraph.of(root);
+    final int[] requests = new int[graph.size()];
+    requests[graph.root()]++;
+    for (int node = 0; node < graph.size(); node++) {
+      for (int i = 0; i < graph.inputCount(node); i++) {
+        requests[graph.input(node, i)]++;
+      }
+    }
+    for (int node = 0; node < graph.size(); node++) {
+      memos.putIfAbsent(graph.id(node), new Memo(requests[node]));
+    }
+    planned = true;
+  }
+
+  /**
+   * The memoized state of a task. Guarded by itself.
+   */
+  private static final class Memo {
+
+    private Promise<?> promise;
+    private int remaining;
+    private boolean evicted;
+
+    private Memo(int remaining) {
+      this.remaining = remaining;
+    }
+  }
 }
@@ -0,0 +1,403 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Fn;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskEvaluation;
+import com.spotify.flo.TaskGraph;
+import com.spotify.flo.Values;
+import io.grpc.Context;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An {@link EvalContext} that evaluates a task by first planning its whole graph into a
+ * {@link TaskGraph} and then scheduling the tasks by dependency countdown on an {@link Executor}.
+ *
+ * <p>Tasks are scheduled on demand, starting from the root. When the composed context evaluates
+ * a task of the plan, its inputs are requested and it gets an atomic counter of its remaining
+ * distinct inputs. When a task completes, the counters of its waiting consumers are decremented
+ * and the consumers that become ready are submitted to the executor. Input values are handed to
+ * the process fn directly from the completed results of the plan, so no {@link Value} is chained
+ * per input edge.
+ *
+ * <p>Every task other than the root is requested through {@link EvalContext#evaluate(Task)} of the
+ * composed context, so decorating contexts such as {@link MemoizingContext} and
+ * {@link InstrumentedContext} see each task once. A decorating context that short-circuits the
+ * evaluation of a task, like {@code OverridingContext}, also prevents its inputs from being
+ * requested. The {@link com.spotify.flo.TaskContext} and {@link com.spotify.flo.TaskOperator}
+ * semantics are those of the default evaluation.
+ *
+ * <p>The result of a task is held by the plan only until every consumer of it in the graph has
+ * either read it or completed without reading it, e.g. because it was short-circuited, so that
+ * intermediate results can be garbage collected while the rest of the graph is evaluated.
+ *
+ * <p>Values created by this context complete on the thread that produces them, and process
+ * functions are invoked inline on the executor thread that runs the task.
+ */
+public class PlanContext implements EvalContext {
+
+  private final Executor executor;
+  private final TaskGraph planned;
+
+  /**
+   * The plan node being dispatched through the composed context on the current thread.
+   */
+  private final ThreadLocal<Dispatch> dispatching = new ThreadLocal<>();
+
+  private PlanContext(Executor executor, TaskGraph planned) {
+    this.executor = Context.currentContextExecutor(Objects.requireNonNull(executor));
+    this.planned = planned;
+  }
+
+  public static EvalContext create(Executor executor) {
+    return new PlanContext(executor, null);
+  }
+
+  /**
+   * Create a plan context that evaluates the root task of an already built graph with that graph,
+   * instead of building it again. Other tasks are planned when they are evaluated.
+   *
+   * @param executor  The executor to run the tasks on
+   * @param graph     The graph of the task that will be evaluated
+   * @return A new plan context
+   */
+  public static EvalContext create(Executor executor, TaskGraph graph) {
+    return new PlanContext(executor, Objects.requireNonNull(graph));
+  }
+
+  @Override
+  public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+    final Dispatch current = dispatching.get();
+    if (current != null && current.run.graph.id(current.node).equals(task.id())) {
+      dispatching.remove();
+      return current.run.expand(current.node, context);
+    }
+
+    final TaskGraph graph = planned != null && planned.id(planned.root()).equals(task.id())
+        ? planned
+        : TaskGraph.of(task);
+    if (!graph.isAcyclic()) {
+      return DirectPromise.failed(this, new IllegalStateException(
+          "Task graph of " + task.id() + " contains a dependency cycle"));
+    }
+    return new Run<T>(graph, context).start();
+  }
+
+  @Override
+  public <T> Value<T> value(Fn<T> value) {
+    final T t;
+    try {
+      t = value.get();
+    } catch (Throwable e) {
+      return DirectPromise.failed(this, e);
+    }
+    return DirectPromise.completed(this, t);
+  }
+
+  @Override
+  public <T> Value<T> immediateValue(T value) {
+    return DirectPromise.completed(this, value);
+  }
+
+  @Override
+  public <T> Promise<T> promise() {
+    return DirectPromise.create(this);
+  }
+
+  private static final class Dispatch {
+
+    private final Run<?> run;
+    private final int node;
+
+    private Dispatch(Run<?> run, int node) {
+      this.run = run;
+      this.node = node;
+    }
+  }
+
+  /**
+   * A single evaluation of a planned graph.
+   */
+  private final class Run<T> {
+
+    private static final byte NEW = 0;
+    private static final byte REQUESTED = 1;
+    private static final byte DONE = 2;
+
+    private final TaskGraph graph;
+    private final EvalContext context;
+
+    private final AtomicIntegerArray pending;
+    private final AtomicIntegerArray readers;
+    private final Object[] results;
+    private final Throwable[] failures;
+
+    // guarded by this
+    private final byte[] states;
+    private final boolean[] expanded;
+    private final List<List<Integer>> waiting;
+    private final EvalContext[] contexts;
+    private final List<DirectPromise<Object>> promises;
+
+    private Run(TaskGraph graph, EvalContext context) {
+      this.graph = graph;
+      this.context = context;
+
+      final int n = graph.size();
+      this.pending = new AtomicIntegerArray(n);
+      this.readers = new AtomicIntegerArray(n);
+      this.results = new Object[n];
+      this.failures = new Throwable[n];
+      this.states = new byte[n];
+      this.expanded = new boolean[n];
+      this.waiting = new ArrayList<>(n);
+      this.contexts = new EvalContext[n];
+      this.promises = new ArrayList<>(n);
+      for (int node = 0; node < n; node++) {
+        waiting.add(null);
+        promises.add(null);
+      }
+      for (int node = 0; node < n; node++) {
+        for (int input : distinctInputs(node)) {
+          readers.incrementAndGet(input);
+        }
+      }
+    }
+
+    private Set<Integer> distinctInputs(int node) {
+      final Set<Integer> inputs = new HashSet<>();
+      for (int i = 0; i < graph.inputCount(node); i++) {
+        inputs.add(graph.input(node, i));
+      }
+      return inputs;
+    }
+
+    private Value<T> start() {
+      // The root is already being evaluated through the composed context
+      synchronized (this) {
+        states[graph.root()] = REQUESTED;
+      }
+      return expand(graph.root(), context);
+    }
+
+    /**
+     * Request the inputs of a task that the composed context evaluates, and run it once they have
+     * completed.
+     */
+    @SuppressWarnings("unchecked")
+    private <V> Value<V> expand(int node, EvalContext nodeContext) {
+      final DirectPromise<Object> promise = DirectPromise.create(PlanContext.this);
+      final Set<Integer> inputs = new HashSet<>();
+      final List<Integer> toRequest = new ArrayList<>();
+      int remaining = 0;
+      synchronized (this) {
+        for (int i = 0; i < graph.inputCount(node); i++) {
+          final int input = graph.input(node, i);
+          if (states[input] == DONE || !inputs.add(input)) {
+            continue;
+          }
+          remaining++;
+          if (waiting.get(input) == null) {
+            waiting.set(input, new ArrayList<>(1));
+          }
+          waiting.get(input).add(node);
+          if (states[input] == NEW) {
+            states[input] = REQUESTED;
+            toRequest.add(input);
+          }
+        }
+        pending.set(node, remaining);
+        expanded[node] = true;
+        contexts[node] = nodeContext;
+        promises.set(node, promise);
+      }
+
+      for (int input : toRequest) {
+        executor.execute(() -> dispatch(input));
+      }
+      if (remaining == 0) {
+        submit(node);
+      }
+      return (Value<V>) promise;
+    }
+
+    private void submit(int node) {
+      executor.execute(() -> run(node));
+    }
+
+    private void run(int node) {
+      final EvalContext nodeContext;
+      final DirectPromise<Object> promise;
+      synchronized (this) {
+        nodeContext = contexts[node];
+        promise = promises.get(node);
+        contexts[node] = null;
+        promises.set(node, null);
+      }
+      Value<?> value;
+      try {
+        value = execute(node, nodeContext);
+      } catch (Throwable t) {
+        value = DirectPromise.failed(PlanContext.this, t);
+      } finally {
+        release(node);
+      }
+      value.consume(promise::set);
+      value.onFail(promise::fail);
+    }
+
+    /**
+     * Evaluate a requested input through the composed context, which either calls back into
+     * {@link #expand(int, EvalContext)} or short-circuits it.
+     */
+    private void dispatch(int node) {
+      Value<?> value;
+      try {
+        dispatching.set(new Dispatch(this, node));
+        try {
+          value = context.evaluate(graph.task(node));
+        } finally {
+          dispatching.remove();
+        }
+      } catch (Throwable t) {
+        value = DirectPromise.failed(PlanContext.this, t);
+      }
+      value.consume(v -> complete(node, v, null));
+      value.onFail(t -> complete(node, null, t));
+    }
+
+    private void complete(int node, Object result, Throwable failure) {
+      final List<Integer> consumers;
+      final boolean shortCircuited;
+      synchronized (this) {
+        if (readers.get(node) > 0) {
+          results[node] = result;
+        }
+        failures[node] = failure;
+        states[node] = DONE;
+        shortCircuited = !expanded[node];
+        consumers = waiting.set(node, null);
+      }
+      if (shortCircuited) {
+        // The composed context did not request the inputs, so it will not read them either
+        release(node);
+      }
+      if (consumers == null) {
+        return;
+      }
+      for (int consumer : consumers) {
+        if (pending.decrementAndGet(consumer) == 0) {
+          submit(consumer);
+        }
+      }
+    }
+
+    /**
+     * Drop the results of the inputs of a task that has read them, once they have no other
+     * consumers in the plan left to read them.
+     */
+    private void release(int node) {
+      for (int input : distinctInputs(node)) {
+        if (readers.decrementAndGet(input) == 0) {
+          synchronized (this) {
+            results[input] = null;
+          }
+        }
+      }
+    }
+
+    /**
+     * Evaluate a task of the plan, all inputs of which have completed.
+     */
+    @SuppressWarnings("unchecked")
+    private <U> Value<U> execute(int node, EvalContext nodeContext) {
+      final Task<U> task = (Task<U>) graph.task(node);
+
+      // Propagate the first input failure in declaration order, like the default args join
+      Throwable failure = null;
+      for (int i = 0; i < graph.inputCount(node); i++) {
+        final Throwable t = failures[graph.input(node, i)];
+        if (t == null) {
+          continue;
+        }
+        if (failure == null) {
+          failure = t;
+        } else if (t != failure) {
+          failure.addSuppressed(t);
+        }
+      }
+      if (failure != null) {
+        return DirectPromise.failed(PlanContext.this, failure);
+      }
+
+      final List<Value<?>> argValues = TaskEvaluation.args(task, new InputContext(nodeContext));
+      final Object[] args = new Object[argValues.size()];
+      for (int i = 0; i < args.length; i++) {
+        final Value<?> argValue = argValues.get(i);
+        if (!(argValue instanceof DirectPromise) || !((DirectPromise<?>) argValue).isSuccess()) {
+          // Fall back to joining the values if any argument is not readily available
+          return Values.allOf(nodeContext, argValues)
+              .flatMap(as -> TaskEvaluation.invoke(task, as, nodeContext));
+        }
+        args[i] = ((DirectPromise<?>) argValue).result();
+      }
+      return TaskEvaluation.invoke(task, Arrays.asList(args), nodeContext);
+    }
+
+    /**
+     * Serves the inputs of a task from the completed results of the plan.
+     */
+    private final class InputContext extends ForwardingEvalContext {
+
+      private InputContext(EvalContext delegate) {
+        super(delegate);
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public <V> Value<V> evaluate(Task<V> task) {
+        final int node = graph.indexOf(task.id());
+        if (node == -1) {
+          return delegate.evaluate(task);
+        }
+        if (failures[node] != null) {
+          return DirectPromise.failed(PlanContext.this, failures[node]);
+        }
+        return DirectPromise.completed(PlanContext.this, (V) results[node]);
+      }
+
+      @Override
+      public Optional<Task<?>> currentTask() {
+        return delegate.currentTask();
+      }
+    }
+  }
+}
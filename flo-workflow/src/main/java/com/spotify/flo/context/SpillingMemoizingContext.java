@@ -0,0 +1,359 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import com.google.auto.value.AutoValue;
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Serialization;
+import com.spotify.flo.SerializationException;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskId;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A flo {@link EvalContext} that memoizes the results of task evaluations like
+ * {@link MemoizingContext}, but keeps at most a budget of bytes of results in memory.
+ *
+ * <p>When the results held in memory exceed the budget, the least recently requested ones are
+ * serialized with {@link Serialization} to files in a local directory and dropped from memory.
+ * A spilled result is deserialized again for every later request of it, so consumers that
+ * request a spilled result each get their own copy.
+ *
+ * <p>Results are not serialized until they are spilled. Until then, the size of strings, boxed
+ * primitives and primitive arrays is estimated from their length, collections, maps and object
+ * arrays from their elements, and other results are charged a nominal {@value #NOMINAL_WEIGHT}
+ * bytes. Results that fail to spill, e.g. because they are not serializable, are kept in memory,
+ * no longer counted against the budget and not chosen for spilling again.
+ *
+ * <p>The spill files are deleted when the context is closed.
+ */
+public class SpillingMemoizingContext extends ForwardingEvalContext implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger(SpillingMemoizingContext.class);
+
+  private static final long NOMINAL_WEIGHT = 256;
+
+  private final long budget;
+  private final Path directory;
+
+  // guarded by entries
+  private final Map<TaskId, Entry> entries = new HashMap<>();
+  private final LinkedHashMap<TaskId, Entry> resident = new LinkedHashMap<>(16, 0.75f, true);
+  private long residentBytes;
+  private boolean closed;
+
+  private final AtomicLong files = new AtomicLong();
+  private final LongAdder spilledValues = new LongAdder();
+  private final LongAdder spilledBytes = new LongAdder();
+  private final LongAdder spillNanos = new LongAdder();
+  private final LongAdder reloadedValues = new LongAdder();
+  private final LongAdder reloadedBytes = new LongAdder();
+  private final LongAdder reloadNanos = new LongAdder();
+
+  private SpillingMemoizingContext(EvalContext baseContext, long budget, Path directory) {
+    super(baseContext);
+    if (budget < 0) {
+      throw new IllegalArgumentException("budget must be >= 0, got " + budget);
+    }
+    this.budget = budget;
+    this.directory = directory;
+  }
+
+  /**
+   * Create a spilling memoizing context that spills to a new temporary directory.
+   *
+   * @param baseContext  The context to compose with
+   * @param budget       The max estimated number of bytes of results to keep in memory
+   * @return A new spilling memoizing context
+   */
+  public static SpillingMemoizingContext composeWith(EvalContext baseContext, long budget) {
+    try {
+      return composeWith(baseContext, budget, Files.createTempDirectory("flo-spill"));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Create a spilling memoizing context that spills to files in a given directory.
+   *
+   * @param baseContext  The context to compose with
+   * @param budget       The max estimated number of bytes of results to keep in memory
+   * @param directory    An existing directory to write spill files to
+   * @return A new spilling memoizing context
+   */
+  public static SpillingMemoizingContext composeWith(EvalContext baseContext, long budget,
+      Path directory) {
+    return new SpillingMemoizingContext(baseContext, budget, directory);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+    final TaskId id = task.id();
+    final Promise<T> promise = context.promise();
+    final Entry entry;
+    synchronized (entries) {
+      final Entry existing = entries.get(id);
+      if (existing != null) {
+        return (Value<T>) request(id, existing, context);
+      }
+      entry = new Entry(promise);
+      entries.put(id, entry);
+    }
+    try {
+      final Value<T> value = super.evaluateInternal(task, context);
+      value.onFail(promise::fail);
+      value.consume(v -> {
+        promise.set(v);
+        completed(id, entry, v);
+      });
+    } catch (Throwable t) {
+      promise.fail(t);
+    }
+    return promise.value();
+  }
+
+  /**
+   * @return Counters for the results spilled and reloaded by this context
+   */
+  public Stats stats() {
+    return Stats.create(
+        spilledValues.sum(), spilledBytes.sum(), Duration.ofNanos(spillNanos.sum()),
+        reloadedValues.sum(), reloadedBytes.sum(), Duration.ofNanos(reloadNanos.sum()));
+  }
+
+  /**
+   * Delete all spill files. Spilled results can not be requested after this.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (entries) {
+      closed = true;
+    }
+    if (!Files.exists(directory)) {
+      return;
+    }
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+        try {
+          Files.delete(path);
+        } catch (IOException e) {
+          LOG.warn("Could not delete spill file {}", path, e);
+        }
+      });
+    }
+  }
+
+  // guarded by entries
+  private Value<?> request(TaskId id, Entry entry, EvalContext context) {
+    if (entry.promise != null) {
+      return entry.promise.value();
+    }
+    if (entry.file == null) {
+      // Mark as recently requested
+      resident.get(id);
+      return context.immediateValue(entry.value);
+    }
+    final Path file = entry.file;
+    return context.value(() -> reload(file));
+  }
+
+  private void completed(TaskId id, Entry entry, Object value) {
+    final long weight = weight(value);
+    final List<Entry> victims = new ArrayList<>();
+    synchronized (entries) {
+      entry.promise = null;
+      entry.value = value;
+      entry.weight = weight;
+      resident.put(id, entry);
+      residentBytes += weight;
+
+      final Iterator<Entry> eldest = resident.values().iterator();
+      while (residentBytes > budget && eldest.hasNext()) {
+        final Entry victim = eldest.next();
+        eldest.remove();
+        residentBytes -= victim.weight;
+        victims.add(victim);
+      }
+    }
+    victims.forEach(this::spill);
+  }
+
+  private void spill(Entry entry) {
+    final Object value;
+    synchronized (entries) {
+      if (closed) {
+        return;
+      }
+      value = entry.value;
+    }
+
+    final long t0 = System.nanoTime();
+    final Path file = directory.resolve(files.incrementAndGet() + ".ser");
+    try {
+      Serialization.serialize(value, file);
+      spilledBytes.add(Files.size(file));
+    } catch (SerializationException | IOException e) {
+      // Not back into the LRU, where it would be chosen and fail again
+      LOG.warn("Could not spill memoized result to {}, pinning it in memory outside the budget",
+          file, e);
+      tryDelete(file);
+      return;
+    } finally {
+      spillNanos.add(System.nanoTime() - t0);
+    }
+    spilledValues.increment();
+
+    synchronized (entries) {
+      entry.file = file;
+      entry.value = null;
+    }
+  }
+
+  private static void tryDelete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOG.debug("Could not delete spill file {}", file, e);
+    }
+  }
+
+  /**
+   * @return The estimated size of a result in memory, without serializing it
+   */
+  private static long weight(Object value) {
+    final long size = Serialization.estimatedSize(value);
+    if (size >= 0) {
+      return size;
+    }
+    long weight = NOMINAL_WEIGHT;
+    if (value instanceof Collection) {
+      for (Object element : (Collection<?>) value) {
+        weight += elementWeight(element);
+      }
+    } else if (value instanceof Map) {
+      for (Map.Entry<?, ?> element : ((Map<?, ?>) value).entrySet()) {
+        weight += elementWeight(element.getKey()) + elementWeight(element.getValue());
+      }
+    } else if (value instanceof Object[]) {
+      for (Object element : (Object[]) value) {
+        weight += elementWeight(element);
+      }
+    }
+    return weight;
+  }
+
+  private static long elementWeight(Object element) {
+    final long size = Serialization.estimatedSize(element);
+    return size >= 0 ? size : NOMINAL_WEIGHT;
+  }
+
+  private <T> T reload(Path file) {
+    final long t0 = System.nanoTime();
+    try {
+      final long size = Files.size(file);
+      final T value = Serialization.deserialize(file);
+      reloadedValues.increment();
+      reloadedBytes.add(size);
+      return value;
+    } catch (SerializationException | IOException e) {
+      throw new RuntimeException("Could not reload spilled result from " + file, e);
+    } finally {
+      reloadNanos.add(System.nanoTime() - t0);
+    }
+  }
+
+  /**
+   * The memoized state of a task. Guarded by the entries of the context.
+   */
+  private static final class Entry {
+
+    private Promise<?> promise;
+    private Object value;
+    private Path file;
+    private long weight;
+
+    private Entry(Promise<?> promise) {
+      this.promise = promise;
+    }
+  }
+
+  /**
+   * Counters for the results spilled and reloaded by a {@link SpillingMemoizingContext}.
+   */
+  @AutoValue
+  public abstract static class Stats {
+
+    /**
+     * @return The number of results written to spill files
+     */
+    public abstract long spilledValues();
+
+    /**
+     * @return The total size of the spill files written
+     */
+    public abstract long spilledBytes();
+
+    /**
+     * @return The total time spent writing spill files
+     */
+    public abstract Duration spillTime();
+
+    /**
+     * @return The number of results read back from spill files
+     */
+    public abstract long reloadedValues();
+
+    /**
+     * @return The total number of bytes read back from spill files
+     */
+    public abstract long reloadedBytes();
+
+    /**
+     * @return The total time spent reading spill files
+     */
+    public abstract Duration reloadTime();
+
+    static Stats create(long spilledValues, long spilledBytes, Duration spillTime,
+        long reloadedValues, long reloadedBytes, Duration reloadTime) {
+      return new AutoValue_SpillingMemoizingContext_Stats(
+          spilledValues, spilledBytes, spillTime, reloadedValues, reloadedBytes, reloadTime);
+    }
+  }
+}
@@ -22,47 +22,84 @@ package com.spotify.flo.context;
 
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.Fn;
-
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executor;
+import com.spotify.flo.Task;
 
 /**
  * A {@link EvalContext} that evaluates tasks immediately.
  *
+ * <p>Values are backed by {@link DirectPromise}, so an already computed value is held directly
+ * and callbacks run inline, without a {@link java.util.concurrent.CompletableFuture} or executor.
+ *
  * <p>This context is not thread safe.
  */
 public class SyncContext implements EvalContext {
 
-  private SyncContext() {
+  private final EvaluationTrampoline trampoline;
+
+  private SyncContext(EvaluationTrampoline trampoline) {
+    this.trampoline = trampoline;
   }
 
   public static EvalContext create() {
-    return new SyncContext();
+    return new SyncContext(null);
   }
 
-  @Override
-  public <T> Value<T> value(Fn<T> value) {
-    final Promise<T> promise = promise();
+  /**
+   * Create a synchronous context that evaluates task graphs of any depth in bounded stack depth.
+   *
+   * <p>Task evaluations and value callbacks are run through an {@link EvaluationTrampoline}, which
+   * runs them inline up to a fixed nesting depth and queues deeper ones to be run in a loop by the
+   * outermost call instead. Values are still computed on the calling thread and complete before the
+   * outermost {@link #evaluate(Task)}, {@link Promise#set(Object)} or
+   * {@link Promise#fail(Throwable)} call returns.
+   *
+   * @return A new synchronous evaluation context
+   */
+  public static EvalContext createTrampolined() {
+    return new SyncContext(new EvaluationTrampoline());
+  }
 
-    try {
-      promise.set(value.get());
-    } catch (Throwable t) {
-      promise.fail(t);
+  @Override
+  public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+    if (trampoline == null) {
+      return EvalContext.super.evaluateInternal(task, context);
     }
 
-    return promise.value();
+    final DirectPromise<T> promise = DirectPromise.create(this, trampoline);
+    trampoline.execute(() -> {
+      final Value<T> value;
+      try {
+        value = EvalContext.super.evaluateInternal(task, context);
+      } catch (Throwable t) {
+        promise.fail(t);
+        return;
+      }
+      value.consume(promise::set);
+      value.onFail(promise::fail);
+    });
+    return promise;
   }
 
   @Override
-  public <T> Promise<T> promise() {
-    return new FuturePromise<>(this, new SameThreadExecutor(), new CompletableFuture<>());
+  public <T> Value<T> value(Fn<T> value) {
+    final T t;
+    try {
+      t = value.get();
+    } catch (Throwable e) {
+      return DirectPromise.failed(this, e);
+    }
+    return DirectPromise.completed(this, t);
   }
 
-  private static class SameThreadExecutor implements Executor {
+  @Override
+  public <T> Value<T> immediateValue(T value) {
+    return DirectPromise.completed(this, value);
+  }
 
-    @Override
-    public void execute(Runnable command) {
-      command.run();
-    }
+  @Override
+  public <T> Promise<T> promise() {
+    return trampoline == null
+        ? DirectPromise.create(this)
+        : DirectPromise.create(this, trampoline);
   }
 }
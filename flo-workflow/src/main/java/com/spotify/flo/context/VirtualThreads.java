@@ -0,0 +1,171 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executors that start a new virtual thread for every task, for workloads where tasks spend most
+ * of their time blocked, e.g. operators that poll or wait for external jobs.
+ *
+ * <p>Virtual threads are looked up reflectively, so this works on any Java version. When the
+ * running JVM does not support virtual threads, an unbounded pool of cached daemon platform
+ * threads is used instead.
+ */
+public final class VirtualThreads {
+
+  private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+  private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = lookup();
+
+  private VirtualThreads() {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * @return true if the running JVM supports virtual threads
+   */
+  public static boolean isSupported() {
+    return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+  }
+
+  /**
+   * Create an executor that runs every task on a new virtual thread.
+   *
+   * @return A new executor
+   */
+  public static ExecutorService newExecutor() {
+    return newExecutor(0);
+  }
+
+  /**
+   * Create an executor that runs every task on a new virtual thread, with at most
+   * {@code maxConcurrency} tasks running at the same time.
+   *
+   * <p>Tasks that are submitted while the limit is reached still get their own thread, which
+   * waits on a {@link Semaphore} before running the task.
+   *
+   * @param maxConcurrency  The max number of concurrently running tasks, or 0 for no limit
+   * @return A new executor
+   */
+  public static ExecutorService newExecutor(int maxConcurrency) {
+    if (maxConcurrency < 0) {
+      throw new IllegalArgumentException("maxConcurrency must be >= 0, got " + maxConcurrency);
+    }
+    final ExecutorService executor = isSupported()
+        ? newVirtualThreadPerTaskExecutor()
+        : Executors.newCachedThreadPool(fallbackThreadFactory());
+    return maxConcurrency == 0
+        ? executor
+        : new BoundedExecutorService(executor, new Semaphore(maxConcurrency));
+  }
+
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Method lookup() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      LOG.debug("Virtual threads are not supported by this JVM, using platform threads");
+      return null;
+    }
+  }
+
+  private static ThreadFactory fallbackThreadFactory() {
+    final AtomicLong count = new AtomicLong(0);
+    return runnable -> {
+      final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+      thread.setName("flo-virtual-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * An {@link ExecutorService} that caps the number of concurrently running tasks of another
+   * executor with a {@link Semaphore}. The permit is taken on the executing thread.
+   */
+  private static final class BoundedExecutorService extends AbstractExecutorService {
+
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+
+    private BoundedExecutorService(ExecutorService delegate, Semaphore permits) {
+      this.delegate = Objects.requireNonNull(delegate);
+      this.permits = Objects.requireNonNull(permits);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      Objects.requireNonNull(command);
+      delegate.execute(() -> {
+        permits.acquireUninterruptibly();
+        try {
+          command.run();
+        } finally {
+          permits.release();
+        }
+      });
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.CancellationSignal.Registration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CancellationSignalTest {
+
+  private final CancellationSignal signal = CancellationSignal.create();
+
+  @Test
+  public void shouldRunListenersOnceOnCancel() {
+    final AtomicInteger runs = new AtomicInteger();
+    signal.onCancel(runs::incrementAndGet);
+
+    assertThat(signal.cancel(new RuntimeException("first")), is(true));
+    assertThat(signal.cancel(new RuntimeException("second")), is(false));
+
+    assertThat(runs.get(), is(1));
+    assertThat(signal.isCancelled(), is(true));
+    assertThat(signal.cause().getMessage(), is("first"));
+  }
+
+  @Test
+  public void shouldNotRunClosedListeners() {
+    final AtomicInteger runs = new AtomicInteger();
+    final Registration registration = signal.onCancel(runs::incrementAndGet);
+
+    registration.close();
+    signal.cancel(new RuntimeException());
+
+    assertThat(runs.get(), is(0));
+  }
+
+  @Test
+  public void shouldRunListenerImmediatelyWhenAlreadyCancelled() {
+    final AtomicInteger runs = new AtomicInteger();
+    signal.cancel(new RuntimeException());
+
+    signal.onCancel(runs::incrementAndGet);
+
+    assertThat(runs.get(), is(1));
+  }
+
+  @Test
+  public void shouldRunRemainingListenersWhenOneThrows() {
+    final AtomicInteger runs = new AtomicInteger();
+    signal.onCancel(() -> {
+      throw new RuntimeException();
+    });
+    signal.onCancel(runs::incrementAndGet);
+
+    signal.cancel(new RuntimeException());
+
+    assertThat(runs.get(), is(1));
+  }
+
+  @Test(expected = CancellationException.class)
+  public void shouldThrowIfCancelled() {
+    signal.throwIfCancelled();
+    signal.cancel(new RuntimeException());
+    signal.throwIfCancelled();
+  }
+
+  @Test
+  public void noneShouldNeverBeCancelled() {
+    final AtomicInteger runs = new AtomicInteger();
+    final CancellationSignal none = CancellationSignal.none();
+    none.onCancel(runs::incrementAndGet);
+
+    assertThat(none.cancel(new RuntimeException()), is(false));
+    assertThat(none.isCancellable(), is(false));
+    assertThat(none.isCancelled(), is(false));
+    assertThat(none.cause(), is(nullValue()));
+    assertThat(runs.get(), is(0));
+  }
+}
@@ -0,0 +1,159 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class CompactSerializerTest {
+
+  @Rule public ExpectedException exception = ExpectedException.none();
+
+  @Test
+  public void roundTripsTasks() throws Exception {
+    final Task<String> upstream = Task.named("upstream", 1).ofType(String.class)
+        .process(() -> "up");
+    final Task<String> task = Task.named("task").ofType(String.class)
+        .input(() -> upstream)
+        .inputs(() -> Arrays.asList(upstream, upstream))
+        .process((u, us) -> u + us);
+
+    final Task<String> copy = roundTrip(task);
+
+    assertThat(copy.id(), is(task.id()));
+    assertThat(copy.inputs().get(0).id(), is(upstream.id()));
+    final AwaitValue<String> value = new AwaitValue<>();
+    EvalContext.sync().evaluate(copy).consume(value);
+    assertThat(value.awaitAndGet(), is("up[up, up]"));
+  }
+
+  @Test
+  public void roundTripsValues() throws Exception {
+    final Map<String, List<Object>> map = new HashMap<>();
+    map.put("foo", Arrays.asList(1, 2L, 3.0, true, 'c', new int[0], Thread.State.NEW));
+    map.put("bar", Arrays.asList(int.class, String.class, new Value("baz")));
+
+    final Map<String, List<Object>> copy = roundTrip(map);
+
+    assertThat(copy.keySet(), is(map.keySet()));
+    assertThat(copy.get("foo").get(6), is(Thread.State.NEW));
+    assertThat(copy.get("bar").get(0), is(int.class));
+    assertThat(((Value) copy.get("bar").get(2)).value, is("baz"));
+  }
+
+  @Test
+  public void isSmallerThanJavaSerialization() throws Exception {
+    final Task<String> task = Task.named("task", "foo").ofType(String.class)
+        .process(() -> "foo");
+
+    final ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    CompactSerializer.INSTANCE.serialize(task, compact);
+    final ByteArrayOutputStream java = new ByteArrayOutputStream();
+    JavaSerializer.INSTANCE.serialize(task, java);
+
+    assertThat(compact.size(), is(lessThan(java.size())));
+  }
+
+  @Test
+  public void deserializationRecognizesBothFormats() throws Exception {
+    final ByteArrayOutputStream compact = new ByteArrayOutputStream();
+    CompactSerializer.INSTANCE.serialize("compact", compact);
+    final ByteArrayOutputStream java = new ByteArrayOutputStream();
+    JavaSerializer.INSTANCE.serialize("java", java);
+
+    assertThat(Serialization.deserialize(compact.toByteArray()), is("compact"));
+    assertThat(Serialization.deserialize(java.toByteArray()), is("java"));
+  }
+
+  @Test
+  public void shouldFailOnIncompatibleClassVersion() throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompactSerializer.INSTANCE.serialize(new Value("foo"), out);
+    final byte[] bytes = out.toByteArray();
+    final byte[] suid = ByteBuffer.allocate(Long.BYTES)
+        .putLong(ObjectStreamClass.lookup(Value.class).getSerialVersionUID()).array();
+    final int offset = indexOf(bytes, suid);
+    assertThat(offset, is(greaterThan(0)));
+    bytes[offset] ^= 1;
+
+    exception.expect(SerializationException.class);
+    exception.expectCause(instanceOf(InvalidClassException.class));
+    CompactSerializer.INSTANCE.deserialize(new ByteArrayInputStream(bytes));
+  }
+
+  @Test
+  public void shouldFailOnNonSerializableObject() throws Exception {
+    exception.expect(SerializationException.class);
+    exception.expectCause(instanceOf(NotSerializableException.class));
+    CompactSerializer.INSTANCE.serialize(new Object(), new ByteArrayOutputStream());
+  }
+
+  @Test
+  public void shouldFailOnUnknownSerializer() {
+    exception.expect(IllegalArgumentException.class);
+    exception.expectMessage(containsString("com.example.NoSuchSerializer"));
+    Serialization.setSerializer("com.example.NoSuchSerializer");
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T object) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CompactSerializer.INSTANCE.serialize(object, out);
+    return CompactSerializer.INSTANCE.deserialize(new ByteArrayInputStream(out.toByteArray()));
+  }
+
+  private static int indexOf(byte[] bytes, byte[] sequence) {
+    for (int i = 0; i + sequence.length <= bytes.length; i++) {
+      if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + sequence.length), sequence)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static class Value implements Serializable {
+
+    private final String value;
+
+    Value(String value) {
+      this.value = value;
+    }
+  }
+}
@@ -45,6 +45,8 @@ import java.lang.reflect.Method;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -198,6 +200,24 @@ public class SerializationTest {
     assertThat(deserialized.getStackTrace()[0].getMethodName(), is("exceptionSerialization"));
   }
 
+  @Test
+  public void serializeShouldWriteReplacements() throws Exception {
+    final Fn<String> fn = () -> "foo";
+    final String original = Serialization.serializerName();
+    try {
+      for (String serializer : Arrays.asList("java", "compact")) {
+        Serialization.setSerializer(serializer);
+        final List<Object> replaced = deserialize(serialize(Arrays.asList("foo", fn, "foo"),
+            o -> "foo".equals(o) ? new Replacement("bar") : o));
+        assertThat(replaced.get(0), is("bar"));
+        assertThat(replaced.get(1), is(instanceOf(Fn.class)));
+        assertThat(replaced.get(2), is("bar"));
+      }
+    } finally {
+      Serialization.setSerializer(original);
+    }
+  }
+
   @Test
   public void serializeShouldPropagateSerializationExceptions() throws SerializationException {
     exception.expect(SerializationException.class);
@@ -220,6 +240,19 @@ public class SerializationTest {
 
   }
 
+  private static class Replacement implements Serializable {
+
+    private final String value;
+
+    Replacement(String value) {
+      this.value = value;
+    }
+
+    private Object readResolve() throws ObjectStreamException {
+      return value;
+    }
+  }
+
   private static SerializedLambda serializedLambda(Object o) throws ReflectiveOperationException {
     final Method m = o.getClass().getDeclaredMethod("writeReplace");
     m.setAccessible(true);
@@ -0,0 +1,174 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.SerializationValidation.Mode;
+import java.io.Serializable;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class SerializationValidationTest {
+
+  @Rule public ExpectedException exception = ExpectedException.none();
+
+  @After
+  public void tearDown() {
+    SerializationValidation.setMode(Mode.STRICT);
+    SerializationValidation.setSampleRate(100);
+  }
+
+  @Test
+  public void strictShouldValidateEveryInstance() {
+    SerializationValidation.setMode(Mode.STRICT);
+    final long before = SerializationValidation.stats().validated();
+
+    final Fn<String> first = fn("a");
+    final Fn<String> second = fn("b");
+
+    assertThat(Serialization.requireSerializable(first, "fn"), is(not(sameInstance(first))));
+    assertThat(Serialization.requireSerializable(second, "fn"), is(not(sameInstance(second))));
+    assertThat(SerializationValidation.stats().validated() - before, is(2L));
+  }
+
+  @Test
+  public void firstPerClassShouldSkipVerifiedClasses() {
+    SerializationValidation.setMode(Mode.FIRST_PER_CLASS);
+    final long skippedBefore = SerializationValidation.stats().skipped();
+
+    final Fn<String> first = fn("a");
+    final Fn<String> second = fn("b");
+
+    assertThat(Serialization.requireSerializable(first, "fn"), is(not(sameInstance(first))));
+    assertThat(Serialization.requireSerializable(second, "fn"), is(sameInstance(second)));
+    assertThat(SerializationValidation.stats().skipped() - skippedBefore, is(1L));
+  }
+
+  @Test
+  public void firstPerClassShouldNotCacheFailures() {
+    SerializationValidation.setMode(Mode.FIRST_PER_CLASS);
+    final Object notSerializable = new Object();
+    final Fn<String> fn = () -> notSerializable.toString();
+
+    try {
+      Serialization.requireSerializable(fn, "fn");
+    } catch (IllegalArgumentException ignore) {
+    }
+
+    exception.expect(IllegalArgumentException.class);
+    exception.expectMessage("fn not serializable");
+    Serialization.requireSerializable(fn, "fn");
+  }
+
+  @Test
+  public void firstPerClassShouldValidateEveryInstanceOfOtherClasses() {
+    SerializationValidation.setMode(Mode.FIRST_PER_CLASS);
+    final Holder first = new Holder("a");
+    final Holder second = new Holder(new Object());
+
+    Serialization.requireSerializable(first, "holder");
+
+    exception.expect(IllegalArgumentException.class);
+    exception.expectMessage("holder not serializable");
+    Serialization.requireSerializable(second, "holder");
+  }
+
+  @Test
+  public void firstPerClassShouldNotRoundTripTasksOfValidatedComponents() {
+    SerializationValidation.setMode(Mode.FIRST_PER_CLASS);
+    task("a");
+    final long before = SerializationValidation.stats().validated();
+
+    task("b");
+
+    assertThat(SerializationValidation.stats().validated() - before, is(0L));
+  }
+
+  @Test
+  public void strictShouldRoundTripTasks() {
+    SerializationValidation.setMode(Mode.STRICT);
+    task("a");
+    final long before = SerializationValidation.stats().validated();
+
+    task("b");
+
+    // Two process fns, one input and two tasks
+    assertThat(SerializationValidation.stats().validated() - before, is(5L));
+  }
+
+  @Test
+  public void sampledShouldValidateEveryNthInstance() {
+    SerializationValidation.setMode(Mode.SAMPLED);
+    SerializationValidation.setSampleRate(3);
+    final long before = SerializationValidation.stats().validated();
+
+    for (int i = 0; i < 7; i++) {
+      Serialization.requireSerializable(fn(Integer.toString(i)), "fn");
+    }
+
+    // first instance verifies the class, then instances 4 and 7 are sampled
+    assertThat(SerializationValidation.stats().validated() - before, is(3L));
+  }
+
+  @Test
+  public void offShouldNotValidate() {
+    SerializationValidation.setMode(Mode.OFF);
+    final Object notSerializable = new Object();
+    final Fn<String> fn = () -> notSerializable.toString();
+
+    assertThat(Serialization.requireSerializable(fn, "fn"), is(sameInstance(fn)));
+  }
+
+  @Test
+  public void shouldParseModes() {
+    assertThat(Mode.parse("strict"), is(Mode.STRICT));
+    assertThat(Mode.parse("Sampled"), is(Mode.SAMPLED));
+    assertThat(Mode.parse("first-per-class"), is(Mode.FIRST_PER_CLASS));
+    assertThat(Mode.parse("OFF"), is(Mode.OFF));
+  }
+
+  private static Task<String> task(String s) {
+    final Task<String> upstream = Task.named("upstream", s).ofType(String.class)
+        .process(() -> s);
+    return Task.named("downstream", s).ofType(String.class)
+        .input(() -> upstream)
+        .process(u -> u + s);
+  }
+
+  private static Fn<String> fn(String value) {
+    return () -> value;
+  }
+
+  private static class Holder implements Serializable {
+
+    private final Object value;
+
+    private Holder(Object value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class TaskGraphTest {
+
+  private static final AtomicInteger expansions = new AtomicInteger();
+
+  @Test
+  public void shouldIndexDiamond() {
+    final Task<String> top = diamond();
+    final TaskGraph graph = TaskGraph.of(top);
+
+    assertThat(graph.size(), is(4));
+    assertThat(graph.root(), is(0));
+    assertThat(graph.id(graph.root()), is(top.id()));
+
+    final int left = graph.indexOf(TaskId.create("Left"));
+    final int right = graph.indexOf(TaskId.create("Right"));
+    final int bottom = graph.indexOf(TaskId.create("Bottom"));
+
+    assertThat(graph.inputCount(graph.root()), is(2));
+    assertThat(graph.input(graph.root(), 0), is(left));
+    assertThat(graph.input(graph.root(), 1), is(right));
+    assertThat(graph.inDegree(graph.root()), is(2));
+    assertThat(graph.outDegree(graph.root()), is(0));
+
+    assertThat(graph.inDegree(bottom), is(0));
+    assertThat(graph.outDegree(bottom), is(2));
+    assertThat(graph.indexOf(TaskId.create("Missing")), is(-1));
+  }
+
+  @Test
+  public void shouldKeepDuplicateInputsButCountDistinctDegrees() {
+    final Task<Integer> leaf = Task.named("Leaf").ofType(Integer.class).process(() -> 1);
+    final Task<Integer> sum = Task.named("Sum").ofType(Integer.class)
+        .input(() -> leaf)
+        .input(() -> leaf)
+        .process((a, b) -> a + b);
+
+    final TaskGraph graph = TaskGraph.of(sum);
+    final int leafNode = graph.indexOf(leaf.id());
+
+    assertThat(graph.inputCount(graph.root()), is(2));
+    assertThat(graph.input(graph.root(), 0), is(leafNode));
+    assertThat(graph.input(graph.root(), 1), is(leafNode));
+    assertThat(graph.inDegree(graph.root()), is(1));
+    assertThat(graph.outputCount(leafNode), is(1));
+    assertThat(graph.output(leafNode, 0), is(graph.root()));
+  }
+
+  @Test
+  public void shouldOrderInputsBeforeConsumers() {
+    final TaskGraph graph = TaskGraph.of(diamond());
+    final int[] order = graph.topologicalOrder();
+    final int[] position = new int[graph.size()];
+    for (int i = 0; i < order.length; i++) {
+      position[order[i]] = i;
+    }
+
+    assertThat(graph.isAcyclic(), is(true));
+    assertThat(order.length, is(graph.size()));
+    for (int node = 0; node < graph.size(); node++) {
+      for (int i = 0; i < graph.inputCount(node); i++) {
+        assertThat(position[graph.input(node, i)], lessThan(position[node]));
+      }
+    }
+  }
+
+  @Test
+  public void shouldDetectCycles() {
+    final TaskGraph graph = TaskGraph.of(self());
+
+    assertThat(graph.size(), is(1));
+    assertThat(graph.isAcyclic(), is(false));
+    assertThat(graph.topologicalOrder().length, is(0));
+  }
+
+  @Test
+  public void shouldExpandEachTaskOnce() {
+    expansions.set(0);
+    final Task<Integer> leaf = Task.named("Counted").ofType(Integer.class)
+        .input(() -> {
+          expansions.incrementAndGet();
+          return Task.named("Inner").ofType(Integer.class).process(() -> 1);
+        })
+        .process(i -> i);
+    final Task<Integer> top = Task.named("Top").ofType(Integer.class)
+        .input(() -> leaf)
+        .input(() -> leaf)
+        .process((a, b) -> a + b);
+
+    TaskGraph.of(top);
+
+    assertThat(expansions.get(), is(1));
+  }
+
+  @Test
+  public void shouldPlanDeepChain() {
+    final int depth = 20_000;
+    final TaskGraph graph = TaskGraph.of(chain(depth));
+
+    assertThat(graph.size(), is(depth + 1));
+    assertThat(graph.topologicalOrder()[0], is(graph.indexOf(chain(0).id())));
+
+    final TaskInfo taskInfo = TaskInfo.ofGraph(graph);
+    assertThat(taskInfo.id(), is(chain(depth).id()));
+  }
+
+  private static Task<String> diamond() {
+    final Task<String> bottom = Task.named("Bottom").ofType(String.class).process(() -> "b");
+    final Task<String> left = Task.named("Left").ofType(String.class)
+        .input(() -> bottom)
+        .process(b -> b + "l");
+    final Task<String> right = Task.named("Right").ofType(String.class)
+        .input(() -> bottom)
+        .process(b -> b + "r");
+    return Task.named("Top").ofType(String.class)
+        .input(() -> left)
+        .input(() -> right)
+        .process((l, r) -> l + r);
+  }
+
+  private static Task<String> self() {
+    return Task.named("Self").ofType(String.class)
+        .input(TaskGraphTest::self)
+        .process(s -> s);
+  }
+
+  private static Task<Integer> chain(int i) {
+    if (i == 0) {
+      return Task.named("Chain", i).ofType(Integer.class).process(() -> 0);
+    }
+    return Task.named("Chain", i).ofType(Integer.class)
+        .input(() -> chain(i - 1))
+        .process(prev -> prev + 1);
+  }
+}
@@ -0,0 +1,176 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.EvalContext.Promise;
+import com.spotify.flo.EvalContext.Value;
+import com.spotify.flo.context.FailFastContext;
+import com.spotify.flo.context.MemoizingContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Test;
+
+public class ValuesTest {
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void allOfShouldKeepOrder() {
+    final EvalContext context = EvalContext.sync();
+    final Promise<String> first = context.promise();
+    final Promise<String> second = context.promise();
+    final AtomicReference<List<String>> result = new AtomicReference<>();
+
+    Values.allOf(context, list(first.value(), second.value())).consume(result::set);
+
+    second.set("second");
+    assertThat(result.get(), is(nullValue()));
+    first.set("first");
+    assertThat(result.get(), contains("first", "second"));
+  }
+
+  @Test
+  public void allOfShouldCompleteForEmptyList() {
+    final EvalContext context = EvalContext.sync();
+    final AtomicReference<List<String>> result = new AtomicReference<>();
+
+    Values.<String>allOf(context, Collections.emptyList()).consume(result::set);
+
+    assertThat(result.get(), is(empty()));
+  }
+
+  @Test
+  public void allOfShouldPropagateFirstFailureWithOthersSuppressed() {
+    final EvalContext context = EvalContext.sync();
+    final Promise<String> first = context.promise();
+    final Promise<String> second = context.promise();
+    final Promise<String> third = context.promise();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final RuntimeException secondError = new RuntimeException("second");
+    final RuntimeException thirdError = new RuntimeException("third");
+
+    Values.allOf(context, list(first.value(), second.value(), third.value()))
+        .onFail(failure::set);
+
+    third.fail(thirdError);
+    second.fail(secondError);
+    assertThat(failure.get(), is(nullValue()));
+    first.set("first");
+
+    assertThat(failure.get(), is(secondError));
+    assertThat(secondError.getSuppressed(), arrayContaining(thirdError));
+  }
+
+  @Test
+  public void allOfShouldJoinWideFanIn() throws Exception {
+    final EvalContext context = EvalContext.async(executor);
+    final int n = 50_000;
+    final List<Promise<Integer>> promises = IntStream.range(0, n)
+        .mapToObj(i -> context.<Integer>promise())
+        .collect(toList());
+    final List<Value<Integer>> values = promises.stream()
+        .map(Promise::value)
+        .collect(toList());
+
+    final Value<List<Integer>> joined = Values.allOf(context, values);
+    for (int i = n - 1; i >= 0; i--) {
+      promises.get(i).set(i);
+    }
+
+    final List<Integer> result = joined.toFuture().get(30, TimeUnit.SECONDS);
+    assertThat(result, is(IntStream.range(0, n).boxed().collect(toList())));
+  }
+
+  @Test
+  public void allOfShouldFailFastWithCancellableSignal() {
+    final EvalContext context = FailFastContext.composeWith(EvalContext.sync());
+    final Promise<String> first = context.promise();
+    final Promise<String> second = context.promise();
+    final AtomicReference<Throwable> result = new AtomicReference<>();
+    final RuntimeException failure = new RuntimeException("second");
+
+    Values.allOf(context, list(first.value(), second.value())).onFail(result::set);
+
+    second.fail(failure);
+    assertThat(result.get(), is(failure));
+    first.set("first");
+    assertThat(result.get(), is(failure));
+  }
+
+  @Test
+  public void mapBothShouldFailFastWithCancellableSignal() {
+    final EvalContext context = FailFastContext.composeWith(EvalContext.sync());
+    final Promise<String> first = context.promise();
+    final Promise<String> second = context.promise();
+    final AtomicReference<Throwable> result = new AtomicReference<>();
+    final RuntimeException failure = new RuntimeException("second");
+
+    Values.mapBoth(context, first.value(), second.value(), (a, b) -> a + b).onFail(result::set);
+
+    second.fail(failure);
+    assertThat(result.get(), is(failure));
+  }
+
+  @Test
+  public void shouldEvaluateWideFanInTask() throws Exception {
+    final int n = 10_000;
+    final Task<Integer> sum = Task.named("Sum").ofType(Integer.class)
+        .inputs(() -> IntStream.range(0, n).mapToObj(ValuesTest::partition).collect(toList()))
+        .process(partitions -> partitions.stream().mapToInt(Integer::intValue).sum());
+
+    final EvalContext context = MemoizingContext.composeWith(EvalContext.async(executor));
+    final int result = context.evaluate(sum).toFuture().get(30, TimeUnit.SECONDS);
+
+    assertThat(result, is(IntStream.range(0, n).sum()));
+  }
+
+  private static Task<Integer> partition(int i) {
+    return Task.named("Partition", i).ofType(Integer.class)
+        .process(() -> i);
+  }
+
+  @SafeVarargs
+  private static <T> List<Value<T>> list(Value<T>... values) {
+    final List<Value<T>> list = new ArrayList<>();
+    Collections.addAll(list, values);
+    return list;
+  }
+}
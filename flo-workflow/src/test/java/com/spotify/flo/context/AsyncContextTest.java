@@ -35,9 +35,13 @@ import com.spotify.flo.Task;
 import com.spotify.flo.TaskId;
 import io.grpc.Context;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 import org.junit.Test;
 
 public class AsyncContextTest {
@@ -290,4 +294,90 @@ public class AsyncContextTest {
       assertThat(future.get(30, TimeUnit.SECONDS), is(value));
     }
   }
+
+  @Test
+  public void inlineContinuationsShouldRunOnCompletingThread() throws Exception {
+    final EvalContext inline = AsyncContext.createInline(Executors.newSingleThreadExecutor());
+    final String outerThread = Thread.currentThread().getName();
+    final AtomicReference<String> mapThread = new AtomicReference<>();
+    final AwaitValue<String> val = new AwaitValue<>();
+    final Promise<String> promise = inline.promise();
+
+    promise.value()
+        .map(hello -> {
+          mapThread.set(Thread.currentThread().getName());
+          return hello + " world";
+        })
+        .flatMap(helloWorld -> inline.immediateValue(helloWorld + "!"))
+        .consume(val);
+
+    promise.set("hello");
+    assertThat(val.awaitAndGet(), is("hello world!"));
+    assertThat(mapThread.get(), is(outerThread));
+    assertThat(val.acceptingThreadName(), is(outerThread));
+  }
+
+  @Test
+  public void inlineContinuationsShouldPropagateFailure() throws Exception {
+    final EvalContext inline = AsyncContext.createInline(Executors.newSingleThreadExecutor());
+    final AwaitValue<Throwable> val = new AwaitValue<>();
+    final Promise<String> promise = inline.promise();
+    final Throwable thrown = new Throwable();
+
+    promise.value()
+        .map(s -> s + " world")
+        .flatMap(s -> inline.immediateValue(s + "!"))
+        .onFail(val);
+
+    promise.fail(thrown);
+    assertTrue(val.awaitAndGet() == thrown);
+  }
+
+  @Test
+  public void inlineContinuationsShouldDispatchLessWork() throws Exception {
+    final Task<Integer> task = chain(100);
+
+    final int dispatched = dispatchesToEvaluate(AsyncContext::create, task);
+    final int inlineDispatched = dispatchesToEvaluate(AsyncContext::createInline, task);
+
+    // Task evaluation and process fn invocation, for each of the 101 tasks
+    assertThat(inlineDispatched, is(2 * 101));
+    assertTrue(inlineDispatched * 2 < dispatched);
+  }
+
+  private static int dispatchesToEvaluate(
+      Function<Executor, EvalContext> contextFactory, Task<Integer> task) throws Exception {
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    final AtomicInteger dispatches = new AtomicInteger();
+    final Executor counting = command -> {
+      dispatches.incrementAndGet();
+      executor.execute(command);
+    };
+    final EvalContext evalContext = MemoizingContext.composeWith(
+        InstrumentedContext.composeWith(contextFactory.apply(counting), new NoopListener()));
+
+    assertThat(evalContext.evaluate(task).toFuture().get(30, TimeUnit.SECONDS), is(100));
+    executor.shutdown();
+    return dispatches.get();
+  }
+
+  private static Task<Integer> chain(int i) {
+    if (i == 0) {
+      return Task.named("Chain", i).ofType(Integer.class).process(() -> 0);
+    }
+    return Task.named("Chain", i).ofType(Integer.class)
+        .input(() -> chain(i - 1))
+        .process(prev -> prev + 1);
+  }
+
+  private static class NoopListener implements InstrumentedContext.Listener {
+
+    @Override
+    public void task(Task<?> task) {
+    }
+
+    @Override
+    public void status(TaskId task, Phase phase) {
+    }
+  }
 }
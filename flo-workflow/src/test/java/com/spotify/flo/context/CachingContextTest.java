@@ -0,0 +1,267 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static com.spotify.flo.EvalContext.sync;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.AwaitValue;
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskContextGeneric;
+import com.spotify.flo.TaskOperator;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingContextTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final AtomicInteger upstreamCount = new AtomicInteger(0);
+  private static final AtomicInteger downstreamCount = new AtomicInteger(0);
+  private static final AtomicInteger performCount = new AtomicInteger(0);
+  private static final AtomicInteger onSuccessCount = new AtomicInteger(0);
+
+  private Path directory;
+
+  @Before
+  public void setUp() throws Exception {
+    upstreamCount.set(0);
+    downstreamCount.set(0);
+    performCount.set(0);
+    onSuccessCount.set(0);
+    directory = temporaryFolder.newFolder().toPath();
+  }
+
+  @Test
+  public void servesResultsOfEarlierRuns() throws Exception {
+    final CachingContext first = cachingContext("v1");
+    assertThat(evalAndGet(first, downstream("a")), is("a!"));
+    assertThat(first.stats().misses(), is(2L));
+    assertThat(first.stats().writes(), is(2L));
+
+    final CachingContext second = cachingContext("v1");
+    assertThat(evalAndGet(second, downstream("a")), is("a!"));
+    assertThat(second.stats().hits(), is(1L));
+    assertThat(second.stats().misses(), is(0L));
+
+    assertThat(upstreamCount.get(), is(1));
+    assertThat(downstreamCount.get(), is(1));
+  }
+
+  @Test
+  public void evaluatesTasksWithChangedInputs() throws Exception {
+    evalAndGet(cachingContext("v1"), downstream("a"));
+
+    final CachingContext context = cachingContext("v1");
+    assertThat(evalAndGet(context, downstream("b")), is("b!"));
+    assertThat(context.stats().hits(), is(0L));
+
+    assertThat(upstreamCount.get(), is(2));
+    assertThat(downstreamCount.get(), is(2));
+  }
+
+  @Test
+  public void evaluatesTasksOfOtherVersions() throws Exception {
+    evalAndGet(cachingContext("v1"), downstream("a"));
+
+    final CachingContext context = cachingContext("v2");
+    assertThat(evalAndGet(context, downstream("a")), is("a!"));
+    assertThat(context.stats().hits(), is(0L));
+
+    assertThat(downstreamCount.get(), is(2));
+  }
+
+  @Test
+  public void servesUnchangedInputsFromCache() throws Exception {
+    evalAndGet(cachingContext("v1"), upstream("a"));
+
+    final CachingContext context = cachingContext("v1");
+    assertThat(evalAndGet(context, downstream("a")), is("a!"));
+    assertThat(context.stats().hits(), is(1L));
+    assertThat(context.stats().misses(), is(1L));
+
+    assertThat(upstreamCount.get(), is(1));
+    assertThat(downstreamCount.get(), is(1));
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsedEntries() throws Exception {
+    final CachingContext unbounded = cachingContext("v1");
+    evalAndGet(unbounded, upstream("a"));
+    evalAndGet(unbounded, upstream("b"));
+    final List<Path> entries = entries();
+    assertThat(entries.size(), is(2));
+    final long entrySize = Files.size(entries.get(0));
+
+    // Make the entry of a the most recently used one
+    entries.forEach(this::age);
+    evalAndGet(cachingContext("v1"), upstream("a"));
+
+    final CachingContext bounded =
+        CachingContext.composeWith(sync(), directory, 2 * entrySize, "v1");
+    evalAndGet(bounded, upstream("c"));
+    assertThat(bounded.stats().evictions(), is(1L));
+    assertThat(entries().size(), is(2));
+
+    final CachingContext context = cachingContext("v1");
+    evalAndGet(context, upstream("a"));
+    evalAndGet(context, upstream("b"));
+    assertThat(context.stats().hits(), is(1L));
+    assertThat(context.stats().misses(), is(1L));
+  }
+
+  @Test
+  public void evaluatesTasksWithCorruptEntries() throws Exception {
+    evalAndGet(cachingContext("v1"), upstream("a"));
+    for (Path entry : entries()) {
+      Files.write(entry, new byte[] {1, 2, 3});
+    }
+
+    final CachingContext context = cachingContext("v1");
+    assertThat(evalAndGet(context, upstream("a")), is("a"));
+    assertThat(context.stats().misses(), is(1L));
+    assertThat(upstreamCount.get(), is(2));
+
+    assertThat(evalAndGet(cachingContext("v1"), upstream("a")), is("a"));
+    assertThat(upstreamCount.get(), is(2));
+  }
+
+  @Test
+  public void doesNotCacheNonSerializableResults() throws Exception {
+    final Task<Object> task = Task.named("NonSerializable").ofType(Object.class)
+        .process(Object::new);
+    final CachingContext context = cachingContext("v1");
+
+    evalAndGet(context, task);
+
+    assertThat(context.stats().writes(), is(0L));
+    assertThat(entries().size(), is(0));
+  }
+
+  @Test
+  public void alwaysEvaluatesTasksWithOperators() throws Exception {
+    final Task<String> task = Task.named("Operator").ofType(String.class)
+        .operator(new Operator())
+        .process(operator -> "spec");
+
+    assertThat(evalAndGet(cachingContext("v1"), task), is("spec performed"));
+    final CachingContext context = cachingContext("v1");
+    assertThat(evalAndGet(context, task), is("spec performed"));
+
+    assertThat(context.stats().hits(), is(0L));
+    assertThat(performCount.get(), is(2));
+    assertThat(entries().size(), is(0));
+  }
+
+  @Test
+  public void alwaysEvaluatesTasksWithContexts() throws Exception {
+    final Task<String> task = Task.named("Context").ofType(String.class)
+        .context(new Hooks())
+        .process(hooks -> hooks);
+
+    assertThat(evalAndGet(cachingContext("v1"), task), is("hooks"));
+    final CachingContext context = cachingContext("v1");
+    assertThat(evalAndGet(context, task), is("hooks"));
+
+    assertThat(context.stats().hits(), is(0L));
+    assertThat(onSuccessCount.get(), is(2));
+  }
+
+  private CachingContext cachingContext(String version) {
+    return CachingContext.composeWith(sync(), directory, Long.MAX_VALUE, version);
+  }
+
+  private List<Path> entries() throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.collect(Collectors.toList());
+    }
+  }
+
+  private void age(Path entry) {
+    try {
+      Files.setLastModifiedTime(entry, FileTime.fromMillis(0));
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Task<String> upstream(String s) {
+    return Task.named("Upstream", s).ofType(String.class)
+        .process(() -> {
+          upstreamCount.incrementAndGet();
+          return s;
+        });
+  }
+
+  private static Task<String> downstream(String s) {
+    final Task<String> upstream = upstream(s);
+    return Task.named("Downstream").ofType(String.class)
+        .input(() -> upstream)
+        .process(u -> {
+          downstreamCount.incrementAndGet();
+          return u + "!";
+        });
+  }
+
+  private static <T> T evalAndGet(EvalContext context, Task<T> task) throws InterruptedException {
+    AwaitValue<T> val = new AwaitValue<>();
+    context.evaluate(task).consume(val);
+    return val.awaitAndGet();
+  }
+
+  private static class Operator implements TaskOperator<Operator, String, String> {
+
+    @Override
+    public Operator provide(EvalContext evalContext) {
+      return this;
+    }
+
+    @Override
+    public String perform(String spec, Listener listener) {
+      performCount.incrementAndGet();
+      return spec + " performed";
+    }
+  }
+
+  private static class Hooks extends TaskContextGeneric<String> {
+
+    @Override
+    public String provide(EvalContext evalContext) {
+      return "hooks";
+    }
+
+    @Override
+    public void onSuccess(Task<?> task, Object z) {
+      onSuccessCount.incrementAndGet();
+    }
+  }
+}
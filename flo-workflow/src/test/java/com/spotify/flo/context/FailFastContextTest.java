@@ -0,0 +1,143 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Task;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FailFastContextTest {
+
+  private static final AtomicInteger invocations = new AtomicInteger();
+  private static CountDownLatch started;
+  private static CountDownLatch interrupted;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+  @Before
+  public void setUp() {
+    invocations.set(0);
+    started = new CountDownLatch(1);
+    interrupted = new CountDownLatch(1);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldNotEvaluateTasksAfterFailure() throws Exception {
+    final EvalContext context = FailFastContext.composeWith(EvalContext.sync());
+    final Task<String> failing = failing();
+    final Task<String> counting = Task.named("Counting").ofType(String.class)
+        .process(() -> {
+          invocations.incrementAndGet();
+          return "counting";
+        });
+    final Task<String> consumer = Task.named("Consumer").ofType(String.class)
+        .input(() -> failing)
+        .input(() -> counting)
+        .process((f, c) -> f + c);
+
+    final AtomicReference<Throwable> result = new AtomicReference<>();
+    context.evaluate(consumer).onFail(result::set);
+
+    assertThat(result.get().getMessage(), is("boom"));
+    assertThat(invocations.get(), is(0));
+    assertThat(context.cancellationSignal().isCancelled(), is(true));
+    assertFalse(Thread.currentThread().isInterrupted());
+  }
+
+  @Test
+  public void shouldFailProcessFnThatHasNotStarted() throws Exception {
+    final EvalContext context = FailFastContext.composeWith(EvalContext.sync());
+    context.cancellationSignal().cancel(new RuntimeException("boom"));
+
+    final AtomicReference<Throwable> result = new AtomicReference<>();
+    context.invokeProcessFn(failing().id(), () -> "foo").onFail(result::set);
+
+    assertThat(result.get(), is(instanceOf(CancellationException.class)));
+    assertThat(result.get().getCause().getMessage(), is("boom"));
+  }
+
+  @Test
+  public void shouldInterruptRunningSiblings() throws Exception {
+    final EvalContext context = MemoizingContext.composeWith(
+        FailFastContext.composeWith(EvalContext.async(executor)));
+    final Task<String> slow = Task.named("Slow").ofType(String.class)
+        .process(() -> {
+          started.countDown();
+          try {
+            Thread.sleep(60_000);
+          } catch (InterruptedException e) {
+            interrupted.countDown();
+            throw new RuntimeException(e);
+          }
+          return "slow";
+        });
+    final Task<String> failing = Task.named("FailingAfterSlow").ofType(String.class)
+        .process(() -> {
+          try {
+            started.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          throw new RuntimeException("boom");
+        });
+    final Task<String> consumer = Task.named("Consumer").ofType(String.class)
+        .input(() -> slow)
+        .input(() -> failing)
+        .process((s, f) -> s + f);
+
+    try {
+      context.evaluate(consumer).toFuture().get(30, TimeUnit.SECONDS);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause().getMessage(), is("boom"));
+    }
+    assertTrue(interrupted.await(30, TimeUnit.SECONDS));
+  }
+
+  private static Task<String> failing() {
+    return Task.named("Failing").ofType(String.class)
+        .process(() -> {
+          throw new RuntimeException("boom");
+        });
+  }
+}
@@ -0,0 +1,87 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Task;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class ForkJoinContextTest {
+
+  private final ForkJoinPool pool = new ForkJoinPool(2);
+  private final EvalContext context = MemoizingContext.composeWith(ForkJoinContext.create(pool));
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void shouldEvaluateRecursiveAggregation() throws Exception {
+    assertThat(context.evaluate(fib(20)).toFuture().get(30, TimeUnit.SECONDS), is(6765L));
+  }
+
+  @Test
+  public void shouldRunContinuationsOnPool() throws Exception {
+    final Thread thread = context.immediateValue("foo")
+        .map(foo -> Thread.currentThread())
+        .toFuture().get(30, TimeUnit.SECONDS);
+
+    assertThat(thread, is(instanceOf(ForkJoinWorkerThread.class)));
+  }
+
+  @Test
+  public void blockingShouldLetPoolCompensate() throws Exception {
+    final ForkJoinPool single = new ForkJoinPool(1);
+    final CountDownLatch latch = new CountDownLatch(1);
+    try {
+      // The first task blocks the only worker until a second task on the same pool has run
+      final Future<Boolean> blocked = single.submit(() -> Blocking.call(() -> {
+        single.execute(latch::countDown);
+        return latch.await(30, TimeUnit.SECONDS);
+      }));
+
+      assertThat(blocked.get(30, TimeUnit.SECONDS), is(true));
+    } finally {
+      single.shutdownNow();
+    }
+  }
+
+  private static Task<Long> fib(long n) {
+    if (n < 2) {
+      return Task.named("Fib", n).ofType(Long.class).process(() -> n);
+    }
+    return Task.named("Fib", n).ofType(Long.class)
+        .input(() -> fib(n - 1))
+        .input(() -> fib(n - 2))
+        .process((a, b) -> a + b);
+  }
+}
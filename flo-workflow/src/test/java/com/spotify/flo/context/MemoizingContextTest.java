@@ -22,12 +22,16 @@ package com.spotify.flo.context;
 
 import static com.spotify.flo.EvalContext.sync;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import com.google.auto.value.AutoValue;
 import com.spotify.flo.AwaitValue;
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.Task;
+import com.spotify.flo.TaskId;
+import java.lang.ref.WeakReference;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
 import org.junit.Test;
@@ -37,6 +41,7 @@ public class MemoizingContextTest {
   private EvalContext context = MemoizingContext.composeWith(sync());
 
   private static final AtomicInteger counter = new AtomicInteger(0);
+  private static WeakReference<int[]> produced;
 
   @Before
   public void setUp() throws Exception {
@@ -67,6 +72,94 @@ public class MemoizingContextTest {
     assertThat(counter.get(), is(2)); // called once more
   }
 
+  @Test
+  public void evictingContextDeDuplicatesSameTasks() throws Exception {
+    context = MemoizingContext.composeWithEviction(sync());
+    Task<Integer> count = Task.named("Count").ofType(Integer.class)
+        .process(() -> counter.incrementAndGet());
+
+    Task<Integer> sum = Task.named("Sum").ofType(Integer.class)
+        .input(() -> count)
+        .input(() -> count)
+        .input(() -> count)
+        .process((a, b, c) -> a + b + c);
+
+    assertThat(evalAndGet(sum), is(3));
+    assertThat(counter.get(), is(1)); // only called once
+  }
+
+  @Test
+  public void evictingContextReleasesValueAfterLastConsumer() throws Exception {
+    context = MemoizingContext.composeWithEviction(sync());
+
+    assertThat(evalAndGet(consumers()), is(2));
+    for (int i = 0; i < 10 && produced.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertThat(produced.get(), is(nullValue()));
+  }
+
+  @Test
+  public void retainingContextKeepsValue() throws Exception {
+    assertThat(evalAndGet(consumers()), is(2));
+    System.gc();
+    assertThat(produced.get(), is(notNullValue()));
+  }
+
+  @Test
+  public void evictingContextReEvaluatesLateDuplicateRequest() throws Exception {
+    context = MemoizingContext.composeWithEviction(sync());
+    Task<Integer> count = Task.named("Count").ofType(Integer.class)
+        .process(() -> counter.incrementAndGet());
+
+    assertThat(evalAndGet(count), is(1));
+
+    // evaluated again, and retained from then on
+    assertThat(evalAndGet(count), is(2));
+    assertThat(evalAndGet(count), is(2));
+    assertThat(counter.get(), is(2));
+  }
+
+  @Test
+  public void evictingContextRetainsValueRequestedFewerTimesThanPlanned() throws Exception {
+    final Task<Integer> consumers = consumers();
+    final TaskId second = consumers.inputs().get(1).id();
+    context = new ForwardingEvalContext(MemoizingContext.composeWithEviction(sync())) {
+      @SuppressWarnings("unchecked")
+      @Override
+      public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+        // Short-circuits the second consumer of the large value
+        return task.id().equals(second)
+            ? immediateValue((T) (Integer) 1)
+            : super.evaluateInternal(task, context);
+      }
+    };
+
+    assertThat(evalAndGet(consumers), is(2));
+    System.gc();
+    assertThat(produced.get(), is(notNullValue()));
+  }
+
+  private static Task<Integer> consumers() {
+    Task<int[]> large = Task.named("Large").ofType(int[].class)
+        .process(() -> {
+          final int[] data = new int[1 << 20];
+          produced = new WeakReference<>(data);
+          return data;
+        });
+    Task<Integer> first = Task.named("First").ofType(Integer.class)
+        .input(() -> large)
+        .process(data -> 1);
+    Task<Integer> second = Task.named("Second").ofType(Integer.class)
+        .input(() -> large)
+        .process(data -> 1);
+    return Task.named("Both").ofType(Integer.class)
+        .input(() -> first)
+        .input(() -> second)
+        .process((a, b) -> a + b);
+  }
+
   private <T> T evalAndGet(Task<T> task) throws InterruptedException {
     AwaitValue<T> val = new AwaitValue<>();
     context.evaluate(task).consume(val);
@@ -0,0 +1,299 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskContextGeneric;
+import com.spotify.flo.TaskId;
+import com.spotify.flo.context.InstrumentedContext.Listener;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PlanContextTest {
+
+  private static final int LAYERS = 5;
+  private static final int LAYER_WIDTH = 20;
+
+  private static final AtomicInteger invocations = new AtomicInteger();
+  private static final List<String> hooks = Collections.synchronizedList(new ArrayList<>());
+  private static volatile WeakReference<byte[]> produced;
+
+  private final ExecutorService executor = Executors.newFixedThreadPool(4);
+  private final EvalContext context = PlanContext.create(executor);
+
+  @Before
+  public void setUp() {
+    invocations.set(0);
+    hooks.clear();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void shouldEvaluateEachTaskOnce() throws Exception {
+    final Task<String> bottom = Task.named("Bottom").ofType(String.class)
+        .process(() -> {
+          invocations.incrementAndGet();
+          return "b";
+        });
+    final Task<String> left = Task.named("Left").ofType(String.class)
+        .input(() -> bottom)
+        .process(b -> b + "l");
+    final Task<String> right = Task.named("Right").ofType(String.class)
+        .input(() -> bottom)
+        .input(() -> bottom)
+        .process((b1, b2) -> b1 + b2 + "r");
+    final Task<String> top = Task.named("Top").ofType(String.class)
+        .input(() -> left)
+        .input(() -> right)
+        .process((l, r) -> l + r);
+
+    assertThat(evaluate(context, top), is("blbbr"));
+    assertThat(invocations.get(), is(1));
+  }
+
+  @Test
+  public void shouldEvaluateListInputsInOrder() throws Exception {
+    final Task<List<Integer>> collect = Task.named("Collect").ofType(integers())
+        .inputs(() -> IntStream.range(0, 100).mapToObj(PlanContextTest::leaf).collect(toList()))
+        .process(leaves -> leaves);
+
+    assertThat(evaluate(context, collect),
+        is(IntStream.range(0, 100).boxed().collect(toList())));
+  }
+
+  @Test
+  public void shouldCallTaskContextHooks() throws Exception {
+    final Task<String> upstream = Task.named("Upstream").ofType(String.class)
+        .context(new Hooks())
+        .process((h) -> "up");
+    final Task<String> downstream = Task.named("Downstream").ofType(String.class)
+        .context(new Hooks())
+        .input(() -> upstream)
+        .process((h, up) -> up + "down");
+
+    assertThat(evaluate(context, downstream), is("updown"));
+    assertThat(hooks, contains(
+        "preRun " + upstream.id(), "onSuccess " + upstream.id() + " up",
+        "preRun " + downstream.id(), "onSuccess " + downstream.id() + " updown"));
+  }
+
+  @Test
+  public void shouldPropagateFailuresWithoutRunningConsumers() throws Exception {
+    final Task<String> failing = Task.named("Failing").ofType(String.class)
+        .context(new Hooks())
+        .process(h -> {
+          throw new RuntimeException("boom");
+        });
+    final Task<String> independent = Task.named("Independent").ofType(String.class)
+        .process(() -> {
+          invocations.incrementAndGet();
+          return "i";
+        });
+    final Task<String> consumer = Task.named("Consumer").ofType(String.class)
+        .context(new Hooks())
+        .input(() -> failing)
+        .input(() -> independent)
+        .process((h, f, i) -> f + i);
+
+    try {
+      evaluate(context, consumer);
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause().getMessage(), is("boom"));
+    }
+    assertThat(invocations.get(), is(1));
+    assertThat(hooks, contains("preRun " + failing.id(), "onFail " + failing.id() + " boom"));
+  }
+
+  @Test
+  public void shouldFailOnDependencyCycle() throws Exception {
+    try {
+      evaluate(context, self());
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), is(instanceOf(IllegalStateException.class)));
+    }
+  }
+
+  @Test
+  public void shouldRequestEachTaskThroughComposedContext() throws Exception {
+    final List<TaskId> discovered = Collections.synchronizedList(new ArrayList<>());
+    final List<TaskId> started = Collections.synchronizedList(new ArrayList<>());
+    final Listener listener = new Listener() {
+      @Override
+      public void task(Task<?> task) {
+        discovered.add(task.id());
+      }
+
+      @Override
+      public void status(TaskId task, Phase phase) {
+        if (phase == Phase.START) {
+          started.add(task);
+        }
+      }
+    };
+    final EvalContext composed = MemoizingContext.composeWith(
+        InstrumentedContext.composeWith(context, listener));
+
+    final Task<Integer> leaf = leaf(1);
+    final Task<Integer> sum = Task.named("Sum").ofType(Integer.class)
+        .input(() -> leaf)
+        .input(() -> leaf)
+        .process((a, b) -> a + b);
+
+    assertThat(evaluate(composed, sum), is(2));
+    assertThat(discovered, containsInAnyOrder(leaf.id(), sum.id()));
+    assertThat(started, contains(leaf.id(), sum.id()));
+  }
+
+  @Test
+  public void shouldNotEvaluateInputsOfShortCircuitedTasks() throws Exception {
+    final Task<String> upstream = Task.named("Upstream").ofType(String.class)
+        .process(() -> {
+          invocations.incrementAndGet();
+          return "up";
+        });
+    final Task<String> shortCircuited = Task.named("ShortCircuited").ofType(String.class)
+        .input(() -> upstream)
+        .process(up -> up + "!");
+    final Task<String> top = Task.named("Top").ofType(String.class)
+        .input(() -> shortCircuited)
+        .process(s -> s + "top");
+    final EvalContext composed = new ForwardingEvalContext(context) {
+      @SuppressWarnings("unchecked")
+      @Override
+      public <T> Value<T> evaluateInternal(Task<T> task, EvalContext context) {
+        if (task.id().equals(shortCircuited.id())) {
+          return immediateValue((T) "cached");
+        }
+        return super.evaluateInternal(task, context);
+      }
+    };
+
+    assertThat(evaluate(composed, top), is("cachedtop"));
+    assertThat(invocations.get(), is(0));
+  }
+
+  @Test
+  public void shouldReleaseResultsOnceConsumed() throws Exception {
+    final Task<byte[]> large = Task.named("Large").ofType(byte[].class)
+        .process(() -> {
+          final byte[] bytes = new byte[1 << 20];
+          produced = new WeakReference<>(bytes);
+          return bytes;
+        });
+    final Task<Integer> length = Task.named("Length").ofType(Integer.class)
+        .input(() -> large)
+        .process(bytes -> bytes.length);
+    final Task<Boolean> released = Task.named("Released").ofType(Boolean.class)
+        .input(() -> length)
+        .process(l -> {
+          for (int i = 0; i < 50 && produced.get() != null; i++) {
+            System.gc();
+          }
+          return produced.get() == null;
+        });
+
+    assertThat(evaluate(context, released), is(true));
+  }
+
+  @Test
+  public void shouldEvaluateWideLayeredGraph() throws Exception {
+    assertThat(evaluate(context, layer(LAYERS, 0)), is(LAYER_WIDTH - 1 + LAYERS));
+  }
+
+  private static <T> T evaluate(EvalContext context, Task<T> task) throws Exception {
+    return context.evaluate(task).toFuture().get(30, TimeUnit.SECONDS);
+  }
+
+  private static Task<Integer> leaf(int i) {
+    return Task.named("Leaf", i).ofType(Integer.class).process(() -> i);
+  }
+
+  private static Task<Integer> layer(int level, int i) {
+    if (level == 0) {
+      return leaf(i);
+    }
+    return Task.named("Layer", level, i).ofType(Integer.class)
+        .inputs(() -> IntStream.range(0, LAYER_WIDTH)
+            .mapToObj(j -> layer(level - 1, j))
+            .collect(toList()))
+        .process(values -> values.stream().mapToInt(Integer::intValue).max().getAsInt() + 1);
+  }
+
+  private static Task<String> self() {
+    return Task.named("Self").ofType(String.class)
+        .input(PlanContextTest::self)
+        .process(s -> s);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Class<List<Integer>> integers() {
+    return (Class<List<Integer>>) (Class<?>) List.class;
+  }
+
+  private static class Hooks extends TaskContextGeneric<String> {
+
+    @Override
+    public String provide(EvalContext evalContext) {
+      return "hooks";
+    }
+
+    @Override
+    public void preRun(Task<?> task) {
+      hooks.add("preRun " + task.id());
+    }
+
+    @Override
+    public void onSuccess(Task<?> task, Object z) {
+      hooks.add("onSuccess " + task.id() + " " + z);
+    }
+
+    @Override
+    public void onFail(Task<?> task, Throwable throwable) {
+      hooks.add("onFail " + task.id() + " " + throwable.getMessage());
+    }
+  }
+}
@@ -0,0 +1,161 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static com.spotify.flo.EvalContext.sync;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.AwaitValue;
+import com.spotify.flo.Task;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillingMemoizingContextTest {
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final AtomicInteger counter = new AtomicInteger(0);
+
+  private Path directory;
+  private SpillingMemoizingContext context;
+
+  @Before
+  public void setUp() throws Exception {
+    counter.set(0);
+    directory = temporaryFolder.newFolder().toPath();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (context != null) {
+      context.close();
+    }
+  }
+
+  @Test
+  public void deDuplicatesSameTasks() throws Exception {
+    context = SpillingMemoizingContext.composeWith(sync(), Long.MAX_VALUE, directory);
+
+    assertThat(evalAndGet(sum(count())), is(3));
+    assertThat(counter.get(), is(1)); // only called once
+    assertThat(context.stats().spilledValues(), is(0L));
+    assertThat(context.stats().reloadedValues(), is(0L));
+  }
+
+  @Test
+  public void spillsAndReloadsValuesOverBudget() throws Exception {
+    context = SpillingMemoizingContext.composeWith(sync(), 0, directory);
+
+    assertThat(evalAndGet(sum(count())), is(3));
+    assertThat(counter.get(), is(1)); // only called once
+
+    final SpillingMemoizingContext.Stats stats = context.stats();
+    assertThat(stats.spilledValues(), is(2L)); // count and sum
+    assertThat(stats.spilledBytes(), is(greaterThan(0L)));
+    assertThat(stats.reloadedValues(), is(2L)); // second and third input of sum
+    assertThat(stats.reloadedBytes(), is(greaterThan(0L)));
+  }
+
+  @Test
+  public void spillsLeastRecentlyRequestedValues() throws Exception {
+    final Task<String> a = string("a", 100);
+    final Task<String> b = string("b", 100);
+    final Task<String> join = Task.named("Join").ofType(String.class)
+        .input(() -> a)
+        .input(() -> b)
+        .input(() -> a)
+        .process((x, y, z) -> x.substring(0, 1) + y.substring(0, 1) + z.substring(0, 1));
+
+    // Room for a and b, but not for both of them and the result of join
+    context = SpillingMemoizingContext.composeWith(sync(), 200, directory);
+
+    assertThat(evalAndGet(join), is("aba"));
+    assertThat(context.stats().reloadedValues(), is(0L));
+    assertThat(context.stats().spilledValues(), is(1L)); // b, as a was requested after it
+
+    assertThat(evalAndGet(b).length(), is(100));
+    assertThat(context.stats().reloadedValues(), is(1L));
+  }
+
+  @Test
+  public void keepsNonSerializableValuesInMemory() throws Exception {
+    final Task<Object> task = Task.named("NonSerializable").ofType(Object.class)
+        .process(Object::new);
+    context = SpillingMemoizingContext.composeWith(sync(), 0, directory);
+
+    final Object value = evalAndGet(task);
+
+    assertThat(evalAndGet(task) == value, is(true));
+    assertThat(context.stats().spilledValues(), is(0L));
+
+    // The pinned value is no longer counted, later values are still spilled
+    evalAndGet(count());
+    assertThat(context.stats().spilledValues(), is(1L));
+    assertThat(evalAndGet(task) == value, is(true));
+  }
+
+  @Test
+  public void closeDeletesSpillFiles() throws Exception {
+    context = SpillingMemoizingContext.composeWith(sync(), 0, directory);
+    evalAndGet(count());
+    try (Stream<Path> files = Files.list(directory)) {
+      assertThat(files.count(), is(1L));
+    }
+
+    context.close();
+
+    assertThat(Files.exists(directory), is(false));
+  }
+
+  private static Task<Integer> count() {
+    return Task.named("Count").ofType(Integer.class)
+        .process(() -> counter.incrementAndGet());
+  }
+
+  private static Task<Integer> sum(Task<Integer> count) {
+    return Task.named("Sum").ofType(Integer.class)
+        .input(() -> count)
+        .input(() -> count)
+        .input(() -> count)
+        .process((a, b, c) -> a + b + c);
+  }
+
+  private static Task<String> string(String s, int length) {
+    return Task.named("String", s, length).ofType(String.class)
+        .process(() -> String.join("", Collections.nCopies(length, s)));
+  }
+
+  private <T> T evalAndGet(Task<T> task) throws InterruptedException {
+    AwaitValue<T> val = new AwaitValue<>();
+    context.evaluate(task).consume(val);
+    return val.awaitAndGet();
+  }
+}
@@ -29,6 +29,7 @@ import com.spotify.flo.AwaitValue;
 import com.spotify.flo.EvalContext;
 import com.spotify.flo.EvalContext.Promise;
 import com.spotify.flo.EvalContext.Value;
+import com.spotify.flo.Task;
 import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Test;
 
@@ -168,6 +169,30 @@ public class SyncContextTest {
     assertThrown(val, promise);
   }
 
+  @Test
+  public void throwingConsumerDoesNotPreventOtherCallbacks() throws Exception {
+    AtomicReference<String> val = new AtomicReference<>();
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Promise<String> promise1 = context.promise();
+    Promise<String> promise2 = context.promise();
+
+    promise1.value().consume(s -> {
+      throw new RuntimeException("consumer");
+    });
+    promise1.value().consume(val::set);
+    promise2.value().onFail(t -> {
+      throw new RuntimeException("errorConsumer");
+    });
+    promise2.value().map(s -> s + " world").onFail(failure::set);
+
+    promise1.set("hello");
+    assertThat(val.get(), is("hello"));
+
+    Throwable thrown = new Throwable();
+    promise2.fail(thrown);
+    assertTrue(failure.get() == thrown);
+  }
+
   private void assertThrown(AtomicReference<Throwable> val, Promise<String> promise) throws Exception {
     Throwable thrown = new Throwable();
     promise.fail(thrown);
@@ -237,6 +262,35 @@ public class SyncContextTest {
     assertThat(evalThread2.get(), is(outerThread));
   }
 
+  @Test
+  public void failedValueIsAvailable() throws Exception {
+    AtomicReference<Throwable> val = new AtomicReference<>();
+    RuntimeException thrown = new RuntimeException("boom");
+    context.value(() -> {
+      throw thrown;
+    }).onFail(val::set);
+
+    assertTrue(val.get() == thrown);
+  }
+
+  @Test
+  public void evaluatesMemoizedTaskGraphImmediately() throws Exception {
+    AtomicReference<Long> val = new AtomicReference<>();
+    MemoizingContext.composeWith(context).evaluate(fib(92)).consume(val::set);
+
+    assertThat(val.get(), is(7540113804746346429L));
+  }
+
+  private static Task<Long> fib(long n) {
+    if (n < 2) {
+      return Task.named("Fib", n).ofType(Long.class).process(() -> n);
+    }
+    return Task.named("Fib", n).ofType(Long.class)
+        .input(() -> fib(n - 1))
+        .input(() -> fib(n - 2))
+        .process((a, b) -> a + b);
+  }
+
   @Test(expected = IllegalStateException.class)
   public void promiseShouldOnlyAllowSetOnce() throws Exception {
     Promise<String> promise = context.promise();
@@ -0,0 +1,90 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2017 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.EvalContext.Promise;
+import com.spotify.flo.EvalContext.Value;
+import com.spotify.flo.Task;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class TrampolinedSyncContextTest extends SyncContextTest {
+
+  private static final int DEPTH = 10_000;
+
+  public TrampolinedSyncContextTest() {
+    context = SyncContext.createTrampolined();
+  }
+
+  @Test
+  public void evaluatesDeepChainInBoundedStackDepth() throws Exception {
+    AtomicReference<Integer> val = new AtomicReference<>();
+    MemoizingContext.composeWith(context).evaluate(day(DEPTH)).consume(val::set);
+
+    assertThat(val.get(), is(DEPTH));
+  }
+
+  @Test
+  public void propagatesFailureThroughDeepChain() throws Exception {
+    AtomicReference<Throwable> val = new AtomicReference<>();
+    MemoizingContext.composeWith(context).evaluate(failingDay(DEPTH)).onFail(val::set);
+
+    assertThat(val.get().getMessage(), is("no data"));
+  }
+
+  @Test
+  public void runsDeepCallbackChainInBoundedStackDepth() throws Exception {
+    AtomicReference<Integer> val = new AtomicReference<>();
+    Promise<Integer> promise = context.promise();
+    Value<Integer> value = promise.value();
+    for (int i = 0; i < DEPTH; i++) {
+      value = value.map(n -> n + 1);
+    }
+    value.consume(val::set);
+
+    promise.set(0);
+    assertThat(val.get(), is(DEPTH));
+  }
+
+  private static Task<Integer> day(int i) {
+    if (i == 0) {
+      return Task.named("Day", i).ofType(Integer.class).process(() -> 0);
+    }
+    return Task.named("Day", i).ofType(Integer.class)
+        .input(() -> day(i - 1))
+        .process(previous -> previous + 1);
+  }
+
+  private static Task<Integer> failingDay(int i) {
+    if (i == 0) {
+      return Task.named("FailingDay", i).ofType(Integer.class).process(() -> {
+        throw new RuntimeException("no data");
+      });
+    }
+    return Task.named("FailingDay", i).ofType(Integer.class)
+        .input(() -> failingDay(i - 1))
+        .process(previous -> previous + 1);
+  }
+}
@@ -0,0 +1,116 @@
+/*-
+ * -\-\-
+ * Flo Workflow Definition
+ * --
+ * Copyright (C) 2016 - 2018 Spotify AB
+ * --
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * -/-/-
+ */
+
+package com.spotify.flo.context;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import com.spotify.flo.EvalContext;
+import com.spotify.flo.Task;
+import com.spotify.flo.TaskId;
+import com.spotify.flo.Tracing;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+
+  @Test
+  public void shouldCapConcurrency() throws Exception {
+    final ExecutorService executor = VirtualThreads.newExecutor(2);
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(10);
+
+    for (int i = 0; i < 10; i++) {
+      executor.execute(() -> {
+        final int now = running.incrementAndGet();
+        maxRunning.accumulateAndGet(now, Math::max);
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        running.decrementAndGet();
+        done.countDown();
+      });
+    }
+
+    assertThat(done.await(30, TimeUnit.SECONDS), is(true));
+    assertThat(maxRunning.get(), lessThanOrEqualTo(2));
+    executor.shutdown();
+  }
+
+  @Test
+  public void shouldNotLimitBlockedTasksWithoutCap() throws Exception {
+    final ExecutorService executor = VirtualThreads.newExecutor();
+    final int n = 64;
+    final CountDownLatch started = new CountDownLatch(n);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    for (int i = 0; i < n; i++) {
+      executor.execute(() -> {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+
+    // All tasks block at the same time, which would starve a small fixed pool
+    assertThat(started.await(30, TimeUnit.SECONDS), is(true));
+    release.countDown();
+    executor.shutdown();
+  }
+
+  @Test
+  public void shouldEvaluateTasks() throws Exception {
+    final EvalContext context = MemoizingContext.composeWith(EvalContext.virtual(4));
+    final Task<Integer> sum = Task.named("Sum").ofType(Integer.class)
+        .inputs(() -> IntStream.range(0, 10).mapToObj(VirtualThreadsTest::leaf).collect(toList()))
+        .process(values -> values.stream().mapToInt(Integer::intValue).sum());
+
+    assertThat(context.evaluate(sum).toFuture().get(30, TimeUnit.SECONDS), is(45));
+  }
+
+  @Test
+  public void shouldPropagateTracingContext() throws Exception {
+    final EvalContext context = EvalContext.virtual();
+    final TaskId taskId = TaskId.create("Traced");
+
+    final TaskId traced = Tracing.trace(taskId,
+        () -> context.value(Tracing::currentTaskId).get())
+        .get();
+
+    assertThat(traced, is(taskId));
+  }
+
+  private static Task<Integer> leaf(int i) {
+    return Task.named("Leaf", i).ofType(Integer.class).process(() -> i);
+  }
+}